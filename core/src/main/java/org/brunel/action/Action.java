@@ -24,7 +24,9 @@ import org.brunel.model.VisSingle;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An Action is an immutable object that contains a sequence of commands that can be used to build a visualization.
@@ -39,20 +41,43 @@ import java.util.List;
  */
 public class Action implements Comparable<Action> {
 
+    /* Maximum number of parsed texts to keep */
+    private static final int PARSE_CACHE_SIZE = 1000;
+
+    /* Actions are immutable, so the same text always gives the same one; the least recently used are removed */
+    private static final Map<String, Action> parsed = new LinkedHashMap<String, Action>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Action> eldest) {
+            return size() > PARSE_CACHE_SIZE;
+        }
+    };
+
     /**
-     * Parses the text and returns an action for it; throws an error if syntactically incorrect
+     * Parses the text and returns an action for it; throws an error if syntactically incorrect.
+     * Recently parsed texts are cached, so parsing the same text again returns the same action
      *
      * @param text input text
      * @return valid action
      * @throws VisException wraps any error in parsing
      */
     public static Action parse(String text) {
-        return Parser.parse(text);
+        Action action;
+        synchronized (parsed) {
+            action = parsed.get(text);
+        }
+        if (action != null) return action;
+        action = Parser.parse(text);                            // Parse outside the lock
+        synchronized (parsed) {
+            parsed.put(text, action);
+        }
+        return action;
     }
 
     /* The sequence of action commands */
     public final ActionStep[] steps;
 
+    /* The result of simplify(), calculated when first needed */
+    private volatile Action simplified;
+
     /* Basic Constructor */
     Action(ActionStep... actions) {
         this.steps = actions;
@@ -168,9 +193,14 @@ public class Action implements Comparable<Action> {
      */
     public Action simplify() {
         if (steps.length == 1) return this;
-        ActionStep[] sequence = new ActionSimplification(steps).make();
-        if (sequence.length == 0) return null;
-        return new Action(sequence);
+        Action result = simplified;
+        if (result == null) {
+            ActionStep[] sequence = new ActionSimplification(steps).make();
+            if (sequence.length == 0) return null;
+            result = new Action(sequence);
+            simplified = result;
+        }
+        return result;
     }
 
     /* Creates a VisItem for a single chart */
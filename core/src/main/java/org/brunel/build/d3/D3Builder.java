@@ -26,16 +26,20 @@ import org.brunel.build.element.ElementStructure;
 import org.brunel.build.util.BuilderOptions;
 import org.brunel.build.util.ScriptWriter;
 import org.brunel.data.Data;
+import org.brunel.data.Dataset;
 import org.brunel.model.VisItem;
 import org.brunel.model.VisSingle;
 import org.brunel.model.VisTypes;
 
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /*
         The methods of this class are called as an Abstract Builder to build the chart
@@ -63,10 +67,13 @@ public class D3Builder extends AbstractBuilder {
     }
 
     private ScriptWriter out;                   // Where to write code
+    private Writer target;                      // If defined, the code is streamed to this as it is generated
     private int visWidth, visHeight;            // Overall vis size
     private D3ScaleBuilder scalesBuilder;       // The scales for the current chart
     private D3Interaction interaction;          // Builder for interactions
     private D3ElementBuilder[] elementBuilders; // Builder for each element
+    private boolean builtDataAllowed;           // True if elements may be sent the data built on the server
+    private Set<Dataset> rawData;               // Data sets whose original rows are used by some element
 
     private D3Builder(BuilderOptions options) {
         super(options);
@@ -76,6 +83,16 @@ public class D3Builder extends AbstractBuilder {
         return out.content();
     }
 
+    /**
+     * Send the Javascript to the writer as it is generated, rather than keeping it in memory.
+     * This must be called before building; afterwards, getVisualization() flushes the writer and returns an empty string
+     *
+     * @param target where to send the Javascript
+     */
+    public void streamTo(Writer target) {
+        this.target = target;
+    }
+
     public String makeImports() {
 
         String pattern = "\t<script src=\"%s\" charset=\"utf-8\"></script>\n";
@@ -186,8 +203,12 @@ public class D3Builder extends AbstractBuilder {
         // Data transforms
         int datasetIndex = structure.getBaseDatasetIndex();
         VisSingle vis = structure.vis;
+        Map<String, Integer> resultFields = createResultFields(vis);
         D3DataBuilder dataBuilder = new D3DataBuilder(vis, out, structure.data, datasetIndex);
-        dataBuilder.writeDataManipulation(createResultFields(vis));
+        boolean useBuiltData = builtDataAllowed && !rawData.contains(structure.original)
+                && dataBuilder.canUseBuiltData(resultFields);
+        if (!useBuiltData) rawData.add(structure.original);
+        dataBuilder.writeDataManipulation(resultFields, useBuiltData);
 
         scalesBuilder.writeAestheticScales(vis);
         scalesBuilder.writeLegends(vis);
@@ -211,7 +232,11 @@ public class D3Builder extends AbstractBuilder {
     protected void defineVisSystem(VisItem main, int width, int height) {
         this.visWidth = width;
         this.visHeight = height;
-        this.out = new ScriptWriter(options);
+        this.out = new ScriptWriter(options, target);
+        this.builtDataAllowed = options.includeData == BuilderOptions.DataMethod.minimal
+                && !D3DataBuilder.hasFilterControls(main);
+        this.rawData = new HashSet<Dataset>();
+        D3DataBuilder.addInteractiveData(main, rawData);            // Selection is shared by all their elements
 
         // Write the class definition function (and flag to use strict mode)
         out.add("function ", options.className, "(visId) {").ln().indentMore();
@@ -283,7 +308,7 @@ public class D3Builder extends AbstractBuilder {
         out.indentLess().onNewLine().add("}").ln();
 
         // Create the initial raw data table
-        D3DataBuilder.writeTables(main, out, options);
+        D3DataBuilder.writeTables(main, out, options, rawData);
 
         // Call the function on the data
         if (options.generateBuildCode) {
@@ -23,6 +23,7 @@ import org.brunel.build.util.ScriptWriter;
 import org.brunel.data.Data;
 import org.brunel.data.Dataset;
 import org.brunel.data.Field;
+import org.brunel.data.io.Serialize;
 import org.brunel.data.summary.FieldRowComparison;
 import org.brunel.data.util.DateFormat;
 import org.brunel.data.util.Range;
@@ -30,6 +31,8 @@ import org.brunel.model.VisItem;
 import org.brunel.model.VisSingle;
 import org.brunel.model.VisTypes;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
@@ -37,9 +40,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Write the Javascript for the data
@@ -47,73 +52,174 @@ import java.util.Map;
 public class D3DataBuilder {
 
     public static void writeTables(VisItem main, ScriptWriter out, BuilderOptions options) {
+        writeTables(main, out, options, Arrays.asList(main.getDataSets()));
+    }
+
+    /**
+     * Write the tables of original data for the visualization
+     *
+     * @param main    the visualization
+     * @param out     where to write the tables
+     * @param options how much data to write
+     * @param rawData the data sets whose rows are needed; for the minimal data method the others are written empty
+     */
+    public static void writeTables(VisItem main, ScriptWriter out, BuilderOptions options, Collection<Dataset> rawData) {
         if (options.includeData == BuilderOptions.DataMethod.none) return;
-        if (options.includeData == BuilderOptions.DataMethod.minimal) {
-            throw new UnsupportedOperationException("Cannot make minimal data yet");
-        }
+        boolean minimal = options.includeData == BuilderOptions.DataMethod.minimal;
 
         out.titleComment("Data Tables");
 
-        NumberFormat format = new DecimalFormat();
-        format.setGroupingUsed(false);
-        format.setMinimumFractionDigits(0);
-        format.setMaximumFractionDigits(8);
-
         Dataset[] datasets = main.getDataSets();
         for (int d = 0; d < datasets.length; d++) {
             Dataset data = datasets[d];
+            int rowCount = data.rowCount();
             Field[] fields;
 
-            if (options.includeData == BuilderOptions.DataMethod.columns) {
+            if (minimal && !rawData.contains(data)) {
+                // Every element using this data has its own built data, so the rows are not needed
+                fields = new Field[0];
+                rowCount = 0;
+            } else if (options.includeData != BuilderOptions.DataMethod.full) {
                 // Only the fields needed by the vis items
                 LinkedHashSet<Field> fieldsAsSet = new LinkedHashSet<Field>();
                 addUsedFields(main, data, fieldsAsSet);
                 fields = fieldsAsSet.toArray(new Field[fieldsAsSet.size()]);
             } else {
-                // All the fields
-                fields = data.fields;
+                // All the fields, except the special ones
+                List<Field> list = new ArrayList<Field>();
+                for (Field f : data.fields) if (!f.isSynthetic()) list.add(f);
+                fields = list.toArray(new Field[list.size()]);
             }
 
             if (fields.length == 0) {
                 // A Chart that doesn't actually use the data ... just meta values
-                fields = new Field[]{Data.makeConstantField("_dummy_", "Dummy", 1.0, data.rowCount())};
+                fields = new Field[]{Data.makeConstantField("_dummy_", "Dummy", 1.0, rowCount)};
             }
 
             // Name the table with a numeric suffix for multiple tables
             out.onNewLine().add("var", String.format(options.dataName, d + 1), "= {").indentMore();
+            writeTable(fields, options.includeData == BuilderOptions.DataMethod.binary || minimal, out);
+            out.indentLess().onNewLine().add("}").endStatement();
+        }
+    }
 
-            out.onNewLine().add(" names: [");
-            for (int i = 0; i < fields.length; i++) {
-                if (fields[i].isSynthetic()) continue;
-                String name = fields[i].name;
-                if (i > 0) out.add(", ");
-                out.add("'").add(name).add("'");
+    /* Writes the names, types and the data for the fields, as rows or as binary columns */
+    private static void writeTable(Field[] fields, boolean binary, ScriptWriter out) {
+        out.onNewLine().add(" names: [");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) out.add(", ");
+            out.add("'").add(fields[i].name).add("'");
+        }
+        out.add("], ");
+
+        out.onNewLine().add(" options: [");
+        for (int i = 0; i < fields.length; i++) {
+            String name = fields[i].isDate() ? "date" : (fields[i].isNumeric() ? "numeric" : "string");
+            if (i > 0) out.add(", ");
+            out.add("'").add(name).add("'");
+        }
+        out.add("], ");
+
+        if (binary) {
+            writeColumns(fields, out);
+            return;
+        }
+
+        out.onNewLine().add(" rows: [");
+
+        RowText rows = new RowText(fields);
+        for (int r = 0; r < fields[0].rowCount(); r++) {
+            if (r > 0) out.add(",");
+            String rowText = rows.make(r);
+            if (out.currentColumn() + rowText.length() > 99)
+                out.onNewLine();
+            else if (r > 0)
+                out.add(" ");
+            out.add(rowText);
+        }
+        out.add("]");
+    }
+
+    /*
+     * Each column is written as an object with base64 encoded binary data, decoded by BrunelD3.makeData:
+     *      { v: values }                   -- numbers (dates as milliseconds), as 64-bit floats with NaN for missing
+     *      { v: values, c: codes, w: n }   -- distinct numbers as above, and an n-byte index into them for each row
+     *      { s: field }                    -- text, as a field written using Serialize
+     */
+    private static void writeColumns(Field[] fields, ScriptWriter out) {
+        out.onNewLine().add(" columns: [");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) out.add(",");
+            out.onNewLine().add("  ").add(makeColumn(fields[i]));
+        }
+        out.add("]");
+    }
+
+    private static String makeColumn(Field field) {
+        int n = field.rowCount();
+        double[] values = field.isNumeric() ? numericValues(field) : null;
+        if (values == null) {
+            // Write as text in the same way as the rows, so the client converts it in the same way too
+            Object[] text = new Object[n];
+            for (int i = 0; i < n; i++) {
+                Object value = field.value(i);
+                text[i] = value == null ? null : value.toString();
             }
-            out.add("], ");
+            Field f = Data.makeColumnField(field.name, field.label, text);
+            return "{s:'" + D3Util.base64(Serialize.serializeField(f)) + "'}";
+        }
 
-            out.onNewLine().add(" options: [");
-            for (int i = 0; i < fields.length; i++) {
-                if (fields[i].isSynthetic()) continue;
-                String name = fields[i].isDate() ? "date" : (fields[i].isNumeric() ? "numeric" : "string");
-                if (i > 0) out.add(", ");
-                out.add("'").add(name).add("'");
+        // Find the distinct values, using the bit patterns so NaN is handled like any other value
+        Map<Long, Integer> index = new HashMap<Long, Integer>();
+        int[] codes = new int[n];
+        for (int i = 0; i < n; i++) {
+            Long key = Double.doubleToLongBits(values[i]);
+            Integer code = index.get(key);
+            if (code == null) {
+                code = index.size();
+                index.put(key, code);
             }
-            out.add("], ");
-
-            out.onNewLine().add(" rows: [");
-
-            for (int r = 0; r < data.rowCount(); r++) {
-                if (r > 0) out.add(",");
-                String rowText = makeRowText(fields, r, format);
-                if (out.currentColumn() + rowText.length() > 99)
-                    out.onNewLine();
-                else if (r > 0)
-                    out.add(" ");
-                out.add(rowText);
+            codes[i] = code;
+        }
+
+        int width = index.size() <= 256 ? 1 : (index.size() <= 65536 ? 2 : 4);
+        if (8 * index.size() + width * n >= 8 * n)
+            return "{v:'" + D3Util.base64(doubleBytes(values, n)) + "'}";
+
+        double[] distinct = new double[index.size()];
+        for (Map.Entry<Long, Integer> e : index.entrySet()) distinct[e.getValue()] = Double.longBitsToDouble(e.getKey());
+        ByteBuffer b = ByteBuffer.allocate(width * n).order(ByteOrder.LITTLE_ENDIAN);
+        for (int code : codes) {
+            if (width == 1) b.put((byte) code);
+            else if (width == 2) b.putShort((short) code);
+            else b.putInt(code);
+        }
+        return "{v:'" + D3Util.base64(doubleBytes(distinct, distinct.length)) + "', c:'"
+                + D3Util.base64(b.array()) + "', w:" + width + "}";
+    }
+
+    /* Numeric values (dates as milliseconds), or null if some values are not simple numbers */
+    private static double[] numericValues(Field field) {
+        int n = field.rowCount();
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (field.isDate()) {
+                Object value = field.value(i);
+                Date date = Data.asDate(value);
+                if (value != null && date == null) return null;
+                values[i] = date == null ? Double.NaN : date.getTime();
+            } else {
+                values[i] = field.numericValue(i);
+                if (Double.isNaN(values[i]) && field.value(i) != null) return null;
             }
-            out.add("]");
-            out.indentLess().onNewLine().add("}").endStatement();
         }
+        return values;
+    }
+
+    private static byte[] doubleBytes(double[] values, int n) {
+        ByteBuffer b = ByteBuffer.allocate(8 * n).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < n; i++) b.putDouble(values[i]);
+        return b.array();
     }
 
     private static void addUsedFields(VisItem item, Dataset data, Collection<Field> fields) {
@@ -131,33 +237,99 @@ public class D3DataBuilder {
         }
     }
 
-    // If the row contains any nulls, return null for the whole row
-    private static String makeRowText(Field[] fields, int r, NumberFormat format) {
-        StringBuilder row = new StringBuilder();
-        D3Util.DateBuilder dateBuilder = new D3Util.DateBuilder();
-        row.append("[");
-        for (int i = 0; i < fields.length; i++) {
-            Field field = fields[i];
-            if (field.name.startsWith("#")) continue;           // Skip special fields
-            if (i > 0) row.append(", ");
-            Object value = field.value(r);
-            if (value == null) {
-                row.append("null");
-            } else if (value instanceof Range) {
-                row.append(Data.quote(value.toString()));
-            } else if (field.isDate()) {
-                Date date = Data.asDate(value);
-                if (date == null) row.append("null");
-                else row.append(dateBuilder.make(date, (DateFormat) field.property("dateFormat"), false));
-            } else if (field.isNumeric()) {
-                Double d = Data.asNumeric(value);
-                if (d == null) row.append("null");
-                else row.append(format.format(d));
-            } else
-                row.append(Data.quote(value.toString()));
-        }
-        row.append("]");
-        return row.toString();
+    /**
+     * Filter controls modify the original data on the client, so any in the visualization mean the
+     * client must transform the original rows itself
+     *
+     * @param item visualization to check
+     * @return true if any part of it has filter controls
+     */
+    public static boolean hasFilterControls(VisItem item) {
+        if (item.children() == null) return !((VisSingle) item).fFilter.isEmpty();
+        for (VisItem i : item.children())
+            if (hasFilterControls(i)) return true;
+        return false;
+    }
+
+    /**
+     * Selection and filtering interactions mark rows of the original data, and every element using that data shows
+     * the result, so all elements on those data sets need the original rows
+     *
+     * @param item the visualization
+     * @param result the data sets used by any element with a select or filter interaction are added to this
+     */
+    public static void addInteractiveData(VisItem item, Set<Dataset> result) {
+        if (item.children() == null) {
+            VisSingle vis = (VisSingle) item;
+            if (vis.tInteraction.containsKey(VisTypes.Interaction.select)
+                    || vis.tInteraction.containsKey(VisTypes.Interaction.filter))
+                result.add(vis.getDataset());
+        } else {
+            for (VisItem i : item.children()) addInteractiveData(i, result);
+        }
+    }
+
+    /* Writes the text for each row; the field types and formatting objects are set up once for all the rows */
+    private static class RowText {
+        private final Field[] fields;
+        private final boolean[] numeric, date;
+        private final NumberFormat format = new DecimalFormat();
+        private final D3Util.DateBuilder dateBuilder = new D3Util.DateBuilder();
+        private final StringBuilder row = new StringBuilder();
+
+        RowText(Field[] fields) {
+            this.fields = fields;
+            numeric = new boolean[fields.length];
+            date = new boolean[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                numeric[i] = fields[i].isNumeric();
+                date[i] = fields[i].isDate();
+            }
+            format.setGroupingUsed(false);
+            format.setMinimumFractionDigits(0);
+            format.setMaximumFractionDigits(8);
+        }
+
+        String make(int r) {
+            row.setLength(0);
+            row.append("[");
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                if (i > 0) row.append(", ");
+                if (numeric[i] && !date[i]) {
+                    double d = field.numericValue(r);               // Avoids creating an object for simple numbers
+                    if (!Double.isNaN(d)) {
+                        appendNumber(d);
+                        continue;
+                    }
+                }
+                Object value = field.value(r);
+                if (value == null) {
+                    row.append("null");
+                } else if (value instanceof Range) {
+                    row.append(Data.quote(value.toString()));
+                } else if (date[i]) {
+                    Date d = Data.asDate(value);
+                    if (d == null) row.append("null");
+                    else row.append(dateBuilder.make(d, (DateFormat) field.property("dateFormat"), false));
+                } else if (numeric[i]) {
+                    Double d = Data.asNumeric(value);
+                    if (d == null) row.append("null");
+                    else appendNumber(d);
+                } else
+                    row.append(Data.quote(value.toString()));
+            }
+            row.append("]");
+            return row.toString();
+        }
+
+        private void appendNumber(double d) {
+            // Whole numbers are common and can be written directly; the format is much slower
+            if (d == Math.rint(d) && Math.abs(d) < 1e15 && (d != 0 || 1 / d > 0))
+                row.append((long) d);
+            else
+                row.append(format.format(d));
+        }
     }
 
     private final VisSingle vis;
@@ -172,13 +344,74 @@ public class D3DataBuilder {
         datasetIndex = index;
     }
 
-    public void writeDataManipulation(Map<String, Integer> requiredFields) {
+    /**
+     * Minimal data can be used when the client does not need to transform the rows itself.
+     * Selection and filtering work on the original rows, and network diagrams with multiple 'y' values
+     * summarize on the client, so they must use the original data. Ranges cannot be sent as simple values.
+     *
+     * @param requiredFields fields the client uses from the processed data
+     * @return true if the server-built data can be sent instead
+     */
+    public boolean canUseBuiltData(Map<String, Integer> requiredFields) {
+        if (vis.tInteraction.containsKey(VisTypes.Interaction.select)) return false;
+        if (vis.tInteraction.containsKey(VisTypes.Interaction.filter)) return false;
+        if (vis.tDiagram == VisTypes.Diagram.network && vis.fY.size() > 1) return false;
+        for (Field field : builtFields(requiredFields))
+            for (int i = 0; i < field.rowCount(); i++)
+                if (field.value(i) instanceof Range) return false;
+        return true;
+    }
+
+    public void writeDataManipulation(Map<String, Integer> requiredFields, boolean useBuiltData) {
+        if (useBuiltData) writeBuiltData(requiredFields);
         out.onNewLine().ln().add("function makeData() {").ln().indentMore();
-        writeDataTransforms();
+        if (useBuiltData) {
+            // The server has already applied the transforms
+            out.add("original = datasets[" + datasetIndex + "]").endStatement();
+            out.add("processed = post(builtData,", datasetIndex, ")").endStatement();
+        } else {
+            writeDataTransforms();
+        }
         writeHookup(requiredFields);
         out.indentLess().onNewLine().add("}").ln();
     }
 
+    /* Only the fields the client needs, including special ones like '#row' and '#values', in the order they are used */
+    private Field[] builtFields(Map<String, Integer> requiredFields) {
+        Field[] byIndex = new Field[requiredFields.size()];
+        for (Map.Entry<String, Integer> e : requiredFields.entrySet())
+            byIndex[e.getValue()] = data.field(e.getKey());
+        List<Field> fields = new ArrayList<Field>();
+        for (Field field : byIndex) if (field != null) fields.add(field);
+        return fields.toArray(new Field[fields.size()]);
+    }
+
+    private void writeBuiltData(Map<String, Integer> requiredFields) {
+        Field[] fields = builtFields(requiredFields);
+        if (fields.length == 0)
+            fields = new Field[]{Data.makeConstantField("_dummy_", "Dummy", 1.0, data.rowCount())};
+        out.onNewLine().add("var builtData = BrunelD3.makeData({").indentMore();
+        writeTable(fields, true, out);
+
+        // Summaries change how values are formatted (e.g. percentages)
+        String[] summaries = new String[fields.length];
+        boolean summarized = false;
+        for (int i = 0; i < fields.length; i++) {
+            summaries[i] = fields[i].stringProperty("summary");
+            summarized = summarized || summaries[i] != null;
+        }
+        if (summarized) {
+            out.add(",").onNewLine().add(" summary: [");
+            for (int i = 0; i < summaries.length; i++) {
+                if (i > 0) out.add(", ");
+                out.add(summaries[i] == null ? "null" : out.quote(summaries[i]));
+            }
+            out.add("]");
+        }
+        out.add(",").onNewLine().add(" built: true");
+        out.indentLess().onNewLine().add("})").endStatement();
+    }
+
     private void writeDataTransforms() {
         // The parameters are stored in the data set when it is transformed
         DataTransformParameters params = (DataTransformParameters) data.property("parameters");
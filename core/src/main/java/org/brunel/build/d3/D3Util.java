@@ -30,6 +30,7 @@ import java.util.TimeZone;
 public class D3Util {
 
     private static final boolean DEBUG = false;
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
 
     public static String writeCall(Field f) {
         return "data." + baseFieldID(f) + "(d)";
@@ -59,6 +60,28 @@ public class D3Util {
         if (DEBUG) out.onNewLine().add("BrunelD3.time(" + out.quote(s) + ")").endStatement();
     }
 
+    /**
+     * Encode bytes as base64 text, which the browser can decode using 'atob'
+     *
+     * @param bytes data to encode
+     * @return base64 text, with padding and no line breaks
+     */
+    public static String base64(byte[] bytes) {
+        char[] result = new char[(bytes.length + 2) / 3 * 4];
+        int p = 0;
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = bytes.length - i;
+            int b = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) b |= (bytes[i + 1] & 0xff) << 8;
+            if (remaining > 2) b |= bytes[i + 2] & 0xff;
+            result[p++] = BASE64.charAt(b >> 18);
+            result[p++] = BASE64.charAt((b >> 12) & 63);
+            result[p++] = remaining > 1 ? BASE64.charAt((b >> 6) & 63) : '=';
+            result[p++] = remaining > 2 ? BASE64.charAt(b & 63) : '=';
+        }
+        return new String(result);
+    }
+
     public static String stripFunction(String item) {
         int p = item.indexOf("return");
         int q = item.lastIndexOf("}");
@@ -65,15 +65,19 @@ public class DataBuilder {
         // Call the engine to see if it has any special needs
         params = modifier.modifyParameters(params, vis);
 
-        Dataset data = vis.getDataset();                                                // The data to use
-        data = data.addConstants(params.constantsCommand);                              // add constant fields
-        data = data.filter(params.filterCommand);                                       // filter data
-        data = data.bin(params.transformCommand);                                       // bin data
-        data = data.summarize(params.summaryCommand);                                   // summarize data
-        data = data.series(params.seriesCommand);                                       // convert series
-        data = data.sort(params.sortCommand);                                           // sort data
-        data = data.sortRows(params.sortRowsCommand);                                   // sort rows only
-        data = data.stack(params.stackCommand);                                         // stack data
+        // Each stage uses the cached result if the same stage has been applied to the same data before
+        TransformCache cache = TransformCache.instance();
+        Dataset source = vis.getDataset();                                              // The data to use
+        Dataset data = source;
+        data = cache.transform(source, data, "addConstants", params.constantsCommand);  // add constant fields
+        data = cache.transform(source, data, "filter", params.filterCommand);           // filter data
+        data = cache.transform(source, data, "bin", params.transformCommand);           // bin data
+        data = cache.transform(source, data, "summarize", params.summaryCommand);       // summarize data
+        data = cache.transform(source, data, "series", params.seriesCommand);           // convert series
+        data = cache.transform(source, data, "sort", params.sortCommand);               // sort data
+        data = cache.transform(source, data, "sortRows", params.sortRowsCommand);       // sort rows only
+        data = cache.transform(source, data, "stack", params.stackCommand);             // stack data
+        if (data != source) data = data.replaceFields(data.fields);                     // Cached results are shared
         data.set("parameters", params);                                                 // Params used to build this
         return data;
     }
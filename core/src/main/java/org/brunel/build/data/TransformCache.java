@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.build.data;
+
+import org.brunel.build.util.CacheStatistics;
+import org.brunel.data.Dataset;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the results of each stage of building data, within a memory budget.
+ * A result is keyed by the source data set it was made from (by identity) and the stages and commands applied to it.
+ * Because each stage is applied to the cached result of the one before, builds that share the first few stages
+ * share those results, and only the later stages are calculated. The least recently used results are removed
+ * when the budget is exceeded.
+ *
+ * Only results made from retained sources are stored. Sources are retained by the data cache while it holds them
+ * (and so counts them in its own budget), and released when it replaces or evicts them, which removes all the
+ * results made from them. Data sets made for a single request are never retained, so the cache never keeps them
+ * alive. Keys do not refer to intermediate data sets, so the only data held here is counted in the budget.
+ * It is safe to use from multiple threads; the lock is only held while the map is updated.
+ */
+public class TransformCache {
+
+    /* Default maximum amount of memory to allow in cache in bytes */
+    public static final long DEFAULT_MAX_MEMORY = 128 * 1024 * 1024;
+
+    private static final TransformCache instance = new TransformCache(DEFAULT_MAX_MEMORY);
+
+    public static TransformCache instance() {
+        return instance;
+    }
+
+    private final Map<Key, Entry> map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);         // In access order
+    private final Map<Dataset, Boolean> retained = new IdentityHashMap<Dataset, Boolean>();   // Sources to store for
+    private final Map<Dataset, String> stagesOf = new IdentityHashMap<Dataset, String>();     // How results were made
+    private volatile long maxMemory;
+    private long memoryUse = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a cache with a defined memory budget
+     *
+     * @param maxMemory the maximum estimated size of all results in the cache, in bytes
+     */
+    public TransformCache(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Apply a stage to a data set, using a cached result if there is one.
+     * Results are only cached when the source is retained, and the data is the source or a cached result made from it
+     *
+     * @param source  the original data set the build started from
+     * @param data    the data set to transform; either the source or the result of previous stages
+     * @param stage   the Dataset method for the stage (addConstants, filter, bin, summarize, series, sort, sortRows, stack)
+     * @param command the command for that stage
+     * @return the transformed data, which must not be modified as it may be shared
+     */
+    public Dataset transform(Dataset source, Dataset data, String stage, String command) {
+        if (command.isEmpty()) return data;                             // Nothing to do, nothing to store
+        Key key;
+        Entry entry;
+        synchronized (map) {
+            String previous = data == source ? "" : stagesOf.get(data);
+            if (!retained.containsKey(source) || previous == null) return apply(data, stage, command);
+            key = new Key(source, previous + stage + ":" + command + "\n");
+            entry = map.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.result;
+        }
+        misses.incrementAndGet();
+
+        Dataset result = apply(data, stage, command);
+        entry = new Entry(result, result.expectedSize());              // Measure outside the lock
+        synchronized (map) {
+            if (!retained.containsKey(source)) return result;           // Released while we were working
+            Entry previous = map.put(key, entry);
+            if (previous != null) remove(previous);
+            stagesOf.put(result, key.stages);
+            memoryUse += entry.size;
+            evict(key);
+        }
+        return result;
+    }
+
+    /**
+     * Allow results made from a data set to be stored; called when it is stored in the data cache
+     *
+     * @param source the original data set
+     */
+    public void retain(Dataset source) {
+        synchronized (map) {
+            retained.put(source, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Remove all results made from a data set, and store no more; called when it is replaced or evicted in the
+     * data cache
+     *
+     * @param source the original data set
+     */
+    public void invalidate(Dataset source) {
+        synchronized (map) {
+            retained.remove(source);
+            Iterator<Map.Entry<Key, Entry>> iterator = map.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> e = iterator.next();
+                if (e.getKey().source != source) continue;
+                remove(e.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Change the memory budget, removing results if needed to fit within the new budget
+     *
+     * @param maxMemory the maximum estimated size of all results in the cache, in bytes
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        synchronized (map) {
+            evict(null);
+        }
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Return the current statistics for the cache
+     *
+     * @return statistics (with no load information)
+     */
+    public CacheStatistics statistics() {
+        synchronized (map) {
+            return new CacheStatistics(hits.get(), misses.get(), evictions.get(), 0, 0, 0, 0, map.size(), memoryUse);
+        }
+    }
+
+    private static Dataset apply(Dataset data, String stage, String command) {
+        if (stage.equals("addConstants")) return data.addConstants(command);
+        if (stage.equals("filter")) return data.filter(command);
+        if (stage.equals("bin")) return data.bin(command);
+        if (stage.equals("summarize")) return data.summarize(command);
+        if (stage.equals("series")) return data.series(command);
+        if (stage.equals("sort")) return data.sort(command);
+        if (stage.equals("sortRows")) return data.sortRows(command);
+        if (stage.equals("stack")) return data.stack(command);
+        throw new IllegalArgumentException("Unknown data stage: " + stage);
+    }
+
+    /* Remove the least recently used items until we fit within the budget; the item just stored is kept */
+    private void evict(Key keep) {
+        Iterator<Map.Entry<Key, Entry>> iterator = map.entrySet().iterator();
+        while (memoryUse > maxMemory && iterator.hasNext()) {
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) continue;
+            remove(eldest.getValue());
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /* Account for an entry that is being removed from the map */
+    private void remove(Entry entry) {
+        memoryUse -= entry.size;
+        stagesOf.remove(entry.result);
+    }
+
+    /* Sources are compared by identity; equal contents in different instances are not assumed to be the same */
+    private static class Key {
+        final Dataset source;
+        final String stages;                // Each stage and command, one per line
+
+        Key(Dataset source, String stages) {
+            this.source = source;
+            this.stages = stages;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return source == other.source && stages.equals(other.stages);
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(source) * 31 + stages.hashCode();
+        }
+    }
+
+    private static class Entry {
+        final Dataset result;
+        final long size;
+
+        Entry(Dataset result, long size) {
+            this.result = result;
+            this.size = size;
+        }
+    }
+}
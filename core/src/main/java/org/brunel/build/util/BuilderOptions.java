@@ -50,10 +50,14 @@ public class BuilderOptions {
      * none -  no data described
      * full - send full data set
      * columns - send only required columns
-     * minimal - send the minimal data needed by the system
+     * minimal - send the data as built for each element, so the client does not transform it. Elements that need the
+     *           original rows are sent those instead, as binary columns; this includes every element on a data set
+     *           that any element selects or filters. Elements sent built data do not call the dataPreProcess hook,
+     *           and do not show new rows passed to setData(...) or build(...), as the server built their data
+     * binary - send only required columns, encoded compactly as base64 binary data for each column
      */
     public enum DataMethod {
-        none, full, columns, minimal
+        none, full, columns, minimal, binary
     }
 
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.build.util;
+
+/**
+ * A snapshot of the counters for the data cache.
+ * Hit and miss counts are for lookups in the local cache; load counts are for data actually read
+ */
+public class CacheStatistics {
+    public final long hits;                 // Lookups that found a dataset
+    public final long misses;               // Lookups that did not find one
+    public final long evictions;            // Datasets removed to keep within the memory budget
+    public final long loads;                // Datasets read from their source
+    public final long loadFailures;         // Reads that failed
+    public final long sharedLoads;          // Requests that waited for another thread's read of the same key
+    public final long loadTimeNanos;        // Total time spent reading data
+    public final int entries;               // Datasets in the cache
+    public final long memoryUse;            // Estimated size of those datasets in bytes
+
+    public CacheStatistics(long hits, long misses, long evictions, long loads, long loadFailures, long sharedLoads,
+                           long loadTimeNanos, int entries, long memoryUse) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.loads = loads;
+        this.loadFailures = loadFailures;
+        this.sharedLoads = sharedLoads;
+        this.loadTimeNanos = loadTimeNanos;
+        this.entries = entries;
+        this.memoryUse = memoryUse;
+    }
+
+    public double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    public String toString() {
+        return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", loads=" + loads
+                + ", loadFailures=" + loadFailures + ", sharedLoads=" + sharedLoads
+                + ", loadTime=" + loadTimeNanos / 1000000 + "ms, entries=" + entries + ", memory=" + memoryUse;
+    }
+}
@@ -23,9 +23,20 @@ import java.net.URI;
 
 public class ContentReader {
     public static String readContentFromUrl(URI uri) throws IOException {
+        return readContent(openStream(uri));
+    }
+
+    /**
+     * Opens a stream to read the content at the URI; the caller is responsible for closing it
+     *
+     * @param uri location to read from
+     * @return stream of the content
+     * @throws IOException if the content cannot be accessed
+     */
+    public static InputStream openStream(URI uri) throws IOException {
         //TODO:  Centrally handle security
     	try {
-    		return readContent(uri.toURL().openStream());
+    		return uri.toURL().openStream();
     	}
     	catch(IllegalArgumentException ex) {
     		throw new IllegalArgumentException("Could not read data from: " + uri.toString(),ex.getCause());
@@ -16,24 +16,47 @@
 
 package org.brunel.build.util;
 
+import org.brunel.build.data.TransformCache;
 import org.brunel.data.Dataset;
 import org.brunel.data.io.CSV;
 import org.brunel.util.GeneratedData;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Brunel's access to Datasets via a cache.  The key must be unique.  If the key is an URL it will
  * be used to load the content if it is not in the cache.
+ *
+ * The cache may be used from multiple threads. Only one thread reads the data for any given key; other
+ * threads asking for that key wait for it and share the result, while reads for different keys run in parallel.
  */
 public class DataCache {
 
     public static final String SAMPLE_DATA_LOCATION = "http://brunel.mybluemix.net/sample_data/";
     // Local cache is needed because Brunel needs identical Datasets to be the same instance
-    private static DatasetCache localCache = new SimpleCache();
-    private static DatasetCache userCache = null;
+    private static final SimpleCache localCache = new SimpleCache() {
+        protected void evicted(Dataset dataset) {
+            TransformCache.instance().invalidate(dataset);                  // Built data is no longer needed
+        }
+    };
+    private static volatile DatasetCache userCache = null;
+
+    // Reads in progress, by key
+    private static final ConcurrentMap<String, FutureTask<Dataset>> loading = new ConcurrentHashMap<String, FutureTask<Dataset>>();
+
+    private static final AtomicLong loads = new AtomicLong();
+    private static final AtomicLong loadFailures = new AtomicLong();
+    private static final AtomicLong sharedLoads = new AtomicLong();
+    private static final AtomicLong loadTime = new AtomicLong();
 
     /**
      * Specify an alternative cache implementation for storing Datasets by key.
@@ -41,19 +64,40 @@ public class DataCache {
      *
      * @param cache the alternate cache to use
      */
-    public static synchronized void useCache(DatasetCache cache) {
+    public static void useCache(DatasetCache cache) {
         userCache = cache;
     }
-    
+
+    /**
+     * Set the memory budget for the local cache. Datasets are removed, least recently used first, to keep within it
+     *
+     * @param bytes maximum estimated memory for cached datasets
+     */
+    public static void setMemoryLimit(long bytes) {
+        localCache.setMaxMemory(bytes);
+    }
+
+    /**
+     * Returns the current counts of cache hits, misses, evictions and loads
+     *
+     * @return statistics for the local cache
+     */
+    public static CacheStatistics statistics() {
+        CacheStatistics local = localCache.statistics();
+        return new CacheStatistics(local.hits, local.misses, local.evictions, loads.get(), loadFailures.get(),
+                sharedLoads.get(), loadTime.get(), local.entries, local.memoryUse);
+    }
+
     /**
      * Store a dataset into the cache.  If a user cache is provided, the data will be stored there as well.
      * @param dataKey unique identifier for data
      * @param data the data to cache
      */
-    public static synchronized void store(String dataKey, Dataset data) {
-    	localCache.store(dataKey, data);
-    	if (userCache != null) {
-    		userCache.store(dataKey, data);
+    public static void store(String dataKey, Dataset data) {
+    	storeLocal(dataKey, data);
+    	DatasetCache user = userCache;
+    	if (user != null) {
+    		user.store(dataKey, data);
     	}
     }
 
@@ -63,7 +107,7 @@ public class DataCache {
      * @param dataKey the location to read from
      * @return the built data set
      */
-    public static synchronized Dataset get(String dataKey) throws IOException {
+    public static Dataset get(String dataKey) throws IOException {
         return get(dataKey, null);
     }
 
@@ -76,7 +120,7 @@ public class DataCache {
      * @return the built data set
      * @throws IOException can happen if the key is not a URL and the content for the key is no longer in the cache
      */
-    public static synchronized Dataset get(String dataKey, InputStream is) throws IOException {
+    public static Dataset get(String dataKey, InputStream is) throws IOException {
         if (dataKey == null) return null;
 
         boolean useCache = true;                                    // Unless we ask to refresh, use it!
@@ -90,33 +134,98 @@ public class DataCache {
                 useCache = false;
             } else if (uri.getScheme().equals("generate")) {
                 Dataset data = GeneratedData.make(uri.getSchemeSpecificPart());
-                localCache.store(dataKey, data);
+                storeLocal(dataKey, data);
             } else if (uri.getScheme().equals("raw")) {
                 // Raw data is simply a CSV file with newlines replaced by semi-colons. This is intended for quick
                 // testing and not as a production facility -- complex CSV will likely fail.
                 Dataset data = Dataset.make(CSV.read(dataKey.substring(4).replaceAll(";", "\n")));
-                localCache.store(dataKey, data);
+                storeLocal(dataKey, data);
             }
         }
 
-        Dataset dataset = useCache ? localCache.retrieve(dataKey) : null;
+        Dataset dataset = useCache ? retrieve(dataKey) : null;
         if (dataset != null) return dataset;
-        
+        return load(dataKey, uri, is, useCache);
+    }
 
-        // Not found in local cache check if in user supplied cache.
-        // If so, stick it back in the local cache
-        if (userCache != null && useCache) {
-            dataset = userCache.retrieve(dataKey);
-            if (dataset != null) localCache.store(dataKey, dataset);
-        }
+    /* Store in the local cache; data built from any dataset it replaces will not be needed again */
+    private static void storeLocal(String dataKey, Dataset data) {
+        TransformCache.instance().retain(data);
+        Dataset previous = localCache.replace(dataKey, data);
+        if (previous != null && previous != data) TransformCache.instance().invalidate(previous);
+    }
+
+    /* Look in the local cache, then the user supplied cache (in which case we stick it back in the local cache) */
+    private static Dataset retrieve(String dataKey) {
+        Dataset dataset = localCache.retrieve(dataKey);
         if (dataset != null) return dataset;
-        
 
-        // Actually read the data
-        String content = is == null ? ContentReader.readContentFromUrl(uri) : ContentReader.readContent(is);
-        dataset = Dataset.make(CSV.read(content));
-        localCache.store(dataKey, dataset);
-        if (userCache != null) userCache.store(dataKey, dataset);
+        DatasetCache user = userCache;
+        if (user != null) {
+            dataset = user.retrieve(dataKey);
+            if (dataset != null) storeLocal(dataKey, dataset);
+        }
+        return dataset;
+    }
+
+    /* Read the data, unless another thread is already reading it, in which case we wait for its result */
+    private static Dataset load(final String dataKey, final URI uri, final InputStream is, final boolean useCache) throws IOException {
+        FutureTask<Dataset> task = new FutureTask<Dataset>(new Callable<Dataset>() {
+            public Dataset call() throws Exception {
+                // Another thread may have finished reading it just before we started; we have already counted a miss
+                Dataset dataset = useCache ? localCache.peek(dataKey) : null;
+                return dataset != null ? dataset : read(dataKey, uri, is);
+            }
+        });
+
+        FutureTask<Dataset> running = loading.putIfAbsent(dataKey, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(dataKey, task);
+            }
+        } else {
+            sharedLoads.incrementAndGet();
+            task = running;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for data: " + dataKey);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /* Actually read the data, streaming it directly into columns, and store it */
+    private static Dataset read(String dataKey, URI uri, InputStream is) throws IOException {
+        long start = System.nanoTime();
+        Dataset dataset;
+        try {
+            InputStream stream = is == null ? ContentReader.openStream(uri) : is;
+            try {
+                dataset = Dataset.make(CSV.read(stream));
+            } finally {
+                if (is == null) stream.close();
+            }
+        } catch (IOException e) {
+            loadFailures.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            loadFailures.incrementAndGet();
+            throw e;
+        } finally {
+            loadTime.addAndGet(System.nanoTime() - start);
+        }
+        loads.incrementAndGet();
+        store(dataKey, dataset);
         return dataset;
     }
 
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brunel.build.util;
+
+import org.brunel.data.Data;
+import org.brunel.data.values.ColumnProvider;
+import org.brunel.data.values.Provider;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * A column whose data is held in a memory-mapped file, stored as a dictionary of unique values and a code for each
+ * row. Values are read from the file when requested, so the column takes almost no heap space. Decoded strings are
+ * cached, but only softly, so the garbage collector can reclaim them
+ */
+class MappedColumnProvider implements Provider {
+
+    static final byte NUMBER = 3;                           // Types are as used in Serialize
+    static final byte STRING = 4;
+    static final byte DATE = 5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte type;
+    private final int rows;
+    private final int uniqueCount;
+    private final int codeWidth;                            // 1, 2 or 4 bytes per row
+    private final ByteBuffer codes;                         // One code per row, -1 for null
+    private final ByteBuffer dictionary;                    // Doubles, millis, or string offsets followed by text
+    private SoftReference<Object[]> decoded;                // Decoded strings
+
+    MappedColumnProvider(byte type, int rows, int uniqueCount, int codeWidth, ByteBuffer dictionary, ByteBuffer codes) {
+        this.type = type;
+        this.rows = rows;
+        this.uniqueCount = uniqueCount;
+        this.codeWidth = codeWidth;
+        this.dictionary = dictionary;
+        this.codes = codes;
+    }
+
+    /* The number of bytes needed for codes, given the number of unique values */
+    static int codeWidth(int uniqueCount) {
+        return uniqueCount < Byte.MAX_VALUE ? 1 : (uniqueCount < Short.MAX_VALUE ? 2 : 4);
+    }
+
+    int code(int index) {
+        if (codeWidth == 1) return codes.get(index);
+        if (codeWidth == 2) return codes.getShort(index << 1);
+        return codes.getInt(index << 2);
+    }
+
+    public int compareRows(int a, int b, HashMap<Object, Integer> categoryOrder) {
+        int p = code(a), q = code(b);
+        if (p == q) return 0;
+        if (p < 0) return 1;
+        if (q < 0) return -1;
+        if (!categoryOrder.isEmpty())
+            return categoryOrder.get(item(p)) - categoryOrder.get(item(q));
+        if (type == STRING) return Data.compare(item(p), item(q));
+        double x = number(p), y = number(q);
+        return x < y ? -1 : (x > y ? 1 : 0);
+    }
+
+    public int count() {
+        return rows;
+    }
+
+    public int expectedSize() {
+        // The data itself is not on the heap
+        return 64;
+    }
+
+    public boolean isNull(int index) {
+        return code(index) < 0;
+    }
+
+    public double numericValue(int index) {
+        int c = code(index);
+        if (c < 0) return Double.NaN;
+        if (type == STRING) {
+            Double d = Data.asNumeric(item(c));
+            return d == null ? Double.NaN : d;
+        }
+        return number(c);
+    }
+
+    public Provider setValue(Object o, int index) {
+        return ColumnProvider.copy(this).setValue(o, index);
+    }
+
+    public Object value(int index) {
+        int c = code(index);
+        return c < 0 ? null : item(c);
+    }
+
+    /* Numbers are returned as they are; dates as days, as for Data.asNumeric */
+    private double number(int c) {
+        if (type == NUMBER) return dictionary.getDouble(c << 3);
+        return dictionary.getLong(c << 3) / 86400000.0;
+    }
+
+    private Object item(int c) {
+        if (type == NUMBER) return dictionary.getDouble(c << 3);
+        if (type == DATE) return new Date(dictionary.getLong(c << 3));
+        Object[] strings = decoded == null ? null : decoded.get();
+        if (strings == null) {
+            strings = new Object[uniqueCount];
+            decoded = new SoftReference<Object[]>(strings);
+        }
+        if (strings[c] == null) strings[c] = readString(c);
+        return strings[c];
+    }
+
+    private String readString(int c) {
+        // Offsets of each string within the text, followed by the text
+        int textStart = (uniqueCount + 1) * 4;
+        int start = dictionary.getInt(c * 4);
+        int end = dictionary.getInt(c * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer b = dictionary.duplicate();
+        b.position(textStart + start);
+        b.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brunel.build.util;
+
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A DatasetCache that writes datasets to files in a local directory, in a columnar layout, and memory-maps them
+ * when they are retrieved. The data for mapped datasets is held outside the Java heap, and the files persist, so
+ * after a restart the data is mapped from the file rather than read and parsed again.
+ *
+ * Each column is stored like Serialize stores it: the unique values, then an index into them for each row.
+ * Here the indices have a fixed width (1, 2 or 4 bytes, depending on the number of unique values) so any row can
+ * be read directly from the mapped file. Use it with DataCache.useCache()
+ */
+public class MappedDatasetCache implements DatasetCache {
+
+    private static final int MAGIC = 0x42524e43;            // "BRNC"
+    private static final int VERSION = 1;                   // Must be incremented if the layout changes
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final Map<String, Dataset> mapped = new ConcurrentHashMap<String, Dataset>();
+
+    /**
+     * Create a cache storing files in the given directory
+     *
+     * @param directory location for the files; created if it does not exist
+     */
+    public MappedDatasetCache(File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Cannot create cache directory: " + directory);
+    }
+
+    public Dataset retrieve(String key) {
+        Dataset dataset = mapped.get(key);
+        if (dataset != null) return dataset;
+        File file = fileFor(key);
+        if (!file.exists()) return null;
+        try {
+            dataset = read(file, key);
+        } catch (IOException e) {
+            // An unreadable file is treated the same as a missing one
+            return null;
+        }
+        if (dataset != null) mapped.put(key, dataset);
+        return dataset;
+    }
+
+    /**
+     * Store the data in a file. If it cannot be written (for example, if the disk is full) the error is reported
+     * and the data is simply not stored here; any previous file for the key is removed so it is not used instead
+     *
+     * @param key     unique identifier for data
+     * @param dataset the data to cache
+     */
+    public void store(String key, Dataset dataset) {
+        File file = fileFor(key);
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            write(temp, key, dataset.removeSpecialFields());
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write data to cache: " + key);
+            e.printStackTrace();
+            if (file.exists() && !file.delete()) file.deleteOnExit();
+        } finally {
+            mapped.remove(key);
+            if (temp.exists() && !temp.delete()) temp.deleteOnExit();
+        }
+    }
+
+    /* File names are based on a hash of the key; the key itself is stored in the file and checked when read */
+    File fileFor(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) name.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            return new File(directory, name.append(".data").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void write(File file, String key, Dataset data) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, key);
+            out.writeInt(data.rowCount());
+            out.writeInt(data.fields.length);
+            for (Field f : data.fields) writeField(out, f);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeField(DataOutputStream out, Field field) throws IOException {
+        int N = field.rowCount();
+
+        // Assemble map of data to indices
+        Map<Object, Integer> items = new HashMap<Object, Integer>();
+        List<Object> uniques = new ArrayList<Object>();
+        int[] codes = new int[N];
+        for (int i = 0; i < N; i++) {
+            Object value = field.value(i);
+            if (value == null) {
+                codes[i] = -1;
+                continue;
+            }
+            Integer code = items.get(value);
+            if (code == null) {
+                code = uniques.size();
+                items.put(value, code);
+                uniques.add(value);
+            }
+            codes[i] = code;
+        }
+
+        byte type = storageType(field, uniques);
+        int width = MappedColumnProvider.codeWidth(uniques.size());
+        writeString(out, field.name);
+        writeString(out, field.label);
+        out.writeByte(type);
+        out.writeInt(uniques.size());
+        out.writeByte(width);
+
+        // The unique values
+        if (type == MappedColumnProvider.DATE) {
+            for (Object o : uniques) out.writeLong(((Date) o).getTime());
+        } else if (type == MappedColumnProvider.NUMBER) {
+            for (Object o : uniques) out.writeDouble(((Number) o).doubleValue());
+        } else {
+            // Text length, the offsets of each string, then the text
+            byte[][] text = new byte[uniques.size()][];
+            int length = 0;
+            for (int i = 0; i < text.length; i++) {
+                text[i] = uniques.get(i).toString().getBytes(UTF8);
+                length += text[i].length;
+            }
+            out.writeInt(length);
+            int offset = 0;
+            for (byte[] t : text) {
+                out.writeInt(offset);
+                offset += t.length;
+            }
+            out.writeInt(offset);
+            for (byte[] t : text) out.write(t);
+        }
+
+        // And now the codes
+        for (int c : codes) {
+            if (width == 1) out.writeByte(c);
+            else if (width == 2) out.writeShort(c);
+            else out.writeInt(c);
+        }
+    }
+
+    /* Numbers and dates are stored as such only if every value has that type; anything else (e.g. ranges) as text */
+    private static byte storageType(Field field, List<Object> uniques) {
+        if (field.isDate() && allInstances(uniques, Date.class)) return MappedColumnProvider.DATE;
+        if (field.isNumeric() && allInstances(uniques, Number.class)) return MappedColumnProvider.NUMBER;
+        return MappedColumnProvider.STRING;
+    }
+
+    private static boolean allInstances(List<Object> values, Class<?> type) {
+        for (Object o : values) if (!type.isInstance(o)) return false;
+        return true;
+    }
+
+    /* Returns null if the file is for a different key */
+    private static Dataset read(File file, String key) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a cached data file: " + file);
+            if (!readString(in).equals(key)) return null;
+            int rows = in.readInt();
+            int fieldCount = in.readInt();
+
+            FileChannel channel = in.getChannel();
+            Field[] fields = new Field[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                String name = readString(in);
+                String label = readString(in);
+                byte type = in.readByte();
+                int uniqueCount = in.readInt();
+                int width = in.readByte();
+
+                // Map the unique values and then the codes; the mappings remain valid after the file is closed
+                long dictionarySize = type == MappedColumnProvider.STRING ? 4 * (uniqueCount + 1) + in.readInt() : 8L * uniqueCount;
+                MappedByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, in.getFilePointer(), dictionarySize);
+                in.seek(in.getFilePointer() + dictionarySize);
+                MappedByteBuffer codes = channel.map(FileChannel.MapMode.READ_ONLY, in.getFilePointer(), (long) rows * width);
+                in.seek(in.getFilePointer() + (long) rows * width);
+
+                fields[i] = new Field(name, label, new MappedColumnProvider(type, rows, uniqueCount, width, dictionary, codes));
+                if (type != MappedColumnProvider.STRING) fields[i].set("numeric", true);
+                if (type == MappedColumnProvider.DATE) fields[i].set("date", true);
+            }
+            return Dataset.make(fields, false);     // No need to autoconvert
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(RandomAccessFile in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+}
@@ -18,33 +18,49 @@ package org.brunel.build.util;
 
 import org.brunel.data.Data;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
- * A class to make it easier to output Javascript
+ * A class to make it easier to output Javascript.
+ * The text is kept in memory, or it can be sent to a writer as it is generated
  */
 public class ScriptWriter {
 
     private static final Set<Character> NO_SPACE_BEFORE = new HashSet<Character>(Arrays.asList(':', ',', ';', '(', ')', ']'));
     private static final String INDENT = "  ";
+    private static final String NEW_LINE = System.getProperty("line.separator");
+    private static final int STREAM_CHUNK = 8192;             // Characters to gather before writing to a stream
     private final int lineMaxLength;
-    private final PrintWriter out;
-    private final StringWriter base;
+    private final StringBuilder out;
+    private final Writer target;                                // If not null, the text is sent here
     public final BuilderOptions options;
     private int consecutiveNewLines = 0;
     private int indentLevel = 0;
+    private int column;                                         // characters since the last new line
+    private boolean onFirstLine = true;
     private boolean changed;
 
     public ScriptWriter(BuilderOptions options) {
+        this(options, null);
+    }
+
+    /**
+     * Creates a writer that sends its text to the target as it is generated, rather than keeping it all in memory.
+     * The target is flushed, but not closed, when the content is requested
+     *
+     * @param options options for the output
+     * @param target  where to send the text (null to keep it in memory)
+     */
+    public ScriptWriter(BuilderOptions options, Writer target) {
         this.options = options;
+        this.target = target;
         lineMaxLength = options.readableJavascript ? 100 : 400;
-        base = new StringWriter();
-        out = new PrintWriter(base);
+        out = new StringBuilder();
         consecutiveNewLines = 1;
     }
 
@@ -63,7 +79,7 @@ public class ScriptWriter {
     public ScriptWriter add(Object... items) {
         // Add indentation if needed
         if (options.readableJavascript && consecutiveNewLines > 0)
-            for (int i = 0; i < indentLevel; i++) out.print(INDENT);
+            for (int i = 0; i < indentLevel; i++) print(INDENT);
 
         // Add items
         for (int i = 0; i < items.length; i++) {
@@ -80,8 +96,8 @@ public class ScriptWriter {
             } else {
                 s = Data.format(item, false);
             }
-            if (i > 0 && !NO_SPACE_BEFORE.contains(s.charAt(0))) out.print(" ");
-            out.print(s);
+            if (i > 0 && !NO_SPACE_BEFORE.contains(s.charAt(0))) print(" ");
+            print(s);
         }
         consecutiveNewLines = 0;
         changed = true;
@@ -100,7 +116,7 @@ public class ScriptWriter {
 
     public ScriptWriter ln() {
         consecutiveNewLines++;
-        out.println();
+        print(NEW_LINE);
         changed = true;
         return this;
     }
@@ -108,7 +124,7 @@ public class ScriptWriter {
     public ScriptWriter addQuoted(Object... items) {
         indentMore().indentMore();
         for (int i = 0; i < items.length; i++) {
-            if (i > 0) out.print(options.readableJavascript ? ", " : ",");
+            if (i > 0) print(options.readableJavascript ? ", " : ",");
             if (currentColumn() > 77) ln();
             add(quote(items[i]));
         }
@@ -117,12 +133,8 @@ public class ScriptWriter {
     }
 
     public int currentColumn() {
-        base.flush();
-        StringBuffer b = base.getBuffer();
-        int end = b.length() - 1;
-        int eol = b.lastIndexOf("\n");
-        if (eol < 0) eol = 0;
-        return end - eol;
+        // On the first line, this has always been reported as one less than the number of characters
+        return onFirstLine ? column - 1 : column;
     }
 
     public String quote(Object item) {
@@ -133,7 +145,7 @@ public class ScriptWriter {
         indentMore().indentMore();
         boolean first = true;
         for (Object o : items) {
-            if (!first) out.print(", ");
+            if (!first) print(", ");
             if (currentColumn() > lineMaxLength - 4) ln();
             add(quote(o));
             first = false;
@@ -167,15 +179,27 @@ public class ScriptWriter {
         return this;
     }
 
+    /**
+     * The generated text. When streaming to a target, any remaining text is written and the target flushed, and the
+     * result is empty
+     *
+     * @return text of the script
+     */
     public String content() {
-        out.close();
-        return base.toString();
+        if (target == null) return out.toString();
+        writeToTarget();
+        try {
+            target.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return "";
     }
 
     public ScriptWriter continueOnNextLine(String... before) {
-        for (String s : before) out.print(s);
+        for (String s : before) print(s);
         ln();
-        if (options.readableJavascript) out.print(INDENT);
+        if (options.readableJavascript) print(INDENT);
         return this;
     }
 
@@ -201,4 +225,26 @@ public class ScriptWriter {
         if (options.readableJavascript) while (consecutiveNewLines < 2) ln();
         else if (consecutiveNewLines == 0) ln();
     }
+
+    /* All text goes through here, so we can keep track of the column without searching the output */
+    private void print(String s) {
+        out.append(s);
+        int eol = s.lastIndexOf('\n');
+        if (eol < 0) {
+            column += s.length();
+        } else {
+            column = s.length() - 1 - eol;
+            onFirstLine = false;
+        }
+        if (target != null && out.length() > STREAM_CHUNK) writeToTarget();
+    }
+
+    private void writeToTarget() {
+        try {
+            target.append(out);
+            out.setLength(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
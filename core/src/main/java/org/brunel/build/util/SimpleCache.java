@@ -18,46 +18,160 @@ package org.brunel.build.util;
 
 import org.brunel.data.Dataset;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A very simple and limited cache that stores a Dataset instance content by a key name.
+ * A cache that stores Dataset instances by a key name, within a memory budget.
+ * The size of each dataset is measured from its columns when it is stored, and when the budget is exceeded
+ * the least recently used datasets are removed. It is safe to use from multiple threads; the lock is only held
+ * while the map is updated, never while data is being measured or loaded.
  *
  * @author drope
  */
 public class SimpleCache implements DatasetCache {
 
-    /* Maximum amount of memory to allow in cache in bytes */
-    private static final long MAX_ESTIMATED_MEMORY = 512 * 1024 * 1024;
+    /* Default maximum amount of memory to allow in cache in bytes */
+    public static final long DEFAULT_MAX_MEMORY = 512 * 1024 * 1024;
 
-    private final Map<String, Dataset> map = Collections.synchronizedMap(new MapCache());
-    private long estimatedMemoryUse = 0;
+    private final Map<String, Entry> map = new LinkedHashMap<String, Entry>(16, 0.75f, true);   // In access order
+    private volatile long maxMemory;
+    private long memoryUse = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SimpleCache() {
+        this(DEFAULT_MAX_MEMORY);
+    }
+
+    /**
+     * Create a cache with a defined memory budget
+     *
+     * @param maxMemory the maximum estimated size of all datasets in the cache, in bytes
+     */
+    public SimpleCache(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
 
     @Override
-    public synchronized Dataset retrieve(String key) {
-        return map.get(key);
+    public Dataset retrieve(String key) {
+        Entry entry;
+        synchronized (map) {
+            entry = map.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.dataset;
+    }
+
+    /**
+     * Look for a dataset without counting it as a hit or a miss
+     *
+     * @param key unique identifier for data
+     * @return the dataset, or null if it is not in the cache
+     */
+    public Dataset peek(String key) {
+        synchronized (map) {
+            Entry entry = map.get(key);
+            return entry == null ? null : entry.dataset;
+        }
     }
 
     @Override
-    public synchronized void store(String key, Dataset dataset) {
-        Dataset previous = map.put(key, dataset);
-        if (previous != null) estimatedMemoryUse -= previous.expectedSize();
-        estimatedMemoryUse += dataset.expectedSize();
-    }
-
-    private class MapCache extends LinkedHashMap<String, Dataset> {
-        protected boolean removeEldestEntry(Map.Entry<String, Dataset> eldest) {
-            synchronized (SimpleCache.this) {
-                if (estimatedMemoryUse > MAX_ESTIMATED_MEMORY) {
-                    // This will be removed, so reduce the total memory size
-                    estimatedMemoryUse -= eldest.getValue().expectedSize();
-                    return true;
-                } else {
-                    return false;
-                }
-            }
+    public void store(String key, Dataset dataset) {
+        replace(key, dataset);
+    }
+
+    /**
+     * Store a dataset, returning the one it replaces
+     *
+     * @param key     unique identifier for data
+     * @param dataset the data to cache
+     * @return the dataset previously stored for the key, or null if there was none
+     */
+    public Dataset replace(String key, Dataset dataset) {
+        Entry entry = new Entry(dataset, dataset.expectedSize());       // Measure outside the lock
+        List<Dataset> evicted;
+        Entry previous;
+        synchronized (map) {
+            previous = map.put(key, entry);
+            if (previous != null) memoryUse -= previous.size;
+            memoryUse += entry.size;
+            evicted = evict(key);
+        }
+        for (Dataset d : evicted) evicted(d);
+        return previous == null ? null : previous.dataset;
+    }
+
+    /**
+     * Change the memory budget, removing datasets if needed to fit within the new budget
+     *
+     * @param maxMemory the maximum estimated size of all datasets in the cache, in bytes
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        List<Dataset> evicted;
+        synchronized (map) {
+            evicted = evict(null);
+        }
+        for (Dataset d : evicted) evicted(d);
+    }
+
+    /**
+     * Called, outside the lock, for each dataset removed to keep within the memory budget.
+     * This does nothing; subclasses can override it to release anything held for the dataset
+     *
+     * @param dataset the removed dataset
+     */
+    protected void evicted(Dataset dataset) {
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Return the current statistics for the cache
+     *
+     * @return statistics (with no load information)
+     */
+    public CacheStatistics statistics() {
+        synchronized (map) {
+            return new CacheStatistics(hits.get(), misses.get(), evictions.get(), 0, 0, 0, 0, map.size(), memoryUse);
+        }
+    }
+
+    /* Remove the least recently used items until we fit within the budget; the item just stored is kept */
+    private List<Dataset> evict(String keep) {
+        List<Dataset> evicted = new ArrayList<Dataset>();
+        Iterator<Map.Entry<String, Entry>> iterator = map.entrySet().iterator();
+        while (memoryUse > maxMemory && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) continue;
+            memoryUse -= eldest.getValue().size;
+            evicted.add(eldest.getValue().dataset);
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+        return evicted;
+    }
+
+    private static class Entry {
+        final Dataset dataset;
+        final long size;
+
+        Entry(Dataset dataset, long size) {
+            this.dataset = dataset;
+            this.size = size;
         }
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A static R-tree over rectangles, packed using the sort-tile-recursive method.
+ * It is built once, and answers which rectangles intersect a region, or contain a point, without examining
+ * all of them. Items are identified by their index in the array used to build the index
+ */
+public class SpatialIndex {
+
+    private static final int NODE_SIZE = 16;                // Children per node
+
+    private final Node root;                                // Null if there are no items
+
+    /**
+     * Build the index
+     *
+     * @param bounds bounds of each item; null items are not indexed
+     */
+    public SpatialIndex(Rect[] bounds) {
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < bounds.length; i++)
+            if (bounds[i] != null) nodes.add(new Node(bounds[i], null, i));
+        while (nodes.size() > NODE_SIZE) nodes = pack(nodes);
+        root = nodes.isEmpty() ? null : new Node(union(nodes), nodes.toArray(new Node[nodes.size()]), -1);
+    }
+
+    /**
+     * Build an index of points
+     *
+     * @param points points to index; null items are not indexed
+     * @return index where each point is an empty rectangle
+     */
+    public static SpatialIndex of(List<? extends Point> points) {
+        Rect[] bounds = new Rect[points.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            Point p = points.get(i);
+            if (p != null) bounds[i] = new Rect(p.x, p.x, p.y, p.y);
+        }
+        return new SpatialIndex(bounds);
+    }
+
+    /**
+     * Find the items whose bounds intersect the region (including touching it)
+     *
+     * @param region area to search
+     * @return indices of the items, in ascending order
+     */
+    public int[] intersecting(Rect region) {
+        IntList result = new IntList();
+        if (root != null) search(root, region, result);
+        return result.sorted();
+    }
+
+    /**
+     * Find the items whose bounds contain the point
+     *
+     * @param p point to search for
+     * @return indices of the items, in ascending order
+     */
+    public int[] containing(Point p) {
+        return intersecting(new Rect(p.x, p.x, p.y, p.y));
+    }
+
+    private static void search(Node node, Rect region, IntList result) {
+        for (Node child : node.children) {
+            if (!child.bounds.intersects(region)) continue;
+            if (child.children == null) result.add(child.item);
+            else search(child, region, result);
+        }
+    }
+
+    /*
+     * Group nodes into parents: sort by x into vertical slices, and within each slice sort by y and take runs
+     * of NODE_SIZE, so each parent covers a compact area
+     */
+    private static List<Node> pack(List<Node> nodes) {
+        int parents = (nodes.size() + NODE_SIZE - 1) / NODE_SIZE;
+        int slices = (int) Math.ceil(Math.sqrt(parents));
+        int sliceSize = slices * NODE_SIZE;
+
+        Collections.sort(nodes, BY_X);
+        List<Node> result = new ArrayList<Node>();
+        for (int start = 0; start < nodes.size(); start += sliceSize) {
+            List<Node> slice = new ArrayList<Node>(nodes.subList(start, Math.min(start + sliceSize, nodes.size())));
+            Collections.sort(slice, BY_Y);
+            for (int i = 0; i < slice.size(); i += NODE_SIZE) {
+                List<Node> group = slice.subList(i, Math.min(i + NODE_SIZE, slice.size()));
+                result.add(new Node(union(group), group.toArray(new Node[group.size()]), -1));
+            }
+        }
+        return result;
+    }
+
+    private static Rect union(List<Node> nodes) {
+        Rect r = null;
+        for (Node n : nodes) r = Rect.union(r, n.bounds);
+        return r;
+    }
+
+    private static final Comparator<Node> BY_X = new Comparator<Node>() {
+        public int compare(Node a, Node b) {
+            return Double.compare(a.bounds.cx(), b.bounds.cx());
+        }
+    };
+
+    private static final Comparator<Node> BY_Y = new Comparator<Node>() {
+        public int compare(Node a, Node b) {
+            return Double.compare(a.bounds.cy(), b.bounds.cy());
+        }
+    };
+
+    private static final class Node {
+        final Rect bounds;
+        final Node[] children;                          // Null for an item
+        final int item;                                 // Index of the item; -1 for an internal node
+
+        Node(Rect bounds, Node[] children, int item) {
+            this.bounds = bounds;
+            this.children = children;
+            this.item = item;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int[] sorted() {
+            int[] result = Arrays.copyOf(values, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
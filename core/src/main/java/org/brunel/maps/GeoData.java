@@ -20,6 +20,8 @@ import org.brunel.action.Param;
 import org.brunel.data.io.CSV;
 import org.brunel.geom.Point;
 import org.brunel.geom.Poly;
+import org.brunel.geom.Rect;
+import org.brunel.geom.SpatialIndex;
 import org.brunel.util.MappedLists;
 
 import java.io.IOException;
@@ -43,6 +45,7 @@ import java.util.Set;
 class GeoData {
 
     private static GeoData INSTANCE;                                                         // The singleton
+    private static boolean loadStarted;                                                      // Set when loading begins
 
     /**
      * Gets the singleton instance
@@ -50,10 +53,37 @@ class GeoData {
      * @return the analysis instance to use
      */
     public static synchronized GeoData instance() {
-        if (INSTANCE == null) INSTANCE = new GeoData();
+        loadStarted = true;
+        if (INSTANCE == null) INSTANCE = load();
         return INSTANCE;
     }
 
+    /**
+     * Starts loading the singleton instance on a background thread, so that a later call to instance() does not
+     * have to wait for it. Calling this more than once, or after the instance has been loaded, does nothing
+     */
+    static synchronized void loadInBackground() {
+        if (loadStarted) return;
+        loadStarted = true;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                instance();
+            }
+        }, "Brunel geographic data loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Use the precompiled index if it was built, otherwise read the text files
+    private static GeoData load() {
+        try {
+            InputStream is = GeoData.class.getResourceAsStream("/org/brunel/maps/" + GeoIndex.RESOURCE_NAME);
+            return is == null ? readText() : GeoIndex.read(is);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     MappedLists<GeoFile, Object> mapFeaturesToFiles(Object[] names, Collection<Object> unmatched) {
         MappedLists<GeoFile, Object> contained = new MappedLists<GeoFile, Object>();
         for (Object s : names) {
@@ -76,35 +106,48 @@ class GeoData {
     private final Map<String, LabelPoint> labelsByName;   // A map of canonical name to labels
     private final GeoFile[] geoFiles;                     // Feature files we can use
     private final LabelPoint[] labels;                    // Labels for the world
+    private final SpatialIndex fileIndex;                 // Index of the file bounds
 
-    private GeoData() {
-        try {
-            // Read in the feature information file
-            InputStream is = GeoData.class.getResourceAsStream("/org/brunel/maps/geoindex.txt");
-            LineNumberReader rdr = new LineNumberReader(new InputStreamReader(is, "utf-8"));
-            geoFiles = readFileDescriptions(rdr);                       // The files
-            featureMap = readFeatureDescriptions(rdr);                  // Map from features to files & ids
-            rdr.close();
+    GeoData(GeoFile[] geoFiles, LabelPoint[] labels, Map<String, int[][]> featureMap,
+            Map<String, GeoFile> filesByName, Map<String, LabelPoint> labelsByName) {
+        this.geoFiles = geoFiles;
+        this.labels = labels;
+        this.featureMap = featureMap;
+        this.filesByName = filesByName;
+        this.labelsByName = labelsByName;
+        this.fileIndex = makeFileIndex();                               // For spatial searches
+    }
 
-            filesByName = makeFileNameMap(geoFiles);                    // So we can identify them by name
+    /**
+     * Reads the data from the original text files, which requires all the names to be made canonical
+     *
+     * @return the resulting data
+     * @throws IOException if the resources could not be read
+     */
+    static GeoData readText() throws IOException {
+        // Read in the feature information file
+        InputStream is = GeoData.class.getResourceAsStream("/org/brunel/maps/geoindex.txt");
+        LineNumberReader rdr = new LineNumberReader(new InputStreamReader(is, "utf-8"));
+        GeoFile[] geoFiles = readFileDescriptions(rdr);                 // The files
+        Map<String, int[][]> featureMap = readFeatureDescriptions(rdr); // Map from features to files & ids
+        rdr.close();
 
-            // Read label file information
-            is = GeoData.class.getResourceAsStream("/org/brunel/maps/locations.txt");
-            rdr = new LineNumberReader(new InputStreamReader(is, "utf-8"));
-            labels = readLabels(rdr);
-            rdr.close();
+        Map<String, GeoFile> filesByName = makeFileNameMap(geoFiles);   // So we can identify them by name
 
-            labelsByName = makeLabelsMap();                             // Create a map form names to labels
-            placeLabelsInFiles();                                       // Add labels to geo files
+        // Read label file information
+        is = GeoData.class.getResourceAsStream("/org/brunel/maps/locations.txt");
+        rdr = new LineNumberReader(new InputStreamReader(is, "utf-8"));
+        LabelPoint[] labels = readLabels(rdr);
+        rdr.close();
 
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        addVariantFeatureNames();
+        Map<String, LabelPoint> labelsByName = makeLabelsMap(labels);   // Create a map form names to labels
+        placeLabelsInFiles(labels, geoFiles, featureMap);               // Add labels to geo files
+        addVariantFeatureNames(featureMap);
 
+        return new GeoData(geoFiles, labels, featureMap, filesByName, labelsByName);
     }
 
-    private HashMap<String, LabelPoint> makeLabelsMap() {
+    private static HashMap<String, LabelPoint> makeLabelsMap(LabelPoint[] labels) {
         HashMap<String, LabelPoint> map = new HashMap<String, LabelPoint>();
         for (LabelPoint s : labels) {
             String name = GeoNaming.canonical(s.label);
@@ -133,7 +176,23 @@ class GeoData {
         return geoFiles;
     }
 
-    private Map<String, GeoFile> makeFileNameMap(GeoFile[] geoFiles) {
+    LabelPoint[] getLabels() {
+        return labels;
+    }
+
+    Map<String, int[][]> getFeatureMap() {
+        return featureMap;
+    }
+
+    Map<String, GeoFile> getFilesByName() {
+        return filesByName;
+    }
+
+    Map<String, LabelPoint> getLabelsByName() {
+        return labelsByName;
+    }
+
+    private static Map<String, GeoFile> makeFileNameMap(GeoFile[] geoFiles) {
         Map<String, GeoFile> map = new HashMap<String, GeoFile>();
         for (GeoFile s : geoFiles) {
             map.put(GeoNaming.canonical(s.name), s);
@@ -143,7 +202,7 @@ class GeoData {
     }
 
     // Add variants of names by normalizing removing accent marks and periods
-    private void addVariantFeatureNames() {
+    private static void addVariantFeatureNames(Map<String, int[][]> featureMap) {
         List<String> keys = new ArrayList<String>(featureMap.keySet());
         for (String s : keys) {
             for (String t : GeoNaming.variants(s))
@@ -152,7 +211,26 @@ class GeoData {
         }
     }
 
-    private void placeLabelsInFiles() {
+    private SpatialIndex makeFileIndex() {
+        Rect[] bounds = new Rect[geoFiles.length];
+        for (int i = 0; i < geoFiles.length; i++) bounds[i] = geoFiles[i].bounds;
+        return new SpatialIndex(bounds);
+    }
+
+    /**
+     * Finds the files whose bounds intersect a region
+     *
+     * @param bounds region to search
+     * @return files, in the same order as getGeoFiles()
+     */
+    GeoFile[] filesIntersecting(Rect bounds) {
+        int[] found = fileIndex.intersecting(bounds);
+        GeoFile[] result = new GeoFile[found.length];
+        for (int i = 0; i < found.length; i++) result[i] = geoFiles[found[i]];
+        return result;
+    }
+
+    private static void placeLabelsInFiles(LabelPoint[] labels, GeoFile[] geoFiles, Map<String, int[][]> featureMap) {
         for (LabelPoint p : labels) {
             int[][] where = featureMap.get(GeoNaming.canonical(p.parent0));
             if (where != null) {
@@ -169,7 +247,7 @@ class GeoData {
         }
     }
 
-    private LabelPoint[] readLabels(LineNumberReader rdr) throws IOException {
+    private static LabelPoint[] readLabels(LineNumberReader rdr) throws IOException {
         List<LabelPoint> list = new ArrayList<LabelPoint>();
         while (true) {
             String line = rdr.readLine();
@@ -186,7 +264,7 @@ class GeoData {
         return list.toArray(new LabelPoint[list.size()]);
     }
 
-    private HashMap<String, int[][]> readFeatureDescriptions(LineNumberReader rdr) throws IOException {
+    private static HashMap<String, int[][]> readFeatureDescriptions(LineNumberReader rdr) throws IOException {
         HashMap<String, int[][]> map = new HashMap<String, int[][]>();
         // Read the features
         while (true) {
@@ -207,7 +285,7 @@ class GeoData {
         return map;
     }
 
-    private GeoFile[] readFileDescriptions(LineNumberReader rdr) throws IOException {
+    private static GeoFile[] readFileDescriptions(LineNumberReader rdr) throws IOException {
         // Read the names of the files and their sizes (in K)
         List<GeoFile> list = new ArrayList<GeoFile>();
         while (true) {
@@ -261,7 +339,8 @@ class GeoData {
 
     private GeoFile smallestFileContaining(Point point) {
         GeoFile result = null;
-        for (GeoFile g : geoFiles) {
+        for (int i : fileIndex.containing(point)) {
+            GeoFile g = geoFiles[i];
             if (g.covers(point)) {
                 if (result == null || g.bounds.area() < result.bounds.area())
                     result = g;
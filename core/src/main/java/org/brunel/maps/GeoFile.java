@@ -19,6 +19,7 @@ package org.brunel.maps;
 import org.brunel.geom.Point;
 import org.brunel.geom.Poly;
 import org.brunel.geom.Rect;
+import org.brunel.geom.SpatialIndex;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -31,6 +32,7 @@ class GeoFile implements Comparable<GeoFile> {
     public final Rect bounds;           // longitude min, max; latitude min,max
     public final List<LabelPoint> pts;  // contained label points
     public final Poly hull;             // Convex points in lat/long
+    private volatile SpatialIndex labelIndex;   // Index of the label points, built when first needed
 
     /**
      * Defines a GeoFile
@@ -47,6 +49,20 @@ class GeoFile implements Comparable<GeoFile> {
         this.pts = new ArrayList<LabelPoint>();
     }
 
+    /**
+     * Defines a GeoFile from already parsed information
+     *
+     * @param name   file name (not including extension or path). EG "world"
+     * @param bounds longitude and latitude bounds
+     * @param hull   convex hull points
+     */
+    GeoFile(String name, Rect bounds, Point[] hull) {
+        this.name = name;
+        this.bounds = bounds;
+        this.hull = new Poly(hull);
+        this.pts = new ArrayList<LabelPoint>();
+    }
+
     private Point[] parse(String hullString) {
         String[] parts = hullString.split(";");
         Point[] result = new Point[parts.length];
@@ -78,6 +94,19 @@ class GeoFile implements Comparable<GeoFile> {
         return hull.contains(p);
     }
 
+    /**
+     * Adds the label points within the bounds to a list, in the order they were added to this file.
+     * The index of label points is built when first needed, so all points must have been added before calling this
+     *
+     * @param bounds area to search
+     * @param result list to add to
+     */
+    void addLabelsWithin(Rect bounds, List<LabelPoint> result) {
+        SpatialIndex index = labelIndex;
+        if (index == null) labelIndex = index = SpatialIndex.of(pts);   // Harmless if two threads both build it
+        for (int i : index.intersecting(bounds)) result.add(pts.get(i));
+    }
+
     public String toString() {
         return name;
     }
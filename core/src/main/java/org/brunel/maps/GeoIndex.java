@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.maps;
+
+import org.brunel.geom.Point;
+import org.brunel.geom.Rect;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary version of the geographic data, built from the text files at build time.
+ * It holds the names already made canonical, the name variants, and the labels already placed in the files,
+ * so loading it requires no parsing or regular expression work.
+ * Run the main method to build it; GeoData uses it in preference to the text files when it is present.
+ */
+public class GeoIndex {
+
+    static final String RESOURCE_NAME = "geoindex.bin";         // Resource in the org/brunel/maps folder
+
+    private static final int MAGIC = 0x42474958;                // "BGIX"
+    private static final int VERSION_NUMBER = 1;
+
+    /**
+     * Builds the binary index from the text resources
+     *
+     * @param args the file to write to
+     * @throws IOException if the resources cannot be read or the file written
+     */
+    public static void main(String[] args) throws IOException {
+        File file = new File(args[0]);
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(GeoData.readText(), out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the data in binary form. Map keys are written in sorted order so the output is repeatable
+     *
+     * @param data data to write
+     * @param out  stream to write to; not closed by this method
+     * @throws IOException if the stream fails
+     */
+    static void write(GeoData data, OutputStream out) throws IOException {
+        DataOutputStream d = new DataOutputStream(out);
+        d.writeInt(MAGIC);
+        d.writeInt(VERSION_NUMBER);
+
+        // The files
+        GeoFile[] files = data.getGeoFiles();
+        Map<Object, Integer> fileIndex = indexMap(files);
+        d.writeInt(files.length);
+        for (GeoFile f : files) {
+            d.writeUTF(f.name);
+            d.writeDouble(f.bounds.left);
+            d.writeDouble(f.bounds.right);
+            d.writeDouble(f.bounds.top);
+            d.writeDouble(f.bounds.bottom);
+            d.writeInt(f.hull.points.length);
+            for (Point p : f.hull.points) {
+                d.writeDouble(p.x);
+                d.writeDouble(p.y);
+            }
+        }
+
+        // The labels, in their sorted order
+        LabelPoint[] labels = data.getLabels();
+        Map<Object, Integer> labelIndex = indexMap(labels);
+        d.writeInt(labels.length);
+        for (LabelPoint p : labels) {
+            d.writeDouble(p.x);
+            d.writeDouble(p.y);
+            d.writeUTF(p.label);
+            d.writeByte(p.rank);
+            d.writeByte(p.size);
+            d.writeByte(p.type);
+            d.writeUTF(p.parent0);
+            d.writeUTF(p.parent1);
+        }
+
+        // The labels placed in each file
+        for (GeoFile f : files) {
+            d.writeInt(f.pts.size());
+            for (LabelPoint p : f.pts) d.writeInt(labelIndex.get(p));
+        }
+
+        // Feature locations are shared between a name and its variants, so write each one once
+        Map<String, int[][]> featureMap = data.getFeatureMap();
+        List<String> names = sortedKeys(featureMap);
+        Map<Object, Integer> featureIndex = new IdentityHashMap<Object, Integer>();
+        List<int[][]> features = new ArrayList<int[][]>();
+        for (String s : names) {
+            int[][] item = featureMap.get(s);
+            if (!featureIndex.containsKey(item)) {
+                featureIndex.put(item, features.size());
+                features.add(item);
+            }
+        }
+        d.writeInt(features.size());
+        for (int[][] item : features) {
+            d.writeInt(item.length);
+            for (int[] i : item) {
+                d.writeInt(i[0]);
+                d.writeInt(i[1]);
+            }
+        }
+        d.writeInt(names.size());
+        for (String s : names) {
+            d.writeUTF(s);
+            d.writeInt(featureIndex.get(featureMap.get(s)));
+        }
+
+        writeNames(d, data.getFilesByName(), fileIndex);
+        writeNames(d, data.getLabelsByName(), labelIndex);
+        d.flush();
+    }
+
+    /**
+     * Reads the data written by write(...)
+     *
+     * @param is stream to read; this is closed after reading
+     * @return the data
+     * @throws IOException if the stream fails or is not in the expected format
+     */
+    static GeoData read(InputStream is) throws IOException {
+        DataInputStream d = new DataInputStream(new ByteArrayInputStream(readFully(is)));
+        if (d.readInt() != MAGIC) throw new IOException("Not a geographic index");
+        int version = d.readInt();
+        if (version != VERSION_NUMBER) throw new IOException("Unknown geographic index version: " + version);
+
+        GeoFile[] files = new GeoFile[d.readInt()];
+        for (int i = 0; i < files.length; i++) {
+            String name = d.readUTF();
+            Rect bounds = new Rect(d.readDouble(), d.readDouble(), d.readDouble(), d.readDouble());
+            Point[] hull = new Point[d.readInt()];
+            for (int j = 0; j < hull.length; j++) hull[j] = new Point(d.readDouble(), d.readDouble());
+            files[i] = new GeoFile(name, bounds, hull);
+        }
+
+        LabelPoint[] labels = new LabelPoint[d.readInt()];
+        for (int i = 0; i < labels.length; i++) {
+            double x = d.readDouble(), y = d.readDouble();
+            String label = d.readUTF();
+            int rank = d.readByte(), size = d.readByte(), type = d.readByte();
+            labels[i] = new LabelPoint(x, y, label, rank, size, type, d.readUTF(), d.readUTF());
+        }
+
+        for (GeoFile f : files) {
+            int n = d.readInt();
+            for (int i = 0; i < n; i++) f.pts.add(labels[d.readInt()]);
+        }
+
+        int[][][] features = new int[d.readInt()][][];
+        for (int i = 0; i < features.length; i++) {
+            int[][] item = new int[d.readInt()][2];
+            for (int[] pair : item) {
+                pair[0] = d.readInt();
+                pair[1] = d.readInt();
+            }
+            features[i] = item;
+        }
+        int n = d.readInt();
+        Map<String, int[][]> featureMap = new HashMap<String, int[][]>(n * 2);
+        for (int i = 0; i < n; i++) featureMap.put(d.readUTF(), features[d.readInt()]);
+
+        Map<String, GeoFile> filesByName = readNames(d, files);
+        Map<String, LabelPoint> labelsByName = readNames(d, labels);
+        return new GeoData(files, labels, featureMap, filesByName, labelsByName);
+    }
+
+    private static void writeNames(DataOutputStream d, Map<String, ?> map, Map<Object, Integer> index) throws IOException {
+        List<String> names = sortedKeys(map);
+        d.writeInt(names.size());
+        for (String s : names) {
+            d.writeUTF(s);
+            d.writeInt(index.get(map.get(s)));
+        }
+    }
+
+    private static <T> Map<String, T> readNames(DataInputStream d, T[] items) throws IOException {
+        int n = d.readInt();
+        Map<String, T> map = new HashMap<String, T>(n * 2);
+        for (int i = 0; i < n; i++) map.put(d.readUTF(), items[d.readInt()]);
+        return map;
+    }
+
+    private static Map<Object, Integer> indexMap(Object[] items) {
+        Map<Object, Integer> map = new IdentityHashMap<Object, Integer>();
+        for (int i = 0; i < items.length; i++) map.put(items[i], i);
+        return map;
+    }
+
+    private static List<String> sortedKeys(Map<String, ?> map) {
+        List<String> keys = new ArrayList<String>(map.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = is.read(buffer)) > 0) out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -56,6 +56,14 @@ public class GeoInformation {
         }
     }
 
+    /**
+     * Starts loading the geographic data on a background thread. Servers can call this on start up so the first
+     * map that is built does not have to wait for the data to load
+     */
+    public static void loadInBackground() {
+        GeoData.loadInBackground();
+    }
+
     /**
      * The fraction of values that are suitable geographic names
      *
@@ -67,10 +75,24 @@ public class GeoInformation {
             // Calculate suitability for use as a geographic name
             double count = 0;
             if (!f.isNumeric()) {
-                HashSet<Object> unmatched = new HashSet<Object>();
-                GeoData.instance().mapFeaturesToFiles(f.categories(), unmatched);
-                for (int i = 0; i < f.rowCount(); i++)
-                    if (!unmatched.contains(f.value(i))) count++;
+                GeoData data = GeoData.instance();
+                Object[] dictionary = f.dictionary();
+                if (dictionary != null) {
+                    // Look up each distinct value once, then count rows by their codes
+                    boolean[] matched = new boolean[dictionary.length];
+                    for (int i = 0; i < dictionary.length; i++)
+                        matched[i] = data.featureByName(dictionary[i].toString()) != null;
+                    for (int i = 0; i < f.rowCount(); i++) {
+                        int code = f.dictionaryCode(i);
+                        if (code < 0 || matched[code]) count++;                // Nulls are not unmatched
+                    }
+                } else {
+                    HashSet<Object> unmatched = new HashSet<Object>();
+                    for (Object c : f.categories())
+                        if (data.featureByName(c.toString()) == null) unmatched.add(c);
+                    for (int i = 0; i < f.rowCount(); i++)
+                        if (!unmatched.contains(f.value(i))) count++;
+                }
             }
             f.set(KEY_GEO_NAMES, count / f.valid());
         }
@@ -82,7 +104,7 @@ public class GeoInformation {
 
         for (GeoMapping g : geo.values()) {
             for (GeoFile f : g.files) {
-                for (LabelPoint p : f.pts) if (hull.bounds.contains(p)) points.add(p);
+                f.addLabelsWithin(hull.bounds, points);
             }
         }
         Collections.sort(points, LabelPoint.COMPARATOR);
@@ -46,18 +46,16 @@ public class GeoMapping {
      */
     public static GeoMapping createGeoMapping(Poly polygon, List<GeoFile> required, GeoData geoAnalysis) {
         HashSet<Object> unmatched = new HashSet<Object>();
-        MappedLists<GeoFile, Object> map = mapBoundsToFiles(polygon, geoAnalysis.getGeoFiles());
+        MappedLists<GeoFile, Object> map = mapBoundsToFiles(polygon, geoAnalysis);
         GeoMapping mapping = new GeoMapping(required, unmatched, map);
         return mapping.fileCount() > 0 ? mapping : null;
     }
 
     // Create a map from GeoFile index to the points that file contains.
-    private static MappedLists<GeoFile, Object> mapBoundsToFiles(Poly poly, GeoFile[] geoFiles) {
+    private static MappedLists<GeoFile, Object> mapBoundsToFiles(Poly poly, GeoData geoAnalysis) {
         MappedLists<GeoFile, Object> map = new MappedLists<GeoFile, Object>();
         if (poly.count() == 0) return map;
-        Rect bounds = poly.bounds;
-        for (GeoFile f : geoFiles) {
-            if (!bounds.intersects(f.bounds)) continue;             // Ignore if outside the bounds
+        for (GeoFile f : geoAnalysis.filesIntersecting(poly.bounds)) {      // Only files within the bounds
             for (Point p : poly.points)
                 if (f.covers(p)) map.add(f, p);
         }
@@ -19,6 +19,7 @@ package org.brunel.maps;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -45,9 +46,35 @@ class GeoNaming {
         }
     }
 
+    // Abbreviations (each ending with a period) and what they expand to
+    private static final String[] ABBREVIATIONS = {"st.", "dem.", "rep.", "is."};
+    private static final String[] EXPANSIONS = {"saint ", "democratic ", "republic ", "islands "};
+
+    /* Maximum number of canonical names to keep */
+    private static final int CACHE_SIZE = 10000;
+
+    /* The same names are looked up many times, so keep the results; the least recently used are removed */
+    private static final Map<String, String> canonicalNames = new LinkedHashMap<String, String>(256, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
     public static String canonical(String s) {
+        String result;
+        synchronized (canonicalNames) {
+            result = canonicalNames.get(s);
+        }
+        if (result != null) return result;
+        result = makeCanonical(s);                                      // Calculate outside the lock
+        synchronized (canonicalNames) {
+            canonicalNames.put(s, result);
+        }
+        return result;
+    }
+
+    private static String makeCanonical(String s) {
         s = expandAbbreviations(s.toLowerCase());
-        s = s.replaceAll("[ \t]+", " ");
         String common = commonNames.get(s);
         if (common != null) s = common;
         // Lots of variations of this start
@@ -56,25 +83,64 @@ class GeoNaming {
         return s;
     }
 
+    // Expands abbreviations and standardizes characters, then trims and replaces runs of spaces and tabs by a space
     private static String expandAbbreviations(String s) {
-        return s.replaceAll("st\\.[ ]*", "saint ")
-                .replaceAll("dem\\.[ ]*", "democratic ")
-                .replaceAll("rep\\.[ ]*", "republic ")
-                .replaceAll("is\\.[ ]*", "islands ")
-                .replaceAll("\u2019", "'")
-                .replaceAll("&", " and ")
-                .replaceAll(" [ ]+", " ").trim();
+        int n = s.length();
+        StringBuilder b = new StringBuilder(n + 16);
+        int i = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            int abbreviation = abbreviationAt(s, i);
+            if (abbreviation >= 0) {
+                b.append(EXPANSIONS[abbreviation]);
+                i += ABBREVIATIONS[abbreviation].length();
+                while (i < n && s.charAt(i) == ' ') i++;                // Spaces following are dropped
+                continue;
+            }
+            if (c == '\u2019') b.append('\'');
+            else if (c == '&') b.append(" and ");
+            else b.append(c);
+            i++;
+        }
+
+        int start = 0, end = b.length();
+        while (start < end && b.charAt(start) <= ' ') start++;
+        while (end > start && b.charAt(end - 1) <= ' ') end--;
+        StringBuilder result = new StringBuilder(end - start);
+        for (i = start; i < end; i++) {
+            char c = b.charAt(i);
+            if (c != ' ' && c != '\t') result.append(c);
+            else if (result.charAt(result.length() - 1) != ' ') result.append(' ');
+        }
+        return result.toString();
+    }
+
+    private static int abbreviationAt(String s, int i) {
+        for (int k = 0; k < ABBREVIATIONS.length; k++)
+            if (s.startsWith(ABBREVIATIONS[k], i)) return k;
+        return -1;
     }
 
     private static String removeAccents(String s) {
+        if (isAscii(s)) return s;                                       // Nothing to remove
         String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
         return PATTERN.matcher(decomposed).replaceAll("");
     }
 
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) > 127) return false;
+        return true;
+    }
+
     private static String removePeriods(String s) {
         // Do not remove from XX.YY pattern
         if (s.length() == 5 && s.charAt(2) == '.') return s;
-        return s.replaceAll("\\.", "");
+        if (s.indexOf('.') < 0) return s;
+        StringBuilder b = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) != '.') b.append(s.charAt(i));
+        return b.toString();
     }
 
     public static List<String> variants(String name) {
@@ -44,7 +44,7 @@ public class LabelPoint extends Point {
         );
     }
 
-    private LabelPoint(double x, double y, String label, int rank, int size, int type, String parent0, String parent1) {
+    LabelPoint(double x, double y, String label, int rank, int size, int type, String parent0, String parent1) {
         super(x, y);
         this.label = label;
         this.rank = rank;
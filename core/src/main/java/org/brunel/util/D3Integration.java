@@ -30,6 +30,8 @@ import org.brunel.model.VisItem;
 
 import com.google.gson.Gson;
 
+import java.io.Writer;
+
 /**
  * Brunel integration methods provided for services and other languages.  Only primitives are used for language integration methods
  *
@@ -130,13 +132,69 @@ public class D3Integration {
     }
 
 
+	/**
+	 * Write the Brunel JS to the target as it is generated, without keeping it all in memory.
+	 * @param data the data as a CSV String
+	 * @param brunelSrc the brunel syntax
+	 * @param width the desired width for the visualization
+	 * @param height the desired height for the visualization
+	 * @param visId an identifier used in the SVG tag that will contain the visualization
+	 * @param target where to write the JS; it is flushed but not closed
+	 * @return the builder, which can be used for the CSS and interactive control metadata.
+	 */
+    public static D3Builder writeBrunelJS(String data, String brunelSrc, int width, int height, String visId, String controlsId, Writer target) {
+        return writeBrunelJS(prepareVisualization(data, brunelSrc), width, height, visId, controlsId, target);
+    }
+
+	/**
+	 * Read the data and apply the Brunel to it, ready for writeBrunelJS(...).  Doing this first means errors in
+	 * the data or the Brunel are found before any output has been written.
+	 * @param data the data as a CSV String
+	 * @param brunelSrc the brunel syntax
+	 * @return the visualization to build
+	 */
+    public static VisItem prepareVisualization(String data, String brunelSrc) {
+        Dataset dataset = makeBrunelData(data);
+        try {
+            return makeVisItem(dataset, brunelSrc);
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Could not execute Brunel: " + brunelSrc, ex);
+        }
+    }
+
+	/**
+	 * Write the Brunel JS for a prepared visualization to the target as it is generated.
+	 * @param item the visualization, from prepareVisualization(...)
+	 * @param width the desired width for the visualization
+	 * @param height the desired height for the visualization
+	 * @param visId an identifier used in the SVG tag that will contain the visualization
+	 * @param target where to write the JS; it is flushed but not closed
+	 * @return the builder, which can be used for the CSS and interactive control metadata.
+	 */
+    public static D3Builder writeBrunelJS(VisItem item, int width, int height, String visId, String controlsId, Writer target) {
+        BuilderOptions options = new BuilderOptions();
+        options.visIdentifier = visId;
+        options.controlsIdentifier = controlsId;
+        D3Builder builder = D3Builder.make(options);
+        builder.streamTo(target);
+        builder.build(item, width, height);
+        builder.getVisualization();
+        return builder;
+    }
+
 	//Creates a D3Builder to produce the d3 output
     public static D3Builder makeD3(Dataset data, String actionText, int width, int height, String visId, String controlsId) {
+        return makeD3(data, actionText, width, height, visId, controlsId, null);
+    }
+
+	//Creates a D3Builder to produce the d3 output, streaming the JS to the target if it is defined
+    public static D3Builder makeD3(Dataset data, String actionText, int width, int height, String visId, String controlsId, Writer target) {
     	try {
             BuilderOptions options = new BuilderOptions();
             options.visIdentifier = visId;
             options.controlsIdentifier = controlsId;
             D3Builder builder = D3Builder.make(options);
+            if (target != null) builder.streamTo(target);
             VisItem item = makeVisItem(data, actionText);
             builder.build(item, width, height);
             return builder;
@@ -150,7 +208,7 @@ public class D3Integration {
     private static Dataset makeBrunelData(String data) {
     	if (data == null || data.isEmpty()) return null;
     	try {
-            return  Dataset.make(CSV.read(data));
+            return  Dataset.make(CSV.readParallel(data));
     	 } catch (Exception e) {
              throw new IllegalArgumentException("Could not create data as CSV from content", e);
          }
@@ -53,20 +53,60 @@ var BrunelD3 = (function () {
     }
 
 
+    // Decode base64 text into an array of bytes
+    function decodeBase64(text) {
+        var i, s = atob(text), bytes = new Uint8Array(s.length);
+        for (i = 0; i < s.length; i++) bytes[i] = s.charCodeAt(i);
+        return bytes;
+    }
+
+    // Decode a column written in binary form (see D3DataBuilder.writeColumns)
+    function decodeColumn(column, isDate) {
+        var i, x, values = [], result = [], field, view, codes;
+        if (column.s) {
+            // Text in serialized form
+            field = BrunelData.io_Serialize.deserialize(decodeBase64(column.s));
+            for (i = 0; i < field.rowCount(); i++) result.push(field.value(i));
+            return result;
+        }
+        view = new DataView(decodeBase64(column.v).buffer);
+        for (i = 0; i < view.byteLength / 8; i++) {
+            x = view.getFloat64(8 * i, true);
+            values.push(isNaN(x) ? null : (isDate ? new Date(x) : x));
+        }
+        if (!column.c) return values;
+        codes = new DataView(decodeBase64(column.c).buffer);
+        for (i = 0; i < codes.byteLength / column.w; i++) {
+            if (column.w == 1) x = codes.getUint8(i);
+            else if (column.w == 2) x = codes.getUint16(2 * i, true);
+            else x = codes.getInt32(4 * i, true);
+            result.push(values[x]);
+        }
+        return result;
+    }
+
     // Create a dataset from rows. Each object has three parts - names, types, rows
     // The types are 'string', 'date' or 'numeric'
+    // Instead of rows, the data may be given as binary columns
+    // Data built on the server is flagged 'built', and may also have the summary used for each field
     function makeDataset(data) {
         var col, field, i, opt, fields = [];
         for (i = 0; i < data.names.length; i++) {
-            col = data.rows.map(function (x) {
-                return x[i]
-            });                               // Extract i'th item
+            if (data.columns)
+                col = decodeColumn(data.columns[i], data.options && data.options[i] == 'date');
+            else
+                col = data.rows.map(function (x) {
+                    return x[i]
+                });                           // Extract i'th item
             field = new BrunelData.Field(data.names[i], null, new BrunelData.values_ColumnProvider(col));
             opt = data.options ? data.options[i] : "string";                                // Apply type options
             if (opt == 'numeric') field = BrunelData.Data.toNumeric(field);
             if (opt == 'date') field = BrunelData.Data.toDate(field);
+            if (data.summary && data.summary[i]) field.set('summary', data.summary[i]);
             fields.push(field);
         }
+        // Built data already has its special fields ('#row', '#count', ...) so they must not be added again
+        if (data.built) return BrunelData.Dataset.make([], false).replaceFields(fields);
         return BrunelData.Dataset.make(fields, false);
     }
 
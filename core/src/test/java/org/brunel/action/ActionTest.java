@@ -19,6 +19,8 @@ package org.brunel.action;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class ActionTest {
 
@@ -102,4 +104,32 @@ public class ActionTest {
 
     }
 
+    @Test
+    public void testParsedActionsAreShared() {
+        String text = "bar x(a) y(b) mean(b) color(c) | point x(a) y(b)";
+        Action a = Action.parse(text);
+        assertSame(a, Action.parse(text));
+        assertSame(a.simplify(), Action.parse(text).simplify());
+        assertEquals(a.toString(), Action.parse(text + " ").toString());
+        assertNotSame(a, Action.parse(text + " "));
+
+        // Each use has its own visualization, as they are modified when built
+        assertNotSame(a.apply(), a.apply());
+    }
+
+    @Test
+    public void testDataChangesDoNotAffectParsedActions() {
+        String text = "data('sample:cars.csv') x(mpg) y(horsepower)";
+        Action a = Action.parse(text);
+        String simplified = a.simplify().toString();
+        assertEquals("data('u1_sample:cars.csv') x(mpg) y(horsepower)", ActionUtil.prefixAllDataStatements(Action.parse(text), "u1_"));
+        assertEquals("data('u2_sample:cars.csv') x(mpg) y(horsepower)", ActionUtil.prefixAllDataStatements(Action.parse(text), "u2_"));
+
+        Action replaced = ActionUtil.replaceDataParameters(Action.parse(text), Param.makeString("other.csv"));
+        assertEquals("data('other.csv') x(mpg) y(horsepower)", replaced.toString());
+
+        assertSame(a, Action.parse(text));
+        assertEquals(text, Action.parse(text).toString());
+        assertEquals(simplified, Action.parse(text).simplify().toString());
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brunel.build.d3;
+
+import org.brunel.action.Action;
+import org.brunel.build.util.BuilderOptions;
+import org.brunel.build.util.DataCache;
+import org.brunel.build.util.ScriptWriter;
+import org.brunel.data.Dataset;
+import org.brunel.data.io.CSV;
+import org.brunel.model.VisItem;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class D3DataBuilderTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void testBase64() {
+        // Test vectors from RFC 4648
+        assertEquals("", D3Util.base64("".getBytes(ASCII)));
+        assertEquals("Zg==", D3Util.base64("f".getBytes(ASCII)));
+        assertEquals("Zm8=", D3Util.base64("fo".getBytes(ASCII)));
+        assertEquals("Zm9v", D3Util.base64("foo".getBytes(ASCII)));
+        assertEquals("Zm9vYg==", D3Util.base64("foob".getBytes(ASCII)));
+        assertEquals("Zm9vYmE=", D3Util.base64("fooba".getBytes(ASCII)));
+        assertEquals("Zm9vYmFy", D3Util.base64("foobar".getBytes(ASCII)));
+        assertEquals("/+8=", D3Util.base64(new byte[]{(byte) 0xff, (byte) 0xef}));
+    }
+
+    @Test
+    public void testBinaryColumns() {
+        StringBuilder csv = new StringBuilder("A,B,C,D");
+        for (int i = 0; i < 1000; i++)
+            csv.append("\n").append(i).append(",").append(i % 4 == 0 ? "" : i % 3).append(",name ").append(i % 7)
+                    .append(",2015-01-").append(10 + i % 20);
+        Dataset data = Dataset.make(CSV.read(csv.toString()));
+        VisItem item = Action.parse("x(A) y(B) color(C) tooltip(D)").apply(data);
+
+        String rows = writeTables(item, BuilderOptions.DataMethod.columns);
+        String binary = writeTables(item, BuilderOptions.DataMethod.binary);
+        assertTrue(rows.contains("rows: ["));
+        assertTrue(binary.contains("columns: ["));
+        assertTrue(!binary.contains("rows: ["));
+
+        // The same names and types are used
+        assertEquals(header(rows), header(binary));
+
+        // Unique numbers are sent in full; few distinct ones use codes; text is serialized
+        assertTrue(binary.contains("{v:'AAAAAAAAAAAAAAAAAADwPwAAAAAAAABA"));
+        assertTrue(binary.contains("', w:1}"));
+        assertTrue(binary.contains("{s:'"));
+        assertTrue(binary.length() * 2 < rows.length());
+    }
+
+    @Test
+    public void testMinimalData() {
+        StringBuilder csv = new StringBuilder("A,B");
+        for (int i = 0; i < 10000; i++) csv.append("\n").append("name ").append(i % 5).append(",").append(i);
+        Dataset data = Dataset.make(CSV.read(csv.toString()));
+
+        // The summarized data is sent, and the client does not need to summarize it or have the original rows
+        String minimal = build(data, "bar x(A) y(B) mean(B)", BuilderOptions.DataMethod.minimal);
+        assertTrue(minimal.contains("var builtData = BrunelD3.makeData({"));
+        assertTrue(minimal.contains("names: ['A', 'B', '#row']"));
+        assertTrue(minimal.contains("processed = post(builtData, 0)"));
+        assertTrue(!minimal.contains("summarize("));
+        assertTrue(minimal.contains("names: ['_dummy_']"));
+        assertTrue(minimal.length() * 10 < build(data, "bar x(A) y(B) mean(B)", BuilderOptions.DataMethod.columns).length());
+
+        // Selection needs the original rows
+        String selectable = build(data, "bar x(A) y(B) mean(B) interaction(select)", BuilderOptions.DataMethod.minimal);
+        assertTrue(!selectable.contains("builtData"));
+        assertTrue(selectable.contains("summarize("));
+        assertTrue(selectable.contains("names: ['A', 'B']"));
+
+        // Other elements on the same data show the selection, so they need the original rows too
+        String linked = build(data, "x(A) y(B) interaction(select) | bar x(A) y(B) mean(B)", BuilderOptions.DataMethod.minimal);
+        assertTrue(!linked.contains("builtData"));
+
+        // But elements on other data do not
+        DataCache.store("test-minimal-a", data);
+        DataCache.store("test-minimal-b", Dataset.make(CSV.read(csv.toString())));
+        String separate = build(null, "data('test-minimal-a') x(A) y(B) interaction(select) "
+                + "| data('test-minimal-b') bar x(A) y(B) mean(B)", BuilderOptions.DataMethod.minimal);
+        assertTrue(separate.contains("processed = post(builtData, 1)"));
+    }
+
+    private static String build(Dataset data, String action, BuilderOptions.DataMethod method) {
+        BuilderOptions options = new BuilderOptions();
+        options.includeData = method;
+        D3Builder builder = D3Builder.make(options);
+        Action a = Action.parse(action);
+        builder.build(data == null ? a.apply() : a.apply(data), 400, 300);
+        return builder.getVisualization().toString();
+    }
+
+    private static String header(String text) {
+        return text.substring(0, text.indexOf("]", text.indexOf("options:")));
+    }
+
+    private static String writeTables(VisItem item, BuilderOptions.DataMethod method) {
+        BuilderOptions options = new BuilderOptions();
+        options.includeData = method;
+        ScriptWriter out = new ScriptWriter(options);
+        D3DataBuilder.writeTables(item, out, options);
+        return out.content();
+    }
+}
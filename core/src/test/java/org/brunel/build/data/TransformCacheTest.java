@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.build.data;
+
+import org.brunel.action.Action;
+import org.brunel.build.util.CacheStatistics;
+import org.brunel.build.util.DataCache;
+import org.brunel.build.util.SimpleCache;
+import org.brunel.data.Dataset;
+import org.brunel.data.io.CSV;
+import org.brunel.model.VisSingle;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransformCacheTest {
+
+    private static Dataset makeData(int rows) {
+        StringBuilder b = new StringBuilder("a,b,c\n");
+        for (int i = 0; i < rows; i++) b.append("name").append(i % 7).append(',').append(i).append(',').append(i % 3).append('\n');
+        return Dataset.make(CSV.read(b.toString()));
+    }
+
+    @Test
+    public void testSharedStages() {
+        TransformCache cache = new TransformCache(TransformCache.DEFAULT_MAX_MEMORY);
+        Dataset source = makeData(100);
+        cache.retain(source);
+
+        // Two builds that filter the same way, then summarize differently
+        Dataset filtered = cache.transform(source, source, "filter", "b in 10,50");
+        Dataset sum = cache.transform(source, filtered, "summarize", "a=a; b=b:sum");
+        assertSame(filtered, cache.transform(source, source, "filter", "b in 10,50"));
+        Dataset mean = cache.transform(source, filtered, "summarize", "a=a; b=b:mean");
+        assertNotSame(sum, mean);
+
+        // Repeating either uses the cached results
+        assertSame(sum, cache.transform(source, cache.transform(source, source, "filter", "b in 10,50"), "summarize", "a=a; b=b:sum"));
+
+        // Results are the same as doing it directly
+        Dataset direct = source.filter("b in 10,50").summarize("a=a; b=b:mean");
+        assertEquals(direct.rowCount(), mean.rowCount());
+        for (int i = 0; i < direct.rowCount(); i++)
+            assertEquals(direct.field("b").value(i), mean.field("b").value(i));
+
+        // Empty commands do nothing and are not counted
+        assertSame(mean, cache.transform(source, mean, "sort", ""));
+
+        CacheStatistics statistics = cache.statistics();
+        assertEquals(3, statistics.misses);
+        assertEquals(3, statistics.hits);
+        assertEquals(3, statistics.entries);
+        assertEquals(0.5, statistics.hitRate(), 1e-9);
+
+        // A different data set with the same contents is not the same
+        Dataset other = makeData(100);
+        cache.retain(other);
+        assertNotSame(filtered, cache.transform(other, other, "filter", "b in 10,50"));
+    }
+
+    @Test
+    public void testOnlyRetainedSourcesAreStored() {
+        TransformCache cache = new TransformCache(TransformCache.DEFAULT_MAX_MEMORY);
+        Dataset source = makeData(100);
+
+        // Data made for one use is never kept
+        Dataset filtered = cache.transform(source, source, "filter", "b in 10,50");
+        assertNotSame(filtered, cache.transform(source, source, "filter", "b in 10,50"));
+        assertEquals(0, cache.statistics().entries);
+
+        // Nor is anything made from data that did not come from the cache
+        cache.retain(source);
+        Dataset sum = cache.transform(source, filtered, "summarize", "a=a; b=b:sum");
+        assertNotSame(sum, cache.transform(source, filtered, "summarize", "a=a; b=b:sum"));
+        assertEquals(0, cache.statistics().entries);
+
+        // Once released, nothing more is stored
+        filtered = cache.transform(source, source, "filter", "b in 10,50");
+        assertEquals(1, cache.statistics().entries);
+        cache.invalidate(source);
+        assertEquals(0, cache.statistics().entries);
+        assertNotSame(filtered, cache.transform(source, source, "filter", "b in 10,50"));
+        assertEquals(0, cache.statistics().entries);
+        assertEquals(0, cache.statistics().memoryUse);
+    }
+
+    @Test
+    public void testEvictionAndInvalidation() {
+        Dataset a = makeData(1000), b = makeData(1000);
+        long size = a.filter("b in 0,499").expectedSize();
+        TransformCache cache = new TransformCache(size * 2 + size / 2);
+        cache.retain(a);
+        cache.retain(b);
+
+        Dataset fa = cache.transform(a, a, "filter", "b in 0,499");
+        Dataset fb = cache.transform(b, b, "filter", "b in 0,499");
+        assertSame(fa, cache.transform(a, a, "filter", "b in 0,499"));     // Now 'fb' is the least recently used
+        Dataset fc = cache.transform(a, a, "filter", "b in 500,999");
+        assertEquals(1, cache.statistics().evictions);
+        assertSame(fa, cache.transform(a, a, "filter", "b in 0,499"));
+        assertSame(fc, cache.transform(a, a, "filter", "b in 500,999"));
+        assertNotSame(fb, cache.transform(b, b, "filter", "b in 0,499"));
+
+        // Removing the results for 'a' leaves those for 'b'
+        cache.invalidate(a);
+        assertEquals(1, cache.statistics().entries);
+        assertNotSame(fc, cache.transform(a, a, "filter", "b in 500,999"));
+    }
+
+    @Test
+    public void testBuildUsesCacheAndInvalidatesOnStore() {
+        String key = "test-transform-cache-" + System.nanoTime();
+        Dataset data = makeData(100);
+        DataCache.store(key, data);
+
+        Dataset first = build(data, "bar x(a) y(b) mean(b)");
+        CacheStatistics before = TransformCache.instance().statistics();
+        Dataset second = build(data, "bar x(a) y(b) mean(b)");
+        assertEquals(before.hits + 1, TransformCache.instance().statistics().hits);
+
+        // Each build has its own copy, so their properties are independent, but the fields are shared
+        assertNotSame(first, second);
+        assertSame(first.field("b"), second.field("b"));
+
+        // Replacing the data removes the cached results made from it
+        int entries = TransformCache.instance().statistics().entries;
+        DataCache.store(key, makeData(100));
+        assertEquals(entries - 1, TransformCache.instance().statistics().entries);
+    }
+
+    @Test
+    public void testEvictionFromDataCacheInvalidates() {
+        String key = "test-transform-evict-" + System.nanoTime();
+        Dataset data = makeData(100);
+        DataCache.store(key, data);
+        build(data, "bar x(a) y(b) sum(b)");
+        assertTrue(TransformCache.instance().statistics().entries > 0);
+
+        // With no budget, all data is evicted, and with it everything made from it
+        try {
+            DataCache.setMemoryLimit(0);
+            assertEquals(0, TransformCache.instance().statistics().entries);
+            build(data, "bar x(a) y(b) sum(b)");
+            assertEquals(0, TransformCache.instance().statistics().entries);
+        } finally {
+            DataCache.setMemoryLimit(SimpleCache.DEFAULT_MAX_MEMORY);
+        }
+    }
+
+    private static Dataset build(Dataset data, String action) {
+        VisSingle vis = Action.parse(action).apply(data).getSingle().resolve();
+        return new DataBuilder(vis, new DataModifier() {
+            public DataTransformParameters modifyParameters(DataTransformParameters params, VisSingle vis) {
+                return params;
+            }
+        }).build();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brunel.build.util;
+
+import org.brunel.data.Dataset;
+import org.brunel.data.io.CSV;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DataCacheTest {
+
+    private static Dataset makeData(int rows) {
+        StringBuilder b = new StringBuilder("a,b\n");
+        for (int i = 0; i < rows; i++) b.append("name").append(i).append(',').append(i).append('\n');
+        return Dataset.make(CSV.read(b.toString()));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        Dataset a = makeData(100), b = makeData(100), c = makeData(100);
+        long size = a.expectedSize();
+        SimpleCache cache = new SimpleCache(size * 2 + size / 2);
+
+        cache.store("a", a);
+        cache.store("b", b);
+        assertSame(a, cache.retrieve("a"));         // Now b is the least recently used
+        cache.store("c", c);
+
+        assertSame(a, cache.retrieve("a"));
+        assertNull(cache.retrieve("b"));
+        assertSame(c, cache.retrieve("c"));
+
+        CacheStatistics statistics = cache.statistics();
+        assertEquals(3, statistics.hits);
+        assertEquals(1, statistics.misses);
+        assertEquals(1, statistics.evictions);
+        assertEquals(2, statistics.entries);
+        assertEquals(2 * size, statistics.memoryUse);
+
+        // Shrinking the budget removes more
+        cache.setMaxMemory(size);
+        assertNull(cache.retrieve("a"));
+        assertSame(c, cache.retrieve("c"));
+    }
+
+    @Test
+    public void testReplaceEntry() {
+        SimpleCache cache = new SimpleCache();
+        Dataset a = makeData(10), b = makeData(1000);
+        cache.store("x", a);
+        cache.store("x", b);
+        assertSame(b, cache.retrieve("x"));
+        assertEquals(b.expectedSize(), cache.statistics().memoryUse);
+    }
+
+    @Test
+    public void testColdLoadCountsOneMiss() throws Exception {
+        String key = "test-one-miss-" + System.nanoTime();
+        CacheStatistics before = DataCache.statistics();
+        DataCache.get(key, new ByteArrayInputStream("a,b\nx,1\n".getBytes("UTF-8")));
+        CacheStatistics after = DataCache.statistics();
+        assertEquals(before.misses + 1, after.misses);
+        assertEquals(before.hits, after.hits);
+
+        // Looking without counting
+        SimpleCache cache = new SimpleCache();
+        cache.store("x", makeData(10));
+        assertNull(cache.peek("y"));
+        assertEquals(10, cache.peek("x").rowCount());
+        assertEquals(0, cache.statistics().hits + cache.statistics().misses);
+    }
+
+    @Test
+    public void testSingleLoadForConcurrentRequests() throws Exception {
+        final String key = "test-single-load-" + System.nanoTime();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final byte[] content = "a,b\nx,1\ny,2\n".getBytes("UTF-8");
+
+        // The first stream blocks until released; the second should never be read
+        final InputStream slow = new ByteArrayInputStream(content) {
+            public synchronized int read(byte[] b, int off, int len) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.read(b, off, len);
+            }
+        };
+        final InputStream unused = new InputStream() {
+            public int read() throws IOException {
+                throw new IOException("Should not be read");
+            }
+        };
+
+        long loadsBefore = DataCache.statistics().loads;
+        long sharedBefore = DataCache.statistics().sharedLoads;
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Dataset> first = executor.submit(new Callable<Dataset>() {
+                public Dataset call() throws Exception {
+                    return DataCache.get(key, slow);
+                }
+            });
+            started.await();
+            Future<Dataset> second = executor.submit(new Callable<Dataset>() {
+                public Dataset call() throws Exception {
+                    return DataCache.get(key, unused);
+                }
+            });
+
+            // Wait for the second request to join the first one's load, then let it finish
+            while (DataCache.statistics().sharedLoads == sharedBefore && !second.isDone()) Thread.sleep(5);
+            release.countDown();
+
+            Dataset a = first.get();
+            assertSame(a, second.get());
+            assertEquals(2, a.rowCount());
+            assertEquals(loadsBefore + 1, DataCache.statistics().loads);
+            assertTrue(DataCache.statistics().loadTimeNanos > 0);
+
+            // And now it is cached
+            assertSame(a, DataCache.get(key, unused));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+}
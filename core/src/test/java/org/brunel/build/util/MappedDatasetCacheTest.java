@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brunel.build.util;
+
+import org.brunel.data.Data;
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.io.CSV;
+import org.brunel.data.util.Range;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MappedDatasetCacheTest {
+
+    private File directory;
+
+    @Before
+    public void makeDirectory() throws Exception {
+        directory = File.createTempFile("brunel", "cache");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void removeDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testStoreAndRetrieve() {
+        Dataset data = Dataset.make(CSV.read("name,value,note\na,1.5,x\nb,,été\nc,-3,x\n,4,\n"));
+        new MappedDatasetCache(directory).store("test", data);
+
+        // A new cache instance reads from the file, as it would after a restart
+        MappedDatasetCache cache = new MappedDatasetCache(directory);
+        Dataset mapped = cache.retrieve("test");
+        assertSameData(data, mapped);
+        assertSame(mapped, cache.retrieve("test"));
+        assertNull(cache.retrieve("other"));
+
+        // Statistics and sorting work on the mapped data
+        assertEquals(-3.0, mapped.field("value").min(), 0.0);
+        Field sorted = mapped.sort("value").field("name");
+        assertEquals("b, null, a, c", sorted.value(0) + ", " + sorted.value(1) + ", " + sorted.value(2) + ", " + sorted.value(3));
+    }
+
+    @Test
+    public void testWideCodesAndDates() {
+        int n = 70000;
+        Object[] names = new Object[n];
+        Object[] dates = new Object[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = i % 10 == 0 ? null : "n" + i;
+            dates[i] = new Date(86400000L * (i % 200));
+        }
+        Field a = Data.makeColumnField("a", "Label A", names);
+        Field b = Data.makeColumnField("b", null, dates);
+        b.set("numeric", true);
+        b.set("date", true);
+        Dataset data = Dataset.make(new Field[]{a, b}, false);
+
+        MappedDatasetCache cache = new MappedDatasetCache(directory);
+        cache.store("wide", data);
+        Dataset mapped = new MappedDatasetCache(directory).retrieve("wide");
+        assertSameData(data, mapped);
+        assertEquals("Label A", mapped.field("a").label);
+        assertTrue(mapped.field("b").isDate());
+        assertEquals(199.0, mapped.field("b").max(), 0.0);
+        assertEquals(5.0, mapped.field("b").numericValue(5), 0.0);
+
+        // Storing again replaces the data
+        cache.store("wide", Dataset.make(CSV.read("x\n1\n")));
+        assertEquals(1, cache.retrieve("wide").rowCount());
+    }
+
+    @Test
+    public void testNumericFieldWithOtherValues() {
+        // Binned numeric fields hold ranges, which are stored as text
+        Object[] values = new Object[]{Range.makeNumeric(0, 10, false), Range.makeNumeric(10, 20, false), null};
+        Field a = Data.makeColumnField("a", null, values);
+        a.set("numeric", true);
+        Field b = Data.makeColumnField("b", null, new Object[]{1.0, 2.0, 3.0});
+        b.set("numeric", true);
+
+        MappedDatasetCache cache = new MappedDatasetCache(directory);
+        cache.store("ranges", Dataset.make(new Field[]{a, b}, false));
+        Dataset mapped = new MappedDatasetCache(directory).retrieve("ranges");
+        assertEquals(values[0].toString(), mapped.field("a").value(0));
+        assertEquals(values[1].toString(), mapped.field("a").value(1));
+        assertNull(mapped.field("a").value(2));
+        assertEquals(2.0, mapped.field("b").numericValue(1), 0.0);
+    }
+
+    @Test
+    public void testWriteFailureIsNotFatal() {
+        MappedDatasetCache cache = new MappedDatasetCache(directory);
+        cache.store("fail", Dataset.make(CSV.read("x\n1\n")));
+        assertEquals(1, cache.retrieve("fail").rowCount());
+
+        // Block the temporary file, so writing fails; the older data must not be used instead
+        File file = cache.fileFor("fail");
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        assertTrue(temp.mkdir());
+        cache.store("fail", Dataset.make(CSV.read("x\n1\n2\n")));
+        assertNull(cache.retrieve("fail"));
+    }
+
+    private static void assertSameData(Dataset expected, Dataset actual) {
+        assertEquals(expected.rowCount(), actual.rowCount());
+        assertEquals(expected.fields.length, actual.fields.length);
+        for (int i = 0; i < expected.fields.length; i++) {
+            Field f = expected.fields[i], g = actual.fields[i];
+            assertEquals(f.name, g.name);
+            assertEquals(f.isNumeric(), g.isNumeric());
+            for (int row = 0; row < f.rowCount(); row++) {
+                Object p = f.value(row), q = g.value(row);
+                if (p instanceof Number) assertEquals(Data.asNumeric(p), Data.asNumeric(q), 0.0);
+                else assertEquals(p, q);
+            }
+        }
+    }
+
+}
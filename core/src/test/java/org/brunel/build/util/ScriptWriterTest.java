@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brunel.build.util;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptWriterTest {
+
+    @Test
+    public void testCurrentColumn() {
+        ScriptWriter out = new ScriptWriter(new BuilderOptions());
+        assertEquals(-1, out.currentColumn());
+        out.add("abc");
+        assertEquals(2, out.currentColumn());               // The first line has always been one short
+        out.ln();
+        assertEquals(0, out.currentColumn());
+        out.add("var x =", 12).endStatement();
+        assertEquals(0, out.currentColumn());
+        out.add("'multiple\nlines'");
+        assertEquals(6, out.currentColumn());
+        out.at(10).add("x");
+        assertEquals(11, out.currentColumn());
+    }
+
+    @Test
+    public void testStreamingMatchesContent() {
+        List<String> items = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) items.add("item " + i);
+
+        StringWriter target = new StringWriter();
+        ScriptWriter streamed = new ScriptWriter(new BuilderOptions(), target);
+        ScriptWriter memory = new ScriptWriter(new BuilderOptions());
+        for (ScriptWriter out : new ScriptWriter[]{streamed, memory}) {
+            out.titleComment("Items");
+            out.add("var items = [").addQuotedCollection(items).add("]").endStatement();
+        }
+
+        // Text is sent as it is generated, and the rest when the content is requested
+        assertEquals(true, target.toString().length() > 0);
+        assertEquals("", streamed.content());
+        assertEquals(memory.content(), target.toString());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.geom;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SpatialIndexTest {
+
+    @Test
+    public void testMatchesLinearSearch() {
+        Random random = new Random(12345);
+        Rect[] rects = new Rect[5000];
+        for (int i = 0; i < rects.length; i++) {
+            if (i % 100 == 7) continue;                         // Some missing items
+            double x = random.nextDouble() * 360 - 180, y = random.nextDouble() * 180 - 90;
+            double w = random.nextDouble() * (i % 10 == 0 ? 60 : 2), h = random.nextDouble() * 5;
+            rects[i] = new Rect(x, x + w, y, y + h);
+        }
+        SpatialIndex index = new SpatialIndex(rects);
+
+        for (int trial = 0; trial < 200; trial++) {
+            double x = random.nextDouble() * 360 - 180, y = random.nextDouble() * 180 - 90;
+            Rect region = new Rect(x, x + random.nextDouble() * 40, y, y + random.nextDouble() * 20);
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int i = 0; i < rects.length; i++)
+                if (rects[i] != null && rects[i].intersects(region)) expected.add(i);
+            assertEquals(expected.toString(), Arrays.toString(index.intersecting(region)));
+
+            Point p = new Point(x, y);
+            expected.clear();
+            for (int i = 0; i < rects.length; i++)
+                if (rects[i] != null && rects[i].contains(p)) expected.add(i);
+            assertEquals(expected.toString(), Arrays.toString(index.containing(p)));
+        }
+    }
+
+    @Test
+    public void testPoints() {
+        List<Point> points = Arrays.asList(new Point(0, 0), new Point(1, 1), null, new Point(1, 1), new Point(5, 5));
+        SpatialIndex index = SpatialIndex.of(points);
+        assertArrayEquals(new int[]{0, 1, 3}, index.intersecting(new Rect(0, 1, 0, 1)));
+        assertArrayEquals(new int[]{4}, index.containing(new Point(5, 5)));
+        assertArrayEquals(new int[0], index.intersecting(new Rect(2, 4, 2, 4)));
+        assertArrayEquals(new int[0], new SpatialIndex(new Rect[0]).intersecting(new Rect(0, 1, 0, 1)));
+    }
+
+}
@@ -18,9 +18,12 @@ package org.brunel.maps;
 
 import org.brunel.action.Param;
 import org.brunel.data.Data;
+import org.brunel.geom.Rect;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,6 +42,18 @@ public class TestAnalyze {
         assertEquals("France:[0, 73] Germany:[0, 58] Lux.:[0, 131]", dump(a.getFeatureMap()));
     }
 
+    @Test
+    public void testFilesIntersecting() {
+        GeoData data = GeoData.instance();
+        Rect[] regions = new Rect[]{new Rect(-10, 20, 40, 55), new Rect(-100, -90, 30, 40), new Rect(0, 0, 0, 0),
+                new Rect(170, 180, -50, -30)};
+        for (Rect r : regions) {
+            List<GeoFile> expected = new ArrayList<GeoFile>();
+            for (GeoFile f : data.getGeoFiles()) if (r.intersects(f.bounds)) expected.add(f);
+            assertEquals(expected, Arrays.asList(data.filesIntersecting(r)));
+        }
+    }
+
     private String dump(Map<Object, int[]> mapping) {
         Set<Object> keySet = mapping.keySet();
         Object[] keys = keySet.toArray(new Object[keySet.size()]);
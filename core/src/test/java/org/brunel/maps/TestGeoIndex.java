@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.maps;
+
+import org.brunel.action.Param;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests the binary index gives the same information as the text files
+ */
+public class TestGeoIndex {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        GeoData text = GeoData.readText();
+        byte[] bytes = write(text);
+        GeoData binary = GeoIndex.read(new ByteArrayInputStream(bytes));
+
+        // Writing the read data should give exactly the same bytes
+        assertArrayEquals(bytes, write(binary));
+
+        assertEquals(text.getGeoFiles().length, binary.getGeoFiles().length);
+        for (int i = 0; i < text.getGeoFiles().length; i++) {
+            GeoFile a = text.getGeoFiles()[i], b = binary.getGeoFiles()[i];
+            assertEquals(a.name, b.name);
+            assertEquals(a.bounds.toString(), b.bounds.toString());
+            assertEquals(Arrays.toString(a.hull.points), Arrays.toString(b.hull.points));
+            assertEquals(a.pts.toString(), b.pts.toString());
+        }
+        assertEquals(text.getLabels().length, binary.getLabels().length);
+        assertEquals(text.getFeatureMap().size(), binary.getFeatureMap().size());
+        assertEquals(text.getFilesByName().size(), binary.getFilesByName().size());
+        assertEquals(text.getLabelsByName().size(), binary.getLabelsByName().size());
+    }
+
+    @Test
+    public void testMappingsMatch() throws IOException {
+        GeoData text = GeoData.readText();
+        GeoData binary = GeoIndex.read(new ByteArrayInputStream(write(text)));
+
+        String[] names = "France,Germany,Lux.,UK,IRE,NY,TX,Côte d'Ivoire,Netherlands, The,Nowhere".split(",");
+        assertEquals(describe(text.make(names, new Param[0])), describe(binary.make(names, new Param[0])));
+
+        Param[] params = new Param[]{Param.makeString("Paris"), Param.makeString("Africa")};
+        assertEquals(describe(text.make(names, params)), describe(binary.make(names, params)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherData() throws IOException {
+        GeoIndex.read(new ByteArrayInputStream("World|-180,181,-90,84|".getBytes("utf-8")));
+    }
+
+    private byte[] write(GeoData data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GeoIndex.write(data, out);
+        return out.toByteArray();
+    }
+
+    private String describe(GeoMapping mapping) {
+        return Arrays.toString(mapping.getFiles()) + " " + mapping.getUnmatched() + " " + mapping.getFeatureMap().keySet();
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.maps;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+
+/**
+ * Tests the naming of geographic places
+ */
+public class TestGeoNaming {
+
+    @Test
+    public void testCanonical() {
+        assertEquals("saint kitts and nevis", GeoNaming.canonical("St. Kitts & Nevis"));
+        assertEquals("democratic republic of the congo", GeoNaming.canonical("Dem.  Rep. of the\tCongo"));
+        assertEquals("cayman islands", GeoNaming.canonical("  Cayman Is."));
+        assertEquals("cote d'ivoire", GeoNaming.canonical("Cote d’Ivoire"));
+        assertEquals("united kingdom", GeoNaming.canonical("UK"));
+        assertEquals("united kingdom", GeoNaming.canonical("United Kingdom of Great Britain and Northern Ireland"));
+        assertEquals("vatican", GeoNaming.canonical("Holy See (Vatican City State)"));
+        assertEquals("", GeoNaming.canonical(" \t "));
+    }
+
+    @Test
+    public void testCanonicalIsCached() {
+        String a = GeoNaming.canonical(new String("New  York"));
+        assertSame(a, GeoNaming.canonical(new String("New  York")));
+    }
+
+    @Test
+    public void testMatchesRegularExpressions() throws Exception {
+        // All the names we have data for
+        for (String file : new String[]{"geoindex.txt", "locations.txt"}) {
+            InputStream is = GeoNaming.class.getResourceAsStream("/org/brunel/maps/" + file);
+            LineNumberReader rdr = new LineNumberReader(new InputStreamReader(is, "utf-8"));
+            for (String line = rdr.readLine(); line != null; line = rdr.readLine())
+                for (String s : line.split("\\|")) checkCanonical(s);
+            rdr.close();
+        }
+
+        // Random strings made of the parts that are treated specially
+        String[] parts = {"st.", "dem.", "rep.", "is.", "s", "t", ".", " ", "  ", "\t", "&", "’", "A", "é", "uk"};
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder b = new StringBuilder();
+            int n = random.nextInt(8);
+            for (int j = 0; j < n; j++) b.append(parts[random.nextInt(parts.length)]);
+            checkCanonical(b.toString());
+        }
+    }
+
+    private void checkCanonical(String s) {
+        assertEquals("'" + s + "'", regexCanonical(s), GeoNaming.canonical(s));
+    }
+
+    // The original definition, using regular expressions
+    private static String regexCanonical(String s) {
+        s = s.toLowerCase().replaceAll("st\\.[ ]*", "saint ")
+                .replaceAll("dem\\.[ ]*", "democratic ")
+                .replaceAll("rep\\.[ ]*", "republic ")
+                .replaceAll("is\\.[ ]*", "islands ")
+                .replaceAll("’", "'")
+                .replaceAll("&", " and ")
+                .replaceAll(" [ ]+", " ").trim();
+        s = s.replaceAll("[ \t]+", " ");
+        s = GeoNaming.canonical(s);                 // Common names and prefixes; no other changes for this form
+        return s;
+    }
+
+}
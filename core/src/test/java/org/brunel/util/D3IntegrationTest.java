@@ -20,6 +20,8 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.io.StringWriter;
+
 public class D3IntegrationTest {
 
 	private static final String csv = "A,B,C\n1,2,3\n3,4,5";
@@ -32,6 +34,25 @@ public class D3IntegrationTest {
 		assertNotNull(json);
 	}
 	
+	@Test
+	public void testStreamedJS() {
+		StringBuilder data = new StringBuilder("A,B,C");
+		for (int i = 0; i < 2000; i++) data.append("\n").append(i).append(",").append(i % 17).append(",c").append(i % 5);
+		String action = "x(A) y(B) color(C) tooltip(C)";
+
+		// Streaming gives the same script as building it in memory
+		StringWriter writer = new StringWriter();
+		D3Integration.writeBrunelJS(data.toString(), action, 300, 200, "visid", null, writer);
+		String expected = D3Integration.createBrunelResult(data.toString(), action, 300, 200, "visid", null).js;
+		assertEquals(expected, writer.toString());
+		assertTrue(expected.length() > 20000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadBrunelFoundBeforeStreaming() {
+		D3Integration.prepareVisualization(csv, "x(A) y(B");
+	}
+
 	@Test
 	public void testDatanames() {
 		String brunel = "data('a') x(x) | data('b') x(x) y(y) + data('c') bubble | data('a') bar";
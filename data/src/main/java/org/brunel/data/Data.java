@@ -20,8 +20,13 @@ import org.brunel.data.util.Dates;
 import org.brunel.data.util.Range;
 import org.brunel.data.values.ColumnProvider;
 import org.brunel.data.values.ConstantProvider;
+import org.brunel.data.values.DateColumnProvider;
+import org.brunel.data.values.DictionaryProvider;
+import org.brunel.data.values.DoubleColumnProvider;
+import org.brunel.data.values.Provider;
 import org.brunel.data.values.ReorderedProvider;
 import org.brunel.data.values.RowProvider;
+import org.brunel.data.values.StackedProvider;
 import org.brunel.translator.JSTranslation;
 
 import java.text.DecimalFormat;
@@ -229,8 +234,8 @@ public class Data {
 
     public static Field toDate(Field f, String method) {
         if (f.isDate()) return f;
+        if (method == null) return makeDateField(f, asDates(f));
         Date[] data = new Date[f.rowCount()];
-        boolean changed = false;
         for (int i = 0; i < data.length; i++) {
             Object o = f.value(i);
             if ("year".equals(method)) {
@@ -244,14 +249,27 @@ public class Data {
                 if (v != null) data[i] = asDate(v - 24107);
             } else
                 data[i] = asDate(o);
-            if (!changed) changed = Data.compare(o, data[i]) != 0;
         }
-        Field result = makeColumnField(f.name, f.label, data);
+        return makeDateField(f, data);
+    }
+
+    private static Field makeDateField(Field f, Date[] data) {
+        Field result = new Field(f.name, f.label, new DateColumnProvider(data));
         result.set("date", true);
         result.set("numeric", true);
         return result;
     }
 
+    /* Parses all the values of the field as dates, using the format of the column where there is one */
+    @JSTranslation(js = {
+            "var i, data = [];",
+            "for (i = 0; i < f.rowCount(); i++) data.push($$CLASS$$.asDate(f.value(i)));",
+            "return data;"
+    })
+    private static Date[] asDates(Field f) {
+        return Dates.parseColumn(f);
+    }
+
     // JavaScript date parsing uses LOCAL time zone for non ISO-8601 dates,
     // But UTC for ISO-6801 dates, so we need to undo that by detecting the ISO format 'T'
     @JSTranslation(js = {
@@ -270,20 +288,28 @@ public class Data {
         return new Field(name, label, new ColumnProvider(data));
     }
 
+    /* Makes a field with the rows of each field following those of the previous one; the data is not copied */
+    public static Field makeStackedField(String name, String label, Field[] fields) {
+        Provider[] parts = new Provider[fields.length];
+        for (int i = 0; i < parts.length; i++) parts[i] = fields[i].provider;
+        return new Field(name, label, StackedProvider.make(parts));
+    }
+
     public static Field makeIndexedColumnField(String name, String label, Object[] items, int[] indices) {
-        return new Field(name, label, new ReorderedProvider(new ColumnProvider(items), indices));
+        return new Field(name, label, DictionaryProvider.makeIndexed(items, indices));
     }
 
     public static Field toNumeric(Field f) {
         if (f.isNumeric()) return f;
         boolean changed = false;
-        Number[] data = new Number[f.rowCount()];
+        double[] data = new double[f.rowCount()];
         for (int i = 0; i < data.length; i++) {
             Object o = f.value(i);
-            data[i] = asNumeric(o);
-            if (!changed) changed = Data.compare(o, data[i]) != 0;
+            Double d = asNumeric(o);
+            data[i] = d == null ? Double.NaN : d;
+            if (!changed) changed = Data.compare(o, d) != 0;
         }
-        Field result = changed ? makeColumnField(f.name, f.label, data) : f;
+        Field result = changed ? new Field(f.name, f.label, new DoubleColumnProvider(data)) : f;
         result.set("numeric", true);
         return result;
     }
@@ -297,10 +323,11 @@ public class Data {
      * @return new field
      */
     public static Field permute(Field field, int[] order, boolean onlyOrderChanged) {
+        Provider provider = ReorderedProvider.make(field.provider, order);
         if (onlyOrderChanged)
-            return new Field(field.name, field.label, new ReorderedProvider(field.provider, order), field);
+            return new Field(field.name, field.label, provider, field);
 
-        Field f = new Field(field.name, field.label, new ReorderedProvider(field.provider, order));
+        Field f = new Field(field.name, field.label, provider);
         Data.copyBaseProperties(f, field);
         return f;
     }
@@ -350,8 +377,16 @@ public class Data {
         char quoteChar = '\'';
         if (s.indexOf(quoteChar) >= 0) quoteChar = '"';
 
-        String text = "";
+        // Most text needs no escaping, so check for that first
         int n = s.length();
+        boolean plain = true;
+        for (int i = 0; i < n && plain; i++) {
+            char c = s.charAt(i);
+            plain = c != '\n' && c != '\t' && c != '\\' && c != quoteChar;
+        }
+        if (plain) return quoteChar + s + quoteChar;
+
+        String text = "";
         for (int i = 0; i < n; i++) {
             char c = s.charAt(i);
             if (c == '\n') text += "\\n";
@@ -30,7 +30,6 @@ import org.brunel.data.util.Informative;
 import org.brunel.data.values.ColumnProvider;
 import org.brunel.translator.JSTranslation;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -293,19 +292,12 @@ public class Dataset extends Informative implements Serializable {
 
     @JSTranslation(ignore = true)
     private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-        out.write(Serialize.serializeDataset(this));
+        Serialize.serializeDataset(this, out);
     }
 
     @JSTranslation(ignore = true)
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
-        ByteArrayOutputStream store = new ByteArrayOutputStream();
-        byte[] block = new byte[10240];
-        for(;;) {
-            int len = in.read(block);
-            if (len <0) break;
-            store.write(block, 0, len);
-        }
-        Dataset d = (Dataset) Serialize.deserialize(store.toByteArray());
+        Dataset d = (Dataset) Serialize.deserialize(in);
         fields = d.fields;
         fieldByName = d.fieldByName;
         info = new HashMap<String, Object>();
@@ -22,6 +22,8 @@ import org.brunel.data.stats.NumericStats;
 import org.brunel.data.util.DateFormat;
 import org.brunel.data.util.Informative;
 import org.brunel.data.util.Range;
+import org.brunel.data.values.DictionaryProvider;
+import org.brunel.data.values.LazyProvider;
 import org.brunel.data.values.Provider;
 
 import java.util.HashMap;
@@ -36,6 +38,8 @@ public class Field extends Informative implements Comparable<Field> {
     Provider provider;                          // Provides values for the field (not final as it may need conversion)
 
     private boolean calculatedNominal, calculatedNumeric, calculatedDate;   // True when we calculate these
+    private boolean calculatedOrder, calculatedSortedRows;                  // True when we calculate these
+    private int[] sortedRows;                                               // rows in ascending numeric order
     private HashMap<Object, Integer> categoryOrder;                             // order of the categories
 
     public Field(String name, String label, Provider provider) {
@@ -53,6 +57,7 @@ public class Field extends Informative implements Comparable<Field> {
                 // Ensure that the base field has everything calculated because we cannot calculate lazily later
                 base.makeNominalStats();
                 base.makeNumericStats();
+                base.makeOrderStats();
                 base.makeDateStats();
             }
             copyPropertiesFrom(base);
@@ -70,19 +75,62 @@ public class Field extends Informative implements Comparable<Field> {
     public void setValue(Object o, int index) {
         // We may have to convert a provider from a constant provider
         provider = provider.setValue(o, index);
+        sortedRows = null;
+        calculatedSortedRows = false;
     }
 
     public int compareRows(int a, int b) {
-        if (categoryOrder == null) {
-            categoryOrder = new HashMap<Object, Integer>();         // Build it no matter what so next call is faster
-            if (preferCategorical()) {
-                Object[] cats = categories();
-                for (int i = 0; i < cats.length; i++) categoryOrder.put(cats[i], i);
-            }
-        }
+        if (categoryOrder == null) makeCategoryOrder();
         return provider.compareRows(a, b, categoryOrder);
     }
 
+    private void makeCategoryOrder() {
+        HashMap<Object, Integer> order = new HashMap<Object, Integer>();    // Build it no matter what so next call is faster
+        if (preferCategorical()) {
+            Object[] cats = categories();
+            for (int i = 0; i < cats.length; i++) order.put(cats[i], i);
+        }
+        categoryOrder = order;
+    }
+
+    /**
+     * For dictionary-encoded fields, returns the distinct values in sorted order.
+     * Use with dictionaryCode() and dictionaryRanks() to work with the data as integers
+     *
+     * @return the dictionary, or null if the data is not stored that way
+     */
+    public Object[] dictionary() {
+        Provider p = provider();
+        return p instanceof DictionaryProvider ? ((DictionaryProvider) p).dictionary() : null;
+    }
+
+    /**
+     * For dictionary-encoded fields, the index of a row's value in the dictionary
+     *
+     * @param index row to access
+     * @return index into the dictionary, or -1 for null
+     */
+    public int dictionaryCode(int index) {
+        return ((DictionaryProvider) provider()).code(index);
+    }
+
+    /**
+     * For dictionary-encoded fields, the rank of each dictionary item, so that comparing ranks of non-null values is
+     * the same as using compareRows, including any defined category order
+     *
+     * @return ranks indexed by the dictionary code
+     */
+    public int[] dictionaryRanks() {
+        if (categoryOrder == null) makeCategoryOrder();
+        return ((DictionaryProvider) provider()).ranks(categoryOrder);
+    }
+
+    /* The provider, with lazily created data replaced by the data itself, so its storage type can be used */
+    private Provider provider() {
+        if (provider instanceof LazyProvider) provider = ((LazyProvider) provider).provider();
+        return provider;
+    }
+
     public long expectedSize() {
         return (label.length() + name.length()) * 2 + 84 + 24 + provider.expectedSize();
     }
@@ -95,13 +143,17 @@ public class Field extends Informative implements Comparable<Field> {
                 o = super.property(key);
             }
             if (!calculatedNumeric && NumericStats.creates(key)) {
-                if (!calculatedNominal) makeNominalStats();
                 makeNumericStats();
                 o = super.property(key);
             }
+            if (!calculatedOrder && NumericStats.createsOrder(key)) {
+                makeOrderStats();
+                o = super.property(key);
+            }
             if (!calculatedDate && DateStats.creates(key)) {
                 if (!calculatedNominal) makeNominalStats();
                 if (!calculatedNumeric) makeNumericStats();
+                if (!calculatedOrder) makeOrderStats();
                 makeDateStats();
                 o = super.property(key);
             }
@@ -136,6 +188,34 @@ public class Field extends Informative implements Comparable<Field> {
         calculatedNumeric = true;
     }
 
+    private void makeOrderStats() {
+        if (provider != null) NumericStats.populateOrder(this);
+        calculatedOrder = true;
+    }
+
+    /**
+     * Returns the rows in ascending order of their numeric values, with ties in row order and missing values last.
+     * The result is cached, and so must not be modified
+     *
+     * @return sorted rows, or null if some values (such as ranges) do not have a simple numeric value
+     */
+    public int[] sortedNumericRows() {
+        if (!calculatedSortedRows) {
+            sortedRows = NumericStats.sortedRows(this);
+            calculatedSortedRows = true;
+        }
+        return sortedRows;
+    }
+
+    /**
+     * The rows in ascending numeric order, but only if they have already been calculated
+     *
+     * @return the result of sortedNumericRows(), or null if it has not been called yet
+     */
+    public int[] cachedSortedNumericRows() {
+        return calculatedSortedRows ? sortedRows : null;
+    }
+
     private void makeNominalStats() {
         if (provider != null) NominalStats.populate(this);
         calculatedNominal = true;
@@ -207,6 +287,20 @@ public class Field extends Informative implements Comparable<Field> {
         return provider.value(index);
     }
 
+    /**
+     * Returns the value at the given row as a primitive, without creating an object
+     *
+     * @param index row to access
+     * @return numeric value, or NaN if missing or not a simple number (ranges return NaN)
+     */
+    public double numericValue(int index) {
+        return provider.numericValue(index);
+    }
+
+    public boolean isNull(int index) {
+        return provider.isNull(index);
+    }
+
     public String valueFormatted(int index) {
         return format(provider.value(index));
     }
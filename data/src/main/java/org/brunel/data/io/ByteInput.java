@@ -46,7 +46,7 @@ class ByteInput {
             int d4 = readByte() & 0xff;
             return d3 + d4 * 256;
         } else if (a == 254) {
-            return readDouble();
+            return readFormattedDouble();
         } else if (a == 255) {
             return null;
         } else {
@@ -60,11 +60,82 @@ class ByteInput {
         return Data.asDate(readNumber());
     }
 
-    private Number readDouble() {
+    private Number readFormattedDouble() {
         String s = readString();
         return s.equals("NaN") ? Double.NaN : Double.parseDouble(s);
     }
 
+    /**
+     * Reads the eight bytes written by ByteOutput.addDouble
+     *
+     * @return the value
+     */
+    @JSTranslation(js = {
+            "var v = new DataView(new ArrayBuffer(8));",
+            "for (var i = 0; i < 8; i++) v.setUint8(i, this.readByte());",
+            "return v.getFloat64(0);"
+    })
+    public double readDouble() {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) bits = (bits << 8) | (data[p++] & 0xff);
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Reads the four bytes written by ByteOutput.addInt
+     *
+     * @return the value
+     */
+    public int readInt() {
+        int a = readByte() & 0xff, b = readByte() & 0xff, c = readByte() & 0xff, d = readByte() & 0xff;
+        return (a << 24) | (b << 16) | (c << 8) | d;
+    }
+
+    /**
+     * Reads integers written by ByteOutput.addPacked
+     *
+     * @param count number of values
+     * @param bits  bits used for each value
+     * @return the values
+     */
+    public int[] readPacked(int count, int bits) {
+        int[] values = new int[count];
+        if (bits == 0) return values;
+        int pending = 0, available = 0;
+        for (int i = 0; i < count; i++) {
+            int v = 0, filled = 0;
+            while (filled < bits) {
+                if (available == 0) {
+                    pending = readByte() & 0xff;
+                    available = 8;
+                }
+                int take = Math.min(available, bits - filled);
+                v |= (pending & ((1 << take) - 1)) << filled;
+                pending = pending >>> take;
+                available -= take;
+                filled += take;
+            }
+            values[i] = v;
+        }
+        return values;
+    }
+
+    int position() {
+        return p;
+    }
+
+    void seek(int position) {
+        p = position;
+    }
+
+    /* A reader for the same data, at the same position, so different parts can be read independently */
+    @JSTranslation(ignore = true)
+    ByteInput copy() {
+        ByteInput result = new ByteInput(data);
+        result.p = p;
+        return result;
+    }
+
     @JSTranslation(js = {
             "var i, len, c, d, char2, char3, out=''",
             "for(;;) {",
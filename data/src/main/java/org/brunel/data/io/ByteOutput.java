@@ -20,6 +20,8 @@ import org.brunel.data.Data;
 import org.brunel.translator.JSTranslation;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.Date;
 
@@ -75,11 +77,89 @@ class ByteOutput {
         }
 
         addByte(254);
-        addDouble(value);
+        addFormattedDouble(value);
         return this;
     }
 
-    private void addDouble(Number value) {
+    /**
+     * Adds the eight bytes of the IEEE-754 representation of the value, most significant first
+     *
+     * @param value value to add
+     * @return this
+     */
+    @JSTranslation(js = {
+            "var v = new DataView(new ArrayBuffer(8)); v.setFloat64(0, value);",
+            "for (var i = 0; i < 8; i++) this.out.push(v.getUint8(i));",
+            "return this;"
+    })
+    public ByteOutput addDouble(double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 56; i >= 0; i -= 8) out.write((int) (bits >>> i) & 0xff);
+        return this;
+    }
+
+    /**
+     * Adds a four-byte integer, most significant byte first
+     *
+     * @param value value to add
+     * @return this
+     */
+    public ByteOutput addInt(int value) {
+        addByte((value >>> 24) & 0xff);
+        addByte((value >>> 16) & 0xff);
+        addByte((value >>> 8) & 0xff);
+        return addByte(value & 0xff);
+    }
+
+    /**
+     * Adds non-negative integers using the given number of bits for each one, packed into bytes lowest bits first.
+     * The final byte is padded with zero bits
+     *
+     * @param values values to add, each of which must fit in the number of bits
+     * @param count  number of values to add
+     * @param bits   bits for each value; if zero, nothing is written
+     * @return this
+     */
+    public ByteOutput addPacked(int[] values, int count, int bits) {
+        if (bits == 0) return this;
+        int pending = 0, used = 0;
+        for (int i = 0; i < count; i++) {
+            int v = values[i], remaining = bits;
+            while (remaining > 0) {
+                int take = Math.min(8 - used, remaining);
+                pending |= (v & ((1 << take) - 1)) << used;
+                v = v >>> take;
+                remaining -= take;
+                used += take;
+                if (used == 8) {
+                    addByte(pending);
+                    pending = 0;
+                    used = 0;
+                }
+            }
+        }
+        if (used > 0) addByte(pending);
+        return this;
+    }
+
+    @JSTranslation(js = {"for (var i = 0; i < other.out.length; i++) this.out.push(other.out[i]);", "return this;"})
+    public ByteOutput addBytes(ByteOutput other) {
+        byte[] bytes = other.out.toByteArray();
+        out.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    @JSTranslation(js = {"return this.out.length;"})
+    public int size() {
+        return out.size();
+    }
+
+    @JSTranslation(ignore = true)
+    void writeTo(OutputStream stream) throws IOException {
+        out.writeTo(stream);
+    }
+
+    private void addFormattedDouble(Number value) {
         if (Double.isNaN(value.doubleValue()))
             addString("NaN");
         else
@@ -18,14 +18,24 @@ package org.brunel.data.io;
 
 import org.brunel.data.Data;
 import org.brunel.data.Field;
+import org.brunel.data.values.DictionaryProvider;
+import org.brunel.translator.JSTranslation;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class CSV {
 
+    @JSTranslation(ignore = true)
+    private static final int TYPE_SAMPLE_ROWS = 1000;         // Rows used to choose each column's initial type
+
     /*
      * Reads CSV formatted data and converts to values
      * It assumes the data has headers
@@ -35,6 +45,101 @@ public class CSV {
         return makeFields(data);
     }
 
+    /*
+     * Reads UTF-8 encoded CSV data from a stream, as for read(Reader)
+     */
+    @JSTranslation(ignore = true)
+    public static Field[] read(InputStream stream) throws IOException {
+        return read(new InputStreamReader(stream, "UTF-8"));
+    }
+
+    /*
+     * Reads CSV formatted data in a single pass over the reader, without holding the whole text in memory.
+     * Columns whose values are all numeric are stored as primitives, and the rest as text, so the fields
+     * convert automatically in the same way as for read(String). It assumes the data has headers
+     */
+    @JSTranslation(ignore = true)
+    public static Field[] read(Reader reader) throws IOException {
+        CSVTokenizer tokenizer = new CSVTokenizer(reader);
+        if (!tokenizer.nextRow()) return new Field[0];
+        String[] names = readHeader(tokenizer);
+        ColumnBuilder[] builders = readSample(tokenizer, names.length);
+
+        // The remaining rows go straight into the builders
+        int lines = 1 + builders[0].count;
+        while (tokenizer.nextRow()) {
+            checkFieldCount(tokenizer.cellCount(), ++lines, names.length);
+            for (int i = 0; i < names.length; i++) builders[i] = builders[i].add(tokenizer, i);
+        }
+        return buildFields(builders, names);
+    }
+
+    /*
+     * Reads CSV formatted data, as for read(Reader), but splits large data into chunks of complete lines which
+     * are parsed in parallel. The results are identical to the sequential methods
+     */
+    @JSTranslation(ignore = true)
+    public static Field[] readParallel(String text) throws IOException {
+        return ParallelCSV.read(text, ParallelCSV.pool());
+    }
+
+    /*
+     * As for readParallel(String), but using the given pool to parse the chunks
+     */
+    @JSTranslation(ignore = true)
+    public static Field[] readParallel(String text, ForkJoinPool pool) throws IOException {
+        return ParallelCSV.read(text, pool);
+    }
+
+    @JSTranslation(ignore = true)
+    static String[] readHeader(CSVTokenizer tokenizer) {
+        Map<String, String> common = new HashMap<String, String>();
+        String[] names = new String[tokenizer.cellCount()];
+        for (int i = 0; i < names.length; i++) {
+            String name = tokenizer.text(i, common);
+            names[i] = name == null ? "" : name;
+        }
+        return names;
+    }
+
+    /*
+     * Keeps the initial rows as text so we can decide on the column types.
+     * The tokenizer is left positioned after the sampled rows
+     */
+    @JSTranslation(ignore = true)
+    static ColumnBuilder[] readSample(CSVTokenizer tokenizer, int fieldCount) throws IOException {
+        Map<String, String> common = new HashMap<String, String>();
+        List<String[]> sample = new ArrayList<String[]>();
+        while (sample.size() < TYPE_SAMPLE_ROWS && tokenizer.nextRow()) {
+            checkFieldCount(tokenizer.cellCount(), sample.size() + 2, fieldCount);
+            String[] row = new String[fieldCount];
+            for (int i = 0; i < fieldCount; i++) row[i] = tokenizer.text(i, common);
+            sample.add(row);
+        }
+
+        ColumnBuilder[] builders = new ColumnBuilder[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            String[] column = new String[sample.size()];
+            for (int j = 0; j < column.length; j++) column[j] = sample.get(j)[i];
+            builders[i] = ColumnBuilder.make(column);
+        }
+        return builders;
+    }
+
+    @JSTranslation(ignore = true)
+    static void checkFieldCount(int cellCount, int line, int fieldCount) {
+        if (cellCount != fieldCount)
+            throw new IllegalArgumentException("Line " + line + " had " + cellCount + " entries; expected "
+                    + fieldCount);
+    }
+
+    @JSTranslation(ignore = true)
+    static Field[] buildFields(ColumnBuilder[] builders, String[] names) {
+        Field[] fields = new Field[names.length];
+        for (int i = 0; i < names.length; i++) fields[i] = builders[i].make(names[i]);
+        return fields;
+    }
+
     /*
      * Reads CSV formatted data and converts to array of values
      */
@@ -111,7 +216,7 @@ public class CSV {
 
     }
 
-    private static char findSeparator(String data) {
+    static char findSeparator(String data) {
         char[] potential = new char[]{',', '\t', '|', ';'};
         char best = ',';
         int score = -100000;
@@ -165,7 +270,7 @@ public class CSV {
             for (int j = 0; j < column.length; j++)
                 column[j] = data[j + 1][i];
             String name = data[0][i] == null ? "" : data[0][i].toString();
-            fields[i] = Data.makeColumnField(identifier(name), readable(name), column);
+            fields[i] = new Field(identifier(name), readable(name), DictionaryProvider.make(column));
         }
         return fields;
     }
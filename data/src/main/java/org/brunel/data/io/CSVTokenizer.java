@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.io;
+
+import org.brunel.data.Data;
+import org.brunel.translator.JSTranslation;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * Splits a stream of CSV text into rows of cells, one row at a time.
+ * The characters for the current row are held in a reusable buffer, so cells are only converted into
+ * objects when asked for, and numbers can be parsed directly from the buffer.
+ * The rules are exactly those of CSV.parse: unquoted cells are trimmed, a blank line ends the data, etc.
+ */
+@JSTranslation(ignore = true)
+class CSVTokenizer {
+
+    private static final int SEPARATOR_SAMPLE = 5000;         // Same number of characters CSV.parse uses
+    private static final double[] POWERS = new double[23];    // Powers of ten that are exact as doubles
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) POWERS[i] = POWERS[i - 1] * 10;
+    }
+
+    private final Reader reader;                                // Source, if reading from a stream
+    private final String source;                                // Source, if reading from a string
+    private int sourcePosition, sourceEnd;                      // Range still to be read from the string
+    private final char[] buffer;                                // Raw input buffer
+    private int position, limit;                                // Position within the input buffer
+    private boolean atEnd, stopped;                             // Input exhausted; no more rows
+    private char last = ' ';                                    // Last character processed
+    final char separator;
+
+    private char[] text = new char[256];                        // Characters of all cells in the row
+    private int textLength;
+    private int[] starts = new int[16], ends = new int[16];     // Cell ranges in text; start < 0 for nulls
+    private boolean[] quoted = new boolean[16];                 // Quoted cells are not trimmed
+    private int cells;                                          // Number of cells in the current row
+
+    CSVTokenizer(Reader reader) throws IOException {
+        this(reader, (char) 0);
+    }
+
+    /**
+     * Create the tokenizer
+     *
+     * @param reader    source of the characters
+     * @param separator separator to use, or 0 to find it from the start of the data
+     */
+    CSVTokenizer(Reader reader, char separator) throws IOException {
+        this.reader = reader;
+        this.source = null;
+        this.buffer = new char[65536];
+        if (separator == 0) {
+            // Ensure we have enough characters buffered to determine the separator
+            while (limit < SEPARATOR_SAMPLE) {
+                int n = reader.read(buffer, limit, buffer.length - limit);
+                if (n < 0) break;
+                limit += n;
+                sourcePosition += n;
+            }
+            this.separator = CSV.findSeparator(new String(buffer, 0, Math.min(limit, SEPARATOR_SAMPLE)));
+        } else {
+            this.separator = separator;
+        }
+    }
+
+    /**
+     * Create a tokenizer for part of a string. The range must start at the beginning of a line
+     *
+     * @param text      source of the characters
+     * @param start     first character to read
+     * @param end       end of the range (exclusive)
+     * @param separator separator to use
+     */
+    CSVTokenizer(String text, int start, int end, char separator) {
+        this.reader = null;
+        this.source = text;
+        this.sourcePosition = start;
+        this.sourceEnd = end;
+        this.buffer = new char[Math.min(65536, Math.max(end - start, 1))];
+        this.separator = separator;
+        if (start > 0) last = text.charAt(start - 1);
+    }
+
+    /**
+     * The offset of the next unread character, relative to the start of the source
+     *
+     * @return number of characters consumed
+     */
+    int offset() {
+        return sourcePosition - (limit - position);
+    }
+
+    /**
+     * True if there are no more rows to be read
+     *
+     * @return true if finished
+     */
+    boolean finished() {
+        return stopped;
+    }
+
+    /**
+     * True if the rows were ended by a blank line, rather than the end of the input.
+     * CSV.parse ignores everything after a blank line
+     *
+     * @return true if ended by a blank line
+     */
+    boolean endedByBlankLine() {
+        return stopped && !atEnd;
+    }
+
+    /**
+     * Read the next row into the buffers
+     *
+     * @return false if there are no more rows
+     */
+    boolean nextRow() throws IOException {
+        if (stopped) return false;
+        cells = 0;
+        textLength = 0;
+        boolean inQuote = false, wasQuoted = false, building = false;
+        int start = 0;
+        while (true) {
+            int ch = next();
+            if (ch < 0) {
+                // Only happens if the data ends within a quote; the incomplete row is dropped
+                stopped = true;
+                return false;
+            }
+            char c = (char) ch;
+            if (inQuote) {
+                if (c == '\"') {
+                    if (peek() == '\"') {
+                        // A double quote is treated as a single quote
+                        append('\"');
+                        position++;
+                    } else
+                        inQuote = false;
+                } else
+                    append(c);
+            } else if (c == '\n' || c == '\r') {
+                // Ignore the second of a \n\r
+                if (last != '\r' || c != '\n') {
+                    if (cells == 0 && (!building || isBlank(start, textLength))) {
+                        // An empty line means the end of parsing
+                        stopped = true;
+                        return false;
+                    }
+                    endCell(start, building, wasQuoted);
+                    last = c;
+                    return true;
+                }
+            } else if (c == '\"') {
+                inQuote = true;
+                wasQuoted = true;
+                building = true;
+            } else if (c == separator) {
+                endCell(start, building, wasQuoted);
+                building = false;
+                wasQuoted = false;
+                start = textLength;
+            } else {
+                building = true;
+                append(c);
+            }
+            last = c;
+        }
+    }
+
+    int cellCount() {
+        return cells;
+    }
+
+    boolean isNull(int i) {
+        return starts[i] < 0;
+    }
+
+    /**
+     * The text for a cell, with common strings shared
+     *
+     * @param i      cell index
+     * @param common map of strings already created (may be null if sharing is not needed)
+     * @return string value, null if the cell was missing
+     */
+    String text(int i, Map<String, String> common) {
+        int start = starts[i];
+        if (start < 0) return null;
+        int end = ends[i];
+        if (!quoted[i]) {
+            while (start < end && text[start] <= ' ') start++;
+            while (end > start && text[end - 1] <= ' ') end--;
+        }
+        String s = new String(text, start, end - start);
+        if (common == null) return s;
+        String t = common.get(s);
+        if (t == null) {
+            common.put(s, s);
+            return s;
+        }
+        return t;
+    }
+
+    /**
+     * True if the text of a cell is a plain number, which ColumnBuilder.plainText writes exactly as it was
+     *
+     * @param i cell index
+     * @return true if the text need not be kept for a numeric cell
+     */
+    boolean isPlainNumber(int i) {
+        int start = starts[i];
+        if (start < 0) return false;
+        int end = ends[i];
+        if (!quoted[i]) {
+            while (start < end && text[start] <= ' ') start++;
+            while (end > start && text[end - 1] <= ' ') end--;
+        }
+        return isPlainNumber(text, start, end);
+    }
+
+    /*
+     * Plain numbers are [-]digits[.digits] with at most 15 digits, no leading zeros, no trailing zeros after the
+     * point and no negative zero; that is the shortest way to write the number without an exponent
+     */
+    static boolean isPlainNumber(char[] s, int start, int end) {
+        int i = start;
+        boolean negative = i < end && s[i] == '-';
+        if (negative) i++;
+        int digits = 0;
+        boolean zero = true;
+        int integerStart = i;
+        for (; i < end && s[i] >= '0' && s[i] <= '9'; i++) {
+            if (i == integerStart && s[i] == '0' && i + 1 < end && s[i + 1] >= '0' && s[i + 1] <= '9') return false;
+            if (s[i] != '0') zero = false;
+            digits++;
+        }
+        if (i == integerStart) return false;
+        if (i < end) {
+            if (s[i++] != '.' || i == end || s[end - 1] == '0') return false;
+            for (; i < end; i++) {
+                if (s[i] < '0' || s[i] > '9') return false;
+                if (s[i] != '0') zero = false;
+                digits++;
+            }
+        }
+        return digits <= 15 && !(negative && zero);
+    }
+
+    /**
+     * The numeric value of a cell, as Data.asNumeric would give for the cell text
+     *
+     * @param i cell index
+     * @return numeric value, or NaN if it is missing or not a number
+     */
+    double number(int i) {
+        int start = starts[i];
+        if (start < 0) return Double.NaN;
+        int end = ends[i];
+        while (start < end && text[start] <= ' ') start++;
+        while (end > start && text[end - 1] <= ' ') end--;
+        if (start == end) return Double.NaN;
+        double d = parseSimple(text, start, end);
+        if (!Double.isNaN(d)) return d;
+        // Exponents, very long numbers, and non-numeric text
+        Double v = Data.asNumeric(new String(text, start, end - start));
+        return v == null ? Double.NaN : v;
+    }
+
+    /*
+     * Parses numbers of the form [+-]digits[.digits] when the result is guaranteed to be identical
+     * to Double.parseDouble: the mantissa is exact as a double and the power of ten is exact, so the single
+     * division is correctly rounded. Returns NaN for anything else
+     */
+    static double parseSimple(char[] s, int start, int end) {
+        boolean negative = false;
+        char c = s[start];
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            start++;
+        }
+        long mantissa = 0;
+        int digits = 0, fraction = -1;
+        for (int i = start; i < end; i++) {
+            c = s[i];
+            if (c >= '0' && c <= '9') {
+                if (++digits > 15) return Double.NaN;
+                mantissa = mantissa * 10 + (c - '0');
+                if (fraction >= 0) fraction++;
+            } else if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else
+                return Double.NaN;
+        }
+        if (digits == 0) return Double.NaN;
+        double d = fraction > 0 ? mantissa / POWERS[fraction] : mantissa;
+        return negative ? -d : d;
+    }
+
+    private void endCell(int start, boolean building, boolean wasQuoted) {
+        if (cells == starts.length) {
+            int n = cells * 2;
+            int[] s = new int[n], e = new int[n];
+            boolean[] q = new boolean[n];
+            System.arraycopy(starts, 0, s, 0, cells);
+            System.arraycopy(ends, 0, e, 0, cells);
+            System.arraycopy(quoted, 0, q, 0, cells);
+            starts = s;
+            ends = e;
+            quoted = q;
+        }
+        starts[cells] = building ? start : -1;
+        ends[cells] = textLength;
+        quoted[cells] = wasQuoted;
+        cells++;
+    }
+
+    private boolean isBlank(int start, int end) {
+        for (int i = start; i < end; i++)
+            if (text[i] > ' ') return false;
+        return true;
+    }
+
+    private void append(char c) {
+        if (textLength == text.length) {
+            char[] t = new char[text.length * 2];
+            System.arraycopy(text, 0, t, 0, textLength);
+            text = t;
+        }
+        text[textLength++] = c;
+    }
+
+    /* The next character, with a final newline added at the end of the input, then -1 */
+    private int next() throws IOException {
+        if (position >= limit && !fill()) {
+            if (atEnd) return -1;
+            atEnd = true;
+            return '\n';
+        }
+        return buffer[position++];
+    }
+
+    /* The next character in the input without consuming it, -1 at the end of the input */
+    private int peek() throws IOException {
+        if (position >= limit && !fill()) return -1;
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        if (atEnd) return false;
+        int n;
+        if (source != null) {
+            n = Math.min(buffer.length, sourceEnd - sourcePosition);
+            if (n == 0) return false;
+            source.getChars(sourcePosition, sourcePosition + n, buffer, 0);
+            sourcePosition += n;
+        } else {
+            do {
+                n = reader.read(buffer, 0, buffer.length);
+            } while (n == 0);
+            if (n < 0) return false;
+            sourcePosition += n;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+}
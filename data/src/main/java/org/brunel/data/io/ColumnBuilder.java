@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.io;
+
+import org.brunel.data.Data;
+import org.brunel.data.Field;
+import org.brunel.data.values.DictionaryProvider;
+import org.brunel.data.values.DoubleColumnProvider;
+import org.brunel.translator.JSTranslation;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates the values for a single column as CSV data is read, storing them in their final form.
+ * A column is stored as numbers only while every value in it is numeric; once any other value is found it
+ * changes to text, keeping the original text of all its values, so Auto.convert sees the same column as it
+ * would for CSV.read(String)
+ */
+@JSTranslation(ignore = true)
+abstract class ColumnBuilder {
+
+    private static final MathContext PLAIN_DIGITS = new MathContext(15);   // Digits allowed in plain numbers
+
+    /**
+     * Make a builder suitable for the sampled values of a column
+     *
+     * @param sample text values from the start of the column (nulls allowed)
+     * @return builder, which will have the sampled values already added
+     */
+    static ColumnBuilder make(String[] sample) {
+        // Columns with values start as numeric, and change to text if they need to
+        boolean hasValues = false;
+        for (String s : sample) hasValues |= s != null;
+        ColumnBuilder builder = hasValues ? new Numeric() : new Text();
+        for (String s : sample) builder = builder.add(s);
+        return builder;
+    }
+
+    /*
+     * Writes a number as plain text. For a value read from a plain number (see CSVTokenizer.isPlainNumber)
+     * this is exactly the original text, as there are at most 15 significant digits
+     */
+    static String plainText(double d) {
+        return new BigDecimal(d).round(PLAIN_DIGITS).stripTrailingZeros().toPlainString();
+    }
+
+    int count;
+
+    /**
+     * Add a value
+     *
+     * @param s text of the value (null if missing)
+     * @return the builder to use from now on; a numeric builder changes to text for a non-numeric value
+     */
+    abstract ColumnBuilder add(String s);
+
+    /**
+     * Add the value of a cell in the tokenizer's current row
+     *
+     * @param tokenizer tokenizer positioned on a row
+     * @param index     cell index
+     * @return the builder to use from now on; a numeric builder changes to text for a non-numeric value
+     */
+    abstract ColumnBuilder add(CSVTokenizer tokenizer, int index);
+
+    abstract Field make(String name);
+
+    /**
+     * Create a new builder for the same type of values
+     *
+     * @return empty builder
+     */
+    abstract ColumnBuilder empty();
+
+    /**
+     * Add all the values from another builder. If either builder is text, the result is text
+     *
+     * @param other builder to append
+     * @return the builder holding all the values
+     */
+    abstract ColumnBuilder append(ColumnBuilder other);
+
+    static class Numeric extends ColumnBuilder {
+        private double[] data = new double[1024];
+        private Text raw;                                       // Text of values that are not plain numbers
+
+        ColumnBuilder add(String s) {
+            if (s == null) return add(Double.NaN, null);
+            Double d = Data.asNumeric(s);
+            if (d == null) return toText().add(s);
+            char[] chars = s.toCharArray();
+            return add(d, CSVTokenizer.isPlainNumber(chars, 0, chars.length) ? null : s);
+        }
+
+        ColumnBuilder add(CSVTokenizer tokenizer, int index) {
+            if (tokenizer.isNull(index)) return add(Double.NaN, null);
+            double d = tokenizer.number(index);
+            if (Double.isNaN(d)) return toText().add(tokenizer, index);
+            return add(d, tokenizer.isPlainNumber(index) ? null : tokenizer.text(index, null));
+        }
+
+        private ColumnBuilder add(double d, String text) {
+            if (text != null) {
+                if (raw == null) raw = new Text();
+                raw.fill(count);
+                raw.add(text);
+            }
+            if (count == data.length) data = resize(data, count * 2);
+            data[count++] = d;
+            return this;
+        }
+
+        /* The same values as text, as they were in the original data */
+        private Text toText() {
+            Text text = new Text();
+            for (int i = 0; i < count; i++) {
+                String s = raw == null ? null : raw.get(i);
+                if (s == null && !Double.isNaN(data[i])) s = plainText(data[i]);
+                text.add(s);
+            }
+            return text;
+        }
+
+        ColumnBuilder empty() {
+            return new Numeric();
+        }
+
+        ColumnBuilder append(ColumnBuilder other) {
+            if (other instanceof Text) return toText().append(other);
+            Numeric o = (Numeric) other;
+            if (o.raw != null) {
+                if (raw == null) raw = new Text();
+                raw.fill(count);
+                o.raw.fill(o.count);
+                raw.append(o.raw);
+            }
+            if (count + o.count > data.length) data = resize(data, Math.max(count + o.count, count * 2));
+            System.arraycopy(o.data, 0, data, count, o.count);
+            count += o.count;
+            return this;
+        }
+
+        Field make(String name) {
+            Field field = new Field(CSV.identifier(name), CSV.readable(name), new DoubleColumnProvider(resize(data, count)));
+            field.set("numeric", true);
+            return field;
+        }
+
+        private static double[] resize(double[] data, int size) {
+            double[] result = new double[size];
+            System.arraycopy(data, 0, result, 0, Math.min(size, data.length));
+            return result;
+        }
+    }
+
+    static class Text extends ColumnBuilder {
+        private final Map<String, Integer> index = new HashMap<String, Integer>();
+        private final List<String> items = new ArrayList<String>();
+        private int[] codes = new int[1024];
+
+        ColumnBuilder add(String s) {
+            if (count == codes.length) codes = resize(codes, count * 2);
+            codes[count++] = code(s);
+            return this;
+        }
+
+        ColumnBuilder add(CSVTokenizer tokenizer, int index) {
+            return add(tokenizer.text(index, null));
+        }
+
+        /* Add nulls to make up the given number of values */
+        private void fill(int n) {
+            while (count < n) add(null);
+        }
+
+        private String get(int i) {
+            int c = i < count ? codes[i] : -1;
+            return c < 0 ? null : items.get(c);
+        }
+
+        /* Find the code for a string, adding it if needed */
+        private int code(String s) {
+            if (s == null) return -1;
+            Integer c = index.get(s);
+            if (c == null) {
+                c = items.size();
+                index.put(s, c);
+                items.add(s);
+            }
+            return c;
+        }
+
+        ColumnBuilder empty() {
+            return new Text();
+        }
+
+        ColumnBuilder append(ColumnBuilder other) {
+            // The other builder has its own codes; translate them into ours
+            Text o = other instanceof Numeric ? ((Numeric) other).toText() : (Text) other;
+            int[] recode = new int[o.items.size()];
+            for (int i = 0; i < recode.length; i++) recode[i] = code(o.items.get(i));
+            if (count + o.count > codes.length) codes = resize(codes, Math.max(count + o.count, count * 2));
+            for (int i = 0; i < o.count; i++) {
+                int c = o.codes[i];
+                codes[count++] = c < 0 ? -1 : recode[c];
+            }
+            return this;
+        }
+
+        Field make(String name) {
+            Object[] dictionary = items.toArray(new Object[items.size()]);
+            return new Field(CSV.identifier(name), CSV.readable(name),
+                    DictionaryProvider.makeIndexed(dictionary, resize(codes, count)));
+        }
+
+        private static int[] resize(int[] data, int size) {
+            int[] result = new int[size];
+            System.arraycopy(data, 0, result, 0, Math.min(size, data.length));
+            return result;
+        }
+    }
+}
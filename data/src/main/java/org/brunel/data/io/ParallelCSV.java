@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.io;
+
+import org.brunel.data.Field;
+import org.brunel.translator.JSTranslation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads CSV text by splitting it into chunks of complete lines and parsing the chunks in parallel.
+ * The header and an initial sample are read first, so all chunks start with the same column types; a chunk
+ * may change a column to text, and the chunk results are then appended in order, giving the same fields as a
+ * sequential read.
+ */
+@JSTranslation(ignore = true)
+class ParallelCSV {
+
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;      // Smaller chunks are not worth the overhead
+    private static ForkJoinPool pool;
+
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool();
+        return pool;
+    }
+
+    static Field[] read(String text, ForkJoinPool pool) throws IOException {
+        char separator = CSV.findSeparator(text.substring(0, Math.min(5000, text.length())));
+        CSVTokenizer tokenizer = new CSVTokenizer(text, 0, text.length(), separator);
+        if (!tokenizer.nextRow()) return new Field[0];
+        String[] names = CSV.readHeader(tokenizer);
+        ColumnBuilder[] builders = CSV.readSample(tokenizer, names.length);
+        int lines = 1 + builders[0].count;
+        if (tokenizer.finished()) return CSV.buildFields(builders, names);
+
+        // Split the rest into chunks and parse them in parallel
+        int[] bounds = chunkBoundaries(text, tokenizer.offset(), pool.getParallelism());
+        List<Chunk> tasks = new ArrayList<Chunk>();
+        for (int i = 0; i < bounds.length - 1; i++)
+            tasks.add(new Chunk(text, bounds[i], bounds[i + 1], separator, builders));
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        if (tasks.size() == 1)
+            chunks.add(tasks.get(0).call());                    // Not worth using the pool
+        else
+            for (Future<Chunk> future : pool.invokeAll(tasks)) chunks.add(get(future));
+
+        // Combine in order, stopping if a chunk was ended by a blank line, as the sequential parser would
+        for (Chunk chunk : chunks) {
+            if (chunk.badCellCount >= 0)
+                CSV.checkFieldCount(chunk.badCellCount, lines + chunk.rows + 1, names.length);
+            for (int i = 0; i < names.length; i++) builders[i] = builders[i].append(chunk.builders[i]);
+            lines += chunk.rows;
+            if (chunk.endedByBlankLine) break;
+        }
+        return CSV.buildFields(builders, names);
+    }
+
+    /*
+     * Find chunk boundaries; each one is just after a line end that is not in a quote.
+     * Quote state is exactly the parity of the number of quote characters seen, as a pair of quotes within a
+     * quoted cell is an escaped quote
+     */
+    static int[] chunkBoundaries(String text, int start, int parallelism) {
+        int end = text.length();
+        int chunks = Math.max(1, Math.min(parallelism * 4, (end - start) / MIN_CHUNK_SIZE));
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = start;
+        int n = 1;
+        boolean inQuote = false;
+        for (int i = start; i < end && n < chunks; i++) {
+            char c = text.charAt(i);
+            if (c == '\"')
+                inQuote = !inQuote;
+            else if (c == '\n' && !inQuote && i + 1 >= start + (long) n * (end - start) / chunks)
+                bounds[n++] = i + 1;
+        }
+        bounds[n] = end;
+        if (n == chunks) return bounds;
+        int[] result = new int[n + 1];
+        System.arraycopy(bounds, 0, result, 0, n + 1);
+        return result;
+    }
+
+    private static Chunk get(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading CSV data", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /* Parses a range of lines into its own builders */
+    private static class Chunk implements Callable<Chunk> {
+        private final String text;
+        private final int start, end;
+        private final char separator;
+        private final ColumnBuilder[] builders;
+        private int rows;                                  // Number of rows read successfully
+        private int badCellCount = -1;                     // Cell count of the first bad row, if any
+        private boolean endedByBlankLine;
+
+        Chunk(String text, int start, int end, char separator, ColumnBuilder[] types) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.separator = separator;
+            this.builders = new ColumnBuilder[types.length];
+            for (int i = 0; i < types.length; i++) builders[i] = types[i].empty();
+        }
+
+        public Chunk call() throws IOException {
+            CSVTokenizer tokenizer = new CSVTokenizer(text, start, end, separator);
+            while (tokenizer.nextRow()) {
+                if (tokenizer.cellCount() != builders.length) {
+                    badCellCount = tokenizer.cellCount();
+                    return this;
+                }
+                for (int i = 0; i < builders.length; i++) builders[i] = builders[i].add(tokenizer, i);
+                rows++;
+            }
+            endedByBlankLine = tokenizer.endedByBlankLine();
+            return this;
+        }
+    }
+}
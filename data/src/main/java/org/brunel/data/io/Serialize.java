@@ -19,15 +19,31 @@ package org.brunel.data.io;
 import org.brunel.data.Data;
 import org.brunel.data.Dataset;
 import org.brunel.data.Field;
+import org.brunel.data.values.DictionaryProvider;
+import org.brunel.data.values.Provider;
+import org.brunel.translator.JSTranslation;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
- * This class serializes data items
+ * This class serializes data items.
+ * In the current version a dataset is written as a header followed by each field as a block prefixed by its length,
+ * so fields can be skipped or decoded independently. Within a field, the distinct values are written once
+ * (numbers as IEEE-754 doubles) and each row is an index into them, packed into just enough bits for their count.
+ * The first version, which wrote every number as text, can still be read.
  */
 public class Serialize {
 
@@ -38,8 +54,11 @@ public class Serialize {
     public final static int DATE = 5;
     public final static int VERSION=6;
 
-    public final static int DATASET_VERSION_NUMBER = 1;   //Must be incremented if serialization is changed in an incompatible way
+    public final static int DATASET_VERSION_NUMBER = 2;   //Must be incremented if serialization is changed in an incompatible way
+    public final static int FIRST_VERSION_NUMBER = 1;     // Original version, with all numbers written as text
 
+    @JSTranslation(ignore = true)
+    private static final int PARALLEL_READ_SIZE = 1024 * 1024;      // Smaller data is decoded sequentially
 
     /**
      * Return a serialized version of a dataset.
@@ -54,13 +73,40 @@ public class Serialize {
         //Add versioning
         s.addByte(VERSION).addNumber(DATASET_VERSION_NUMBER);
 
-        // Basics, then each field
-        s.addByte(DATA_SET).addNumber(data.fields.length);
-        for (Field f : data.fields) addFieldToOutput(f, s);
+        // Basics, then each field as a block prefixed by its length
+        s.addByte(DATA_SET).addInt(data.fields.length);
+        for (Field f : data.fields) {
+            ByteOutput block = new ByteOutput();
+            addFieldToOutput(f, block);
+            s.addInt(block.size()).addBytes(block);
+        }
 
         return s.asBytes();
     }
 
+    /**
+     * Write a dataset to a stream, in the same format as serializeDataset(Dataset).
+     * Each field is written as it is encoded, so the whole serialized dataset is never held in memory
+     *
+     * @param data   the dataset to serialize
+     * @param stream target to write to
+     * @throws IOException if the stream fails
+     */
+    @JSTranslation(ignore = true)
+    public static void serializeDataset(Dataset data, OutputStream stream) throws IOException {
+        data = data.removeSpecialFields();
+        ByteOutput header = new ByteOutput();
+        header.addByte(VERSION).addNumber(DATASET_VERSION_NUMBER);
+        header.addByte(DATA_SET).addInt(data.fields.length);
+        header.writeTo(stream);
+        for (Field f : data.fields) {
+            ByteOutput block = new ByteOutput();
+            addFieldToOutput(f, block);
+            new ByteOutput().addInt(block.size()).writeTo(stream);
+            block.writeTo(stream);
+        }
+    }
+
     /**
      * Return a serialized version of a field.
      *
@@ -69,6 +115,7 @@ public class Serialize {
      */
     public static byte[] serializeField(Field field) {
         ByteOutput s = new ByteOutput();
+        s.addByte(VERSION).addNumber(DATASET_VERSION_NUMBER);
         addFieldToOutput(field, s);
         return s.asBytes();
     }
@@ -76,35 +123,64 @@ public class Serialize {
     private static void addFieldToOutput(Field field, ByteOutput s) {
         // Basics
         int N = field.rowCount();
-        s.addByte(FIELD).addString(field.name).addString(field.label);
-
-        // Assemble map of data to indices
-        Map<Object, Integer> items = new HashMap<Object, Integer>();
-        List<Object> uniques = new ArrayList<Object>();
-        for (int i = 0; i < N; i++) {
-            Object value = field.value(i);
-            if (!items.containsKey(value)) {
-                items.put(value, items.size());
-                uniques.add(value);
+        s.addByte(FIELD).addString(field.name).addString(field.label).addNumber(N);
+
+        // Find the distinct values and the index of each row's value in them
+        Object[] uniques;
+        int[] indices = new int[N];
+        Object[] dictionary = field.dictionary();
+        if (dictionary != null) {
+            // Already stored as codes; a null goes after the dictionary items
+            boolean hasNull = false;
+            for (int i = 0; i < N; i++) {
+                int code = field.dictionaryCode(i);
+                if (code < 0) {
+                    hasNull = true;
+                    indices[i] = dictionary.length;
+                } else {
+                    indices[i] = code;
+                }
             }
+            uniques = hasNull ? new Object[dictionary.length + 1] : dictionary;
+            if (hasNull) for (int i = 0; i < dictionary.length; i++) uniques[i] = dictionary[i];
+        } else {
+            Map<Object, Integer> items = new HashMap<Object, Integer>();
+            List<Object> found = new ArrayList<Object>();
+            for (int i = 0; i < N; i++) {
+                Object value = field.value(i);
+                Integer index = items.get(value);
+                if (index == null) {
+                    index = found.size();
+                    items.put(value, index);
+                    found.add(value);
+                }
+                indices[i] = index;
+            }
+            uniques = found.toArray(new Object[found.size()]);
         }
 
-        // Add the unique data values
-        s.addNumber(uniques.size());
-        if (field.isDate()) {
-            s.addByte(DATE);
-            for (Object o : uniques) s.addDate((Date) o);
-        } else if (field.isNumeric()) {
-            s.addByte(NUMBER);
-            for (Object o : uniques) s.addNumber((Number) o);
-        } else {
-            s.addByte(STRING);
-            for (Object o : uniques) s.addString((String) o);
+        // The type, the position of the null (if there is one) and then the other unique values
+        int type = field.isDate() ? DATE : (field.isNumeric() ? NUMBER : STRING);
+        Integer nullIndex = null;
+        for (int i = 0; i < uniques.length; i++) if (uniques[i] == null) nullIndex = i;
+        s.addByte(type).addNumber(uniques.length).addNumber(nullIndex);
+        for (Object o : uniques) {
+            if (o == null) continue;
+            if (type == DATE) s.addDouble(Data.asNumeric(o));
+            else if (type == NUMBER) s.addDouble(((Number) o).doubleValue());
+            else s.addString((String) o);
         }
 
-        // And now the values
-        s.addNumber(N);
-        for (int i = 0; i < N; i++) s.addNumber(items.get(field.value(i)));
+        // And now the row indices, using as few bits as possible
+        int bits = bitsFor(uniques.length);
+        s.addByte(bits).addPacked(indices, N, bits);
+    }
+
+    /* The number of bits needed to store indices into a list of the given size */
+    private static int bitsFor(int size) {
+        int bits = 0;
+        while (bits < 31 && (1 << bits) < size) bits++;
+        return bits;
     }
 
     public static Object deserialize(byte[] data) {
@@ -112,7 +188,233 @@ public class Serialize {
         return readFromByteInput(d);
     }
 
-    private static Object readFromByteInput(ByteInput d)  {
+    /**
+     * Read a serialized dataset or field from a stream. For the current version, only the header and one field
+     * are held in memory at a time, and the stream is not read past the end of the serialized data
+     *
+     * @param stream source of serialized bytes
+     * @return the dataset or field that was serialized
+     * @throws IOException if the stream fails
+     */
+    @JSTranslation(ignore = true)
+    public static Object deserialize(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        int first = in.read();
+        int second = first == VERSION ? in.read() : -1;
+        int third = second == DATASET_VERSION_NUMBER ? in.read() : -1;
+        if (third != DATA_SET) {
+            // Not a current dataset; read it all and decode in memory
+            ByteArrayOutputStream store = new ByteArrayOutputStream();
+            for (int b : new int[]{first, second, third}) if (b >= 0) store.write(b);
+            byte[] block = new byte[10240];
+            for (int len = in.read(block); len >= 0; len = in.read(block)) store.write(block, 0, len);
+            return deserialize(store.toByteArray());
+        }
+
+        // Read the blocks for each field and decode them, in parallel if there is enough data
+        int count = in.readInt();
+        byte[][] blocks = new byte[count][];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            blocks[i] = new byte[in.readInt()];
+            in.readFully(blocks[i]);
+            total += blocks[i].length;
+        }
+        int[] starts = new int[count];
+        ByteInput[] inputs = new ByteInput[count];
+        for (int i = 0; i < count; i++) inputs[i] = new ByteInput(blocks[i]);
+        return Dataset.make(readFields(inputs, starts, total), false);
+    }
+
+    /**
+     * Read a serialized dataset, decoding each field only when its values are first used.
+     * Only the name, label, type and row count of each field are read immediately, so a chart that uses a few
+     * fields of a wide dataset decodes only those. The bytes must not be modified afterwards.
+     * Data that is not a dataset in the current version is read immediately, as for deserialize(byte[])
+     *
+     * @param data serialized bytes
+     * @return the dataset or field that was serialized
+     */
+    @JSTranslation(ignore = true)
+    public static Object deserializeLazily(byte[] data) {
+        if (data.length < 3 || data[0] != VERSION || data[1] != DATASET_VERSION_NUMBER || data[2] != DATA_SET)
+            return deserialize(data);
+
+        ByteInput d = new ByteInput(data);
+        d.seek(3);
+        int len = d.readInt();
+        Field[] fields = new Field[len];
+        for (int i = 0; i < len; i++) {
+            int size = d.readInt();
+            int start = d.position();
+            if (d.readByte() != FIELD) throw new IllegalStateException("Expected a field at byte " + start);
+            String name = d.readString();
+            String label = d.readString();
+            int rows = d.readNumber().intValue();
+            byte type = d.readByte();
+            fields[i] = makeField(name, label, new SerializedColumn(data, d.position(), rows, type, size), type);
+            d.seek(start + size);
+        }
+        return Dataset.make(fields, false);
+    }
+
+    /**
+     * Read a serialized dataset or field from a buffer, starting at its current position.
+     * Array-backed buffers are decoded in place, without copying the bytes
+     *
+     * @param buffer source of serialized bytes
+     * @return the dataset or field that was serialized
+     */
+    @JSTranslation(ignore = true)
+    public static Object deserialize(ByteBuffer buffer) {
+        byte[] data;
+        int start;
+        if (buffer.hasArray()) {
+            data = buffer.array();
+            start = buffer.arrayOffset() + buffer.position();
+        } else {
+            data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            start = 0;
+        }
+        ByteInput d = new ByteInput(data);
+        d.seek(start);
+        return readFromByteInput(d);
+    }
+
+    private static Object readFromByteInput(ByteInput d) {
+        byte b = d.readByte();
+        if (b == VERSION) {
+            int versionNum = d.readNumber().intValue();
+            if (versionNum == FIRST_VERSION_NUMBER) return readFirstVersion(d);
+            if (versionNum != DATASET_VERSION_NUMBER) {
+                throw new IllegalStateException("Serialized version differs from current execution version");
+            }
+            b = d.readByte();
+            if (b == FIELD) return readField(d);
+            if (b != DATA_SET) throw new IllegalArgumentException("Unknown class: " + b);
+
+            // Find where each field's block starts, then skip past them all
+            int len = d.readInt();
+            int[] starts = new int[len];
+            for (int i = 0; i < len; i++) {
+                int size = d.readInt();
+                starts[i] = d.position();
+                d.seek(starts[i] + size);
+            }
+            ByteInput[] inputs = new ByteInput[len];
+            for (int i = 0; i < len; i++) inputs[i] = d;
+            return Dataset.make(readFields(inputs, starts, len == 0 ? 0 : d.position() - starts[0]), false);
+        } else {
+            // Unversioned data is in the first format
+            d.seek(d.position() - 1);
+            return readFirstVersion(d);
+        }
+    }
+
+    /*
+     * Read the field blocks, each of which starts at the given position in its input (inputs may be shared).
+     * In Java, when the blocks are large in total they are decoded in parallel
+     */
+    @JSTranslation(js = {
+            "var i, fields = [];",
+            "for (i = 0; i < inputs.length; i++) {",
+            "  inputs[i].seek(starts[i] + 1);",
+            "  fields.push($$CLASS$$.readField(inputs[i]));",
+            "}",
+            "return fields;"
+    })
+    private static Field[] readFields(final ByteInput[] inputs, final int[] starts, long size) {
+        Field[] fields = new Field[inputs.length];
+        if (size < PARALLEL_READ_SIZE || inputs.length < 2) {
+            for (int i = 0; i < inputs.length; i++) fields[i] = readFieldAt(inputs[i], starts[i]);
+            return fields;
+        }
+
+        List<Callable<Field>> tasks = new ArrayList<Callable<Field>>();
+        for (int i = 0; i < inputs.length; i++) {
+            final int index = i;
+            tasks.add(new Callable<Field>() {
+                public Field call() {
+                    return readFieldAt(inputs[index], starts[index]);
+                }
+            });
+        }
+        List<Future<Field>> results = ParallelCSV.pool().invokeAll(tasks);
+        for (int i = 0; i < fields.length; i++) fields[i] = get(results.get(i));
+        return fields;
+    }
+
+    @JSTranslation(ignore = true)
+    private static Field get(Future<Field> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading serialized data", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /* Reads a field block starting at the given position, using a separate reader so blocks may share data */
+    @JSTranslation(ignore = true)
+    private static Field readFieldAt(ByteInput source, int start) {
+        ByteInput d = source.copy();
+        d.seek(start + 1);          // Skip the FIELD marker
+        return readField(d);
+    }
+
+    /* Reads the contents of a field block, after the FIELD marker */
+    private static Field readField(ByteInput d) {
+        String name = d.readString();
+        String label = d.readString();
+        int rows = d.readNumber().intValue();
+        byte b = d.readByte();
+        return makeField(name, label, readColumn(d, rows, b), b);
+    }
+
+    /* Reads the values of a field block, which follow the type */
+    static Provider readColumn(ByteInput d, int rows, int b) {
+        // Number of unique values, then where the null is, and the non-null unique values
+        Number unique = d.readNumber();
+        if (unique == null) throw new IllegalStateException("Missing unique value count for field");
+        int uniqueCount = unique.intValue();
+        Number nullIndex = d.readNumber();
+        Object[] items = new Object[uniqueCount];
+        for (int i = 0; i < uniqueCount; i++) {
+            if (nullIndex != null && i == nullIndex.intValue()) continue;
+            if (b == NUMBER)
+                items[i] = d.readDouble();
+            else if (b == STRING)
+                items[i] = d.readString();
+            else if (b == DATE)
+                items[i] = Data.asDate(d.readDouble());
+            else
+                throw new IllegalStateException("Unknown column type " + b);
+        }
+
+        // Row indices, packed into bits
+        int bits = d.readByte();
+        int[] indices = d.readPacked(rows, bits);
+        if (nullIndex != null) {
+            int n = nullIndex.intValue();
+            for (int i = 0; i < rows; i++) if (indices[i] == n) indices[i] = -1;
+        }
+        return DictionaryProvider.makeIndexed(items, indices);
+    }
+
+    private static Field makeField(String name, String label, Provider provider, int type) {
+        Field field = new Field(name, label, provider);
+        if (type == NUMBER || type == DATE) field.set("numeric", true);
+        if (type == DATE) field.set("date", true);
+        return field;
+    }
+
+    /* Reads data in the first version of the format, where numbers were written as text */
+    private static Object readFirstVersion(ByteInput d) {
         byte b = d.readByte();
         if (b == FIELD) {
             // Fields have name, label, and the rows of data
@@ -140,27 +442,14 @@ public class Serialize {
             int len = d.readNumber().intValue();
             int[] indices = new int[len];
             for (int i=0; i<len; i++) indices[i] = d.readNumber().intValue();
-            Field field = Data.makeIndexedColumnField(name, label, items, indices);
-
-            if (b == NUMBER || b == DATE) field.set("numeric", true);
-            if (b == DATE) field.set("date", true);
-
-            return field;
+            return makeField(name, label, DictionaryProvider.makeIndexed(items, indices), b);
         } else if (b == DATA_SET) {
             // Dataset consists of fields
             int len = d.readNumber().intValue();
             Field[] fields = new Field[len];
-            for (int i = 0; i < len; i++) fields[i] = (Field) readFromByteInput(d);
+            for (int i = 0; i < len; i++) fields[i] = (Field) readFirstVersion(d);
             return Dataset.make(fields, false);     // No need to autoconvert
-        }
-        else if (b == VERSION) {
-        	int versionNum = d.readNumber().intValue();
-        	if (versionNum != DATASET_VERSION_NUMBER ) {
-        		throw new IllegalStateException("Serialized version differs from current execution version");
-        	}
-        	return readFromByteInput(d);
-        }
-        else {
+        } else {
             throw new IllegalArgumentException("Unknown class: " + b);
         }
     }
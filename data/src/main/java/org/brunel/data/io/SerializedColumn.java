@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.io;
+
+import org.brunel.data.values.LazyProvider;
+import org.brunel.data.values.Provider;
+import org.brunel.translator.JSTranslation;
+
+/**
+ * The values of a serialized field, which are decoded from the serialized bytes when first used
+ */
+@JSTranslation(ignore = true)
+class SerializedColumn extends LazyProvider {
+
+    private byte[] data;                        // Serialized bytes; released when decoded
+    private final int start;                    // Where the values start
+    private final int type;                     // Serialized type of the values
+
+    SerializedColumn(byte[] data, int start, int rows, int type, int size) {
+        super(rows, size);
+        this.data = data;
+        this.start = start;
+        this.type = type;
+    }
+
+    protected Provider decode() {
+        ByteInput d = new ByteInput(data);
+        d.seek(start);
+        Provider provider = Serialize.readColumn(d, count(), type);
+        data = null;
+        return provider;
+    }
+}
@@ -62,9 +62,9 @@ public class ConvertSeries extends DataOperation {
 
         int N = base.rowCount();            // The rows in the original data
 
+        // The fields are stacked views onto the original data, so nothing is copied
         Field series = makeSeries(yFields, N);
-        Field values = makeValues(yFields, base, N);
-        int[] indexing = makeIndexing(yFields.length, N);
+        Field values = makeValues(yFields, base);
 
         List<Field> resultFields = new ArrayList<Field>();
         resultFields.add(series);
@@ -73,7 +73,7 @@ public class ConvertSeries extends DataOperation {
             // The special fields have already been added
             if (fieldName.equals("#series") || fieldName.equals("#values")) continue;
             Field f = base.field(fieldName);
-            resultFields.add(Data.permute(f, indexing, false));
+            resultFields.add(makeRepeated(f, yFields.length));
         }
 
         Field[] fields = resultFields.toArray(new Field[resultFields.size()]);
@@ -91,33 +91,30 @@ public class ConvertSeries extends DataOperation {
     }
 
     private static Field makeSeries(String[] names, int reps) {
-        // Make a block that looks like 0,0,0,0,   1,1,1,1,   2,2,2,2   (for a dataset with four rows, three names)
-        Field temp = Data.makeColumnField("#series", "Series", names);
-        int[] blocks = new int[names.length * reps];
+        // Looks like a,a,a,a,   b,b,b,b,   c,c,c,c   (for a dataset with four rows, three names)
+        Field[] blocks = new Field[names.length];
         for (int i = 0; i < names.length; i++)
-            for (int j = 0; j < reps; j++) blocks[i * reps + j] = i;
-        Field field = Data.permute(temp, blocks, false);
+            blocks[i] = Data.makeConstantField("#series", "Series", names[i], reps);
+        Field field = Data.makeStackedField("#series", "Series", blocks);
         field.setCategories(names);
         return field;
     }
 
-    private static Field makeValues(String[] yNames, Dataset base, int n) {
+    private static Field makeValues(String[] yNames, Dataset base) {
         Field[] y = new Field[yNames.length];
         for (int i = 0; i < y.length; i++) y[i] = base.field(yNames[i]);
-        Object[] data = new Object[y.length * n];
-        for (int i = 0; i < y.length; i++)
-            for (int j = 0; j < n; j++) data[i * n + j] = y[i].value(j);
-        Field field = Data.makeColumnField("#values", Data.join(yNames), data);
+        Field field = Data.makeStackedField("#values", Data.join(yNames), y);
         Data.copyBaseProperties(field, y[0]);  // Should use the numeric and date properties
         return field;
     }
 
-    private static int[] makeIndexing(int m, int reps) {
-        // Make a block that looks like 0,1,2,3   0,1,2,3,   0,1,2,3   (for a dataset with four rows, three names)
-        int[] blocks = new int[m * reps];
-        for (int i = 0; i < m; i++)
-            for (int j = 0; j < reps; j++) blocks[i * reps + j] = j;
-        return blocks;
+    private static Field makeRepeated(Field f, int m) {
+        // Looks like 0,1,2,3   0,1,2,3,   0,1,2,3   (for a dataset with four rows, three names)
+        Field[] blocks = new Field[m];
+        for (int i = 0; i < m; i++) blocks[i] = f;
+        Field field = Data.makeStackedField(f.name, f.label, blocks);
+        Data.copyBaseProperties(field, f);
+        return field;
     }
 
 }
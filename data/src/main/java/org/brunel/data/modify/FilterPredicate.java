@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.modify;
+
+import org.brunel.data.Data;
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+
+/**
+ * A single filter command, compiled against a field so it can be tested against a whole column at once.
+ * The command is parsed once; the work needed per row is then reduced to the cheapest test the field allows:
+ * a lookup of the dictionary code in a table of passing codes, a primitive comparison of the numeric value,
+ * or (only for unusual data) a general comparison of the value objects.
+ *
+ * Missing values always fail the test, whether or not it is negated.
+ */
+final class FilterPredicate {
+
+    private static final int VALID = 1, IS = 2, IN = 3, RANKED = 4;
+
+    /**
+     * Parse a single command of the form "FIELD [!]type params"
+     *
+     * @param base    data set containing the field
+     * @param command command to compile
+     * @return compiled predicate
+     */
+    static FilterPredicate make(Dataset base, String command) {
+        String c = command.trim();
+        int p = c.indexOf(" ");
+        int q = c.indexOf(" ", p + 1);
+        if (q < 0) q = c.length();
+        Field field = base.field(c.substring(0, p).trim());
+        int t = getType(c.substring(p, q).trim());
+        Object[] par = getParams(c.substring(q).trim(), field.preferCategorical());
+        if (t == RANKED || t == -RANKED) {
+            // Convert the parameters to objects at the requested edge points and then use "in"
+            par = getRankedObjects(field, Data.asNumeric(par[0]), Data.asNumeric(par[1]));
+            t = t < 0 ? -IN : IN;
+        }
+        return new FilterPredicate(field, t, par);
+    }
+
+    private final Field field;
+    private final int type;                 // Always positive; negation is held separately
+    private final boolean negated;
+    private final Object[] params;
+
+    private boolean[] codePass;             // For dictionary fields, whether each code passes
+    private double[] numbers;               // For numeric tests, the parameters as primitives
+
+    private FilterPredicate(Field field, int type, Object[] params) {
+        this.field = field;
+        this.type = type < 0 ? -type : type;
+        this.negated = type < 0;
+        this.params = params;
+
+        Object[] dictionary = field.dictionary();
+        if (dictionary != null) {
+            // Test each dictionary item once; the "is" list becomes the set of codes that match
+            codePass = new boolean[dictionary.length];
+            for (int i = 0; i < dictionary.length; i++)
+                codePass[i] = passes(dictionary[i]);
+        } else if (this.type != VALID && field.isNumeric() && !field.isDate() && !field.isBinned()) {
+            // Numeric data can be tested with primitive comparisons if the parameters are all numbers
+            double[] d = new double[params.length];
+            for (int i = 0; i < d.length; i++) {
+                if (!(params[i] instanceof Number)) return;
+                d[i] = ((Number) params[i]).doubleValue();
+                if (Double.isNaN(d[i])) return;
+            }
+            numbers = d;
+        }
+    }
+
+    /**
+     * Clear the flags for any rows that fail this test
+     *
+     * @param keep flags for the rows still being kept; rows already cleared are not re-tested
+     * @return the number of rows that are still kept
+     */
+    int restrict(boolean[] keep) {
+        if (codePass != null) return restrictByCode(keep);
+        if (type == VALID) return restrictToValid(keep);
+        if (numbers != null) return restrictByNumber(keep);
+        return restrictByValue(keep);
+    }
+
+    private int restrictByCode(boolean[] keep) {
+        int n = 0;
+        for (int row = 0; row < keep.length; row++) {
+            if (!keep[row]) continue;
+            int code = field.dictionaryCode(row);
+            if (code < 0 || !codePass[code]) keep[row] = false;
+            else n++;
+        }
+        return n;
+    }
+
+    private int restrictToValid(boolean[] keep) {
+        int n = 0;
+        for (int row = 0; row < keep.length; row++) {
+            if (!keep[row]) continue;
+            // Negating "valid" removes everything, as missing values always fail
+            if (negated || field.value(row) == null) keep[row] = false;
+            else n++;
+        }
+        return n;
+    }
+
+    private int restrictByNumber(boolean[] keep) {
+        boolean range = type == IN;
+        double low = range ? numbers[0] : 0, high = range ? numbers[1] : 0;
+        int n = 0;
+        for (int row = 0; row < keep.length; row++) {
+            if (!keep[row]) continue;
+            double v = field.numericValue(row);
+            boolean pass;
+            if (Double.isNaN(v)) {
+                // Missing, or a value that is not a simple number; use the general test
+                Object o = field.value(row);
+                pass = o != null && passes(o);
+            } else if (range) {
+                pass = (v >= low && v <= high) != negated;
+            } else {
+                pass = matchesNumber(v) != negated;
+            }
+            if (pass) n++;
+            else keep[row] = false;
+        }
+        return n;
+    }
+
+    private int restrictByValue(boolean[] keep) {
+        int n = 0;
+        for (int row = 0; row < keep.length; row++) {
+            if (!keep[row]) continue;
+            Object o = field.value(row);
+            if (o != null && passes(o)) n++;
+            else keep[row] = false;
+        }
+        return n;
+    }
+
+    private boolean matchesNumber(double v) {
+        for (double d : numbers) if (v == d) return true;
+        return false;
+    }
+
+    /* Test a non-null value */
+    private boolean passes(Object v) {
+        boolean bad = false;
+        if (type == IS)
+            bad = !matchAny(v, params);
+        else if (type == IN)
+            bad = Data.compare(v, params[0]) < 0 || Data.compare(v, params[1]) > 0;
+        return negated == bad;
+    }
+
+    private static boolean matchAny(Object v, Object[] params) {
+        for (Object p : params) if (Data.compare(v, p) == 0) return true;
+        return false;
+    }
+
+    /*
+     * Get the object that are at the indicated positions for the field, by rank.
+     * This needs two order statistics, so we avoid sorting the data unless it has already been done
+     */
+    private static Object[] getRankedObjects(Field field, double p1, double p2) {
+        int[] sorted = field.isNumeric() ? field.cachedSortedNumericRows() : null;
+        if (sorted != null) {
+            // Use the field's sorted order; missing values are at the end
+            int N = sorted.length;
+            while (N > 0 && field.isNull(sorted[N - 1])) N--;
+            if (N == 0) return new Object[]{null, null};
+            int a = Math.min(Math.max(1, (int) p1), N);
+            int b = Math.min(Math.max(1, (int) p2), N);
+            return new Object[]{field.value(sorted[N - b]), field.value(sorted[N - a])};
+        }
+
+        if (field.dictionary() != null) return getRankedCodes(field, p1, p2);
+
+        // Gather the non-null values, as primitives if possible
+        int n = field.rowCount();
+        int[] rows = new int[n];
+        double[] keys = field.isNumeric() && !field.isBinned() ? new double[n] : null;
+        int N = 0;
+        for (int i = 0; i < n; i++) {
+            if (field.isNull(i)) continue;
+            if (keys != null) {
+                keys[N] = field.numericValue(i);
+                if (Double.isNaN(keys[N])) keys = null;         // Not a simple number; use the values
+            }
+            rows[N++] = i;
+        }
+        if (N == 0) return new Object[]{null, null};
+
+        int a = Math.min(Math.max(1, (int) p1), N);
+        int b = Math.min(Math.max(1, (int) p2), N);
+        if (keys != null) {
+            int low = selectNumeric(keys, rows, N, N - b);
+            int high = selectNumeric(keys, rows, N, N - a);
+            return new Object[]{field.value(low), field.value(high)};
+        }
+
+        Object[] d = new Object[N];
+        for (int i = 0; i < N; i++) d[i] = field.value(rows[i]);
+        Object low = selectObject(d, N, N - b);
+        Object high = selectObject(d, N, N - a);
+        return new Object[]{low, high};
+    }
+
+    /* The dictionary is sorted, so we only need to count how many rows use each code */
+    private static Object[] getRankedCodes(Field field, double p1, double p2) {
+        Object[] dictionary = field.dictionary();
+        int[] counts = new int[dictionary.length];
+        int n = field.rowCount(), N = 0;
+        for (int i = 0; i < n; i++) {
+            int code = field.dictionaryCode(i);
+            if (code >= 0) {
+                counts[code]++;
+                N++;
+            }
+        }
+        if (N == 0) return new Object[]{null, null};
+
+        int a = Math.min(Math.max(1, (int) p1), N);
+        int b = Math.min(Math.max(1, (int) p2), N);
+        return new Object[]{dictionary[codeAtPosition(counts, N - b)], dictionary[codeAtPosition(counts, N - a)]};
+    }
+
+    private static int codeAtPosition(int[] counts, int k) {
+        int code = 0;
+        for (int seen = counts[0]; seen <= k; seen += counts[code]) code++;
+        return code;
+    }
+
+    /*
+     * Rearranges keys[0, n) (and the rows alongside them) so the k-th smallest key is at index k,
+     * and returns the row for that key
+     */
+    private static int selectNumeric(double[] keys, int[] rows, int n, int k) {
+        int low = 0, high = n - 1;
+        while (high > low) {
+            // Median of three pivot
+            int mid = (int) ((low + high) / 2);
+            if (keys[mid] < keys[low]) swap(keys, rows, low, mid);
+            if (keys[high] < keys[low]) swap(keys, rows, low, high);
+            if (keys[high] < keys[mid]) swap(keys, rows, mid, high);
+            double pivot = keys[mid];
+
+            int i = low, j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) swap(keys, rows, i++, j--);
+            }
+            if (k <= j) high = j;
+            else if (k >= i) low = i;
+            else break;
+        }
+        return rows[k];
+    }
+
+    private static void swap(double[] keys, int[] rows, int i, int j) {
+        double t = keys[i];
+        keys[i] = keys[j];
+        keys[j] = t;
+        int r = rows[i];
+        rows[i] = rows[j];
+        rows[j] = r;
+    }
+
+    /* As selectNumeric, but for general values using the standard comparison */
+    private static Object selectObject(Object[] data, int n, int k) {
+        int low = 0, high = n - 1;
+        while (high > low) {
+            int mid = (int) ((low + high) / 2);
+            if (Data.compare(data[mid], data[low]) < 0) swapObjects(data, low, mid);
+            if (Data.compare(data[high], data[low]) < 0) swapObjects(data, low, high);
+            if (Data.compare(data[high], data[mid]) < 0) swapObjects(data, mid, high);
+            Object pivot = data[mid];
+
+            int i = low, j = high;
+            while (i <= j) {
+                while (Data.compare(data[i], pivot) < 0) i++;
+                while (Data.compare(data[j], pivot) > 0) j--;
+                if (i <= j) swapObjects(data, i++, j--);
+            }
+            if (k <= j) high = j;
+            else if (k >= i) low = i;
+            else break;
+        }
+        return data[k];
+    }
+
+    private static void swapObjects(Object[] data, int i, int j) {
+        Object t = data[i];
+        data[i] = data[j];
+        data[j] = t;
+    }
+
+    private static int getType(String s) {
+        // Negated form
+        if (s.startsWith("!")) return -getType(s.substring(1).trim());
+
+        if (s.equals("valid")) return VALID;
+        if (s.equals("is")) return IS;
+        if (s.equals("in")) return IN;
+        if (s.equals("ranked")) return RANKED;
+        throw new IllegalArgumentException("Cannot use filter command " + s);
+    }
+
+    private static Object[] getParams(String s, boolean categorical) {
+        String[] parts = s.split(",");
+        Object[] result = new Object[parts.length];
+        for (int i = 0; i < result.length; i++) {
+            if (categorical) result[i] = parts[i].trim();
+            else result[i] = Data.asNumeric(parts[i].trim());
+        }
+        return result;
+    }
+
+}
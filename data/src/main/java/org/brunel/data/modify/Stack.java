@@ -23,7 +23,6 @@ import org.brunel.data.summary.FieldRowComparison;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -222,19 +221,24 @@ public class Stack extends DataOperation {
     private static Field[] orderRows(Dataset base, Field[] keyFields) {
         Field[] baseFields = base.fields;
         FieldRowComparison comparison = new FieldRowComparison(keyFields, null, true);
-        List<Integer> items = new ArrayList<Integer>();
         int n = base.rowCount();
+        int[] rowOrder = new int[n];
+        int count = 0;
         for (int i = 0; i < n; i++) {
             boolean valid = true;
-            for (Field f : keyFields) if (f.value(i) == null) valid = false;
-            if (valid) items.add(i);
+            for (Field f : keyFields) if (f.isNull(i)) valid = false;
+            if (valid) rowOrder[count++] = i;
         }
-        Collections.sort(items, comparison);
-        Integer[] rowOrder = items.toArray(new Integer[items.size()]);
+        if (count < n) {
+            int[] valid = new int[count];
+            for (int i = 0; i < count; i++) valid[i] = rowOrder[i];
+            rowOrder = valid;
+        }
+        comparison.sortRows(rowOrder);
 
         Field[] fields = new Field[baseFields.length];
         for (int i = 0; i < baseFields.length; i++)
-            fields[i] = Data.permute(baseFields[i], Data.toPrimitive(rowOrder), true);
+            fields[i] = Data.permute(baseFields[i], rowOrder, true);
         return fields;
     }
 
@@ -21,12 +21,16 @@ import org.brunel.data.Dataset;
 import org.brunel.data.Field;
 import org.brunel.data.summary.DimensionField;
 import org.brunel.data.summary.FieldRowComparison;
+import org.brunel.data.summary.Fit;
+import org.brunel.data.summary.MeasureAccumulator;
 import org.brunel.data.summary.MeasureField;
 import org.brunel.data.summary.SummaryValues;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Performs aggregation by defining a set of summarization commands:
@@ -101,6 +105,7 @@ public class Summarize extends DataOperation {
     private final List<DimensionField> dimensions;
     private final List<Field> percentBase;
     private final boolean percentNeeded;
+    private final boolean fitNeeded;
     private final int rowCount;
 
     public Summarize(List<MeasureField> measures, List<DimensionField> dimensions, List<Field> percentBase, int rowCount) {
@@ -112,6 +117,10 @@ public class Summarize extends DataOperation {
         boolean percentNeeded = false;
         for (MeasureField m : measures) if (m.isPercent()) percentNeeded = true;
         this.percentNeeded = percentNeeded;
+
+        boolean fitNeeded = false;
+        for (MeasureField m : measures) if (m.isFit()) fitNeeded = true;
+        this.fitNeeded = fitNeeded;
     }
 
     private Field[] make() {
@@ -127,51 +136,84 @@ public class Summarize extends DataOperation {
 
         // group[row] gives the index of the summary group for row 'row'; 'groupCount' is the number of groups
         int[] group = new int[rowCount];
-        int groupCount = makeGroups(group, dimComparison);
+        int groupCount = makeGroups(group, dimensionFields, dimComparison);
 
         // These are just like the summary groups, but only for the percent bases
         // The percent groups nest within each base group: rows with the same group have the same summary group also
         // we do not create these if they are not needed, for efficiency
         int[] percentGroup = percentNeeded ? new int[rowCount] : null;
-        int percentGroupCount = percentNeeded ? makeGroups(percentGroup, percentBaseComparison) : 0;
+        int percentGroupCount = percentNeeded ? makeGroups(percentGroup, percentBaseFields, percentBaseComparison) : 0;
 
-        // Create the summary values for each group, and percentage sums
-        SummaryValues[] summaries = new SummaryValues[groupCount];
-        for (int i = 0; i < summaries.length; i++)
-            summaries[i] = new SummaryValues(measureFields, percentBaseFields, dimensionFields);
-        double[][] percentSums = new double[percentGroupCount][measureFields.length];
+        // The rows for each group, in their original order
+        int[][] groupRows = partitionRows(group, groupCount);
 
-        // Perform the Aggregation
-        for (int row = 0; row < rowCount; row++) {
-            SummaryValues value = summaries[group[row]];
-            if (percentNeeded) {
-                // If the group has not had percent sums set yet, then set it
-                if (value.percentSums == null) value.percentSums = percentSums[percentGroup[row]];
-                // Then add the values to the percentage count
-                for (int i = 0; i < measureFields.length; i++) {
-                    if (measures.get(i).isPercent()) {
-                        Double v = Data.asNumeric(measureFields[i].value(row));
-                        if (v != null) value.percentSums[i] += v;
+        // Fits are made for groups defined by the dimensions that are not the 'x' fields (the percent bases)
+        // All summary groups within a fit group share the fit, and the rows to calculate it from
+        int[] fitGroup = null;
+        int[][] fitGroupRows = null;
+        if (fitNeeded) {
+            Field[] fitFields = getFitFields(dimensionFields, percentBaseFields);
+            fitGroup = new int[rowCount];
+            int fitGroupCount = makeGroups(fitGroup, fitFields, new FieldRowComparison(fitFields, null, false));
+            fitGroupRows = partitionRows(fitGroup, fitGroupCount);
+            for (MeasureField m : measures) if (m.isFit()) m.fits = new Fit[fitGroupCount];
+        }
+
+        // Sum the values for percentages within each percentage base group
+        double[][] percentSums = new double[percentGroupCount][measureFields.length];
+        if (percentNeeded) {
+            for (int i = 0; i < measureFields.length; i++) {
+                if (!measures.get(i).isPercent()) continue;
+                Field f = measureFields[i];
+                for (int row = 0; row < rowCount; row++) {
+                    double v = f.numericValue(row);
+                    if (Double.isNaN(v)) {
+                        // Values like ranges may still have a numeric value
+                        Double d = f.isNull(row) ? null : Data.asNumeric(f.value(row));
+                        if (d == null) continue;
+                        v = d;
                     }
+                    percentSums[percentGroup[row]][i] += v;
                 }
             }
-            // Add the current row to that group, with the relevant 'sums' for percentages
-            value.rows.add(row);
+        }
+
+        // Accumulate the simple statistics for all groups in a single pass; others are calculated group by group
+        MeasureAccumulator[] accumulators = new MeasureAccumulator[measures.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            MeasureField m = measures.get(i);
+            if (MeasureAccumulator.handles(m.measureFunction) && (m.field != null || m.measureFunction.equals("count")))
+                accumulators[i] = MeasureAccumulator.make(m.field, group, groupCount);
         }
 
         Object[][] dimData = new Object[dimensions.size()][groupCount];
         Object[][] measureData = new Object[measures.size()][groupCount];
 
         for (int g = 0; g < groupCount; g++) {
-            SummaryValues values = summaries[g];
-            int originalRow = values.firstRow();
+            int[] rows = groupRows[g];
+            int originalRow = rows[0];
+            double[] groupPercentSums = percentNeeded ? percentSums[percentGroup[originalRow]] : null;
+            SummaryValues values = null;
             // Set the dimension values
             for (int i = 0; i < dimensions.size(); i++)
                 dimData[i][g] = dimensionFields[i].value(originalRow);
             // Set the measure values
             for (int i = 0; i < measures.size(); i++) {
                 MeasureField m = measures.get(i);
-                measureData[i][g] = values.get(i, m);
+                if (accumulators[i] != null) {
+                    double percentSum = groupPercentSums == null ? 0 : groupPercentSums[i];
+                    measureData[i][g] = accumulators[i].get(g, m, rows, percentSum);
+                } else {
+                    if (values == null) {
+                        values = new SummaryValues(measureFields, percentBaseFields, rows);
+                        values.percentSums = groupPercentSums;
+                        if (fitNeeded) {
+                            values.fitGroup = fitGroup[originalRow];
+                            values.fitRows = fitGroupRows[values.fitGroup];
+                        }
+                    }
+                    measureData[i][g] = values.get(i, m);
+                }
             }
         }
 
@@ -199,7 +241,14 @@ public class Summarize extends DataOperation {
         return result;
     }
 
-    private int makeGroups(int[] group, FieldRowComparison dimComparison) {
+    private int makeGroups(int[] group, Field[] fields, FieldRowComparison dimComparison) {
+        if (makeGroupsFromCodes(group, fields)) return countGroups(group);
+        int groupCount = makeGroupsByHashing(group, fields);
+        if (groupCount < 0) return makeGroupsBySorting(group, dimComparison);
+        return orderGroups(group, groupCount, dimComparison);
+    }
+
+    private int makeGroupsBySorting(int[] group, FieldRowComparison dimComparison) {
         int[] order = dimComparison.makeSortedOrder(rowCount);
         int currentGroup = 0;
         for (int i = 0; i < group.length; i++) {
@@ -211,6 +260,158 @@ public class Summarize extends DataOperation {
         return currentGroup + 1;
     }
 
+    /*
+     * Give each distinct combination of values a group number, in the order they are first seen.
+     * Each field's values are first given an integer id, and the ids combined into a single key, which is hashed.
+     * Returns -1 if the combined keys are too large to use, in which case the group array is unchanged
+     */
+    private int makeGroupsByHashing(int[] group, Field[] fields) {
+        // Create ids for each field's values; zero is used for nulls
+        int[][] ids = new int[fields.length][];
+        int[] sizes = new int[fields.length];
+        double keyCount = 1;
+        for (int i = 0; i < fields.length; i++) {
+            ids[i] = new int[rowCount];
+            sizes[i] = makeValueIds(fields[i], ids[i]);
+            keyCount *= sizes[i];
+        }
+        if (keyCount > Integer.MAX_VALUE) return -1;
+
+        // Open addressing hash table from key to group
+        int capacity = 16;
+        while (capacity < 2 * rowCount) capacity *= 2;
+        int[] keys = new int[capacity];
+        int[] groups = new int[capacity];
+        for (int i = 0; i < capacity; i++) groups[i] = -1;
+
+        int groupCount = 0;
+        for (int row = 0; row < rowCount; row++) {
+            int key = 0;
+            for (int i = 0; i < fields.length; i++) key = key * sizes[i] + ids[i][row];
+            int slot = (key ^ (key >>> 16)) & (capacity - 1);
+            while (groups[slot] >= 0 && keys[slot] != key) slot = (slot + 1) & (capacity - 1);
+            if (groups[slot] < 0) {
+                keys[slot] = key;
+                groups[slot] = groupCount++;
+            }
+            group[row] = groups[slot];
+        }
+        return groupCount;
+    }
+
+    /* Sets an id for each row's value and returns the number of ids used */
+    private int makeValueIds(Field field, int[] ids) {
+        if (field.dictionary() != null) {
+            for (int row = 0; row < rowCount; row++) ids[row] = field.dictionaryCode(row) + 1;
+            return field.dictionary().length + 1;
+        }
+        Map<Object, Integer> index = new HashMap<Object, Integer>();
+        for (int row = 0; row < rowCount; row++) {
+            Object value = field.value(row);
+            if (value == null) continue;
+            Integer id = index.get(value);
+            if (id == null) {
+                id = index.size() + 1;
+                index.put(value, id);
+            }
+            ids[row] = id;
+        }
+        return index.size() + 1;
+    }
+
+    /*
+     * Renumber the groups so they are in the order defined by the comparison.
+     * Groups whose values compare as equal (but were hashed differently) are merged
+     */
+    private int orderGroups(int[] group, int groupCount, FieldRowComparison dimComparison) {
+        // The first row of each group represents the group; these are in group order
+        int[] representative = new int[groupCount];
+        int found = 0;
+        for (int row = 0; row < rowCount && found < groupCount; row++)
+            if (group[row] == found) representative[found++] = row;
+
+        int[] order = new int[groupCount];
+        for (int i = 0; i < groupCount; i++) order[i] = representative[i];
+        dimComparison.sortRows(order);
+
+        int[] index = new int[groupCount];
+        int currentGroup = 0;
+        for (int i = 0; i < groupCount; i++) {
+            if (i > 0 && dimComparison.compare(order[i], order[i - 1]) != 0)
+                currentGroup++;
+            index[group[order[i]]] = currentGroup;
+        }
+        for (int row = 0; row < rowCount; row++) group[row] = index[group[row]];
+        return currentGroup + 1;
+    }
+
+    /*
+     * When all the fields are dictionary-encoded, combine the ranks of the codes into a single key for each row.
+     * Keys are in the same order as the comparison, so the groups are numbered in the same order as the sorting method.
+     * Returns false if this cannot be used, in which case the group array is unchanged
+     */
+    private boolean makeGroupsFromCodes(int[] group, Field[] fields) {
+        int[][] ranks = new int[fields.length][];
+        int[] sizes = new int[fields.length];
+        double keyCount = 1;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].dictionary() == null) return false;
+            ranks[i] = fields[i].dictionaryRanks();
+            sizes[i] = 1;                                           // The last rank is for nulls
+            for (int r : ranks[i]) sizes[i] = Math.max(sizes[i], r + 2);
+            keyCount *= sizes[i];
+        }
+        if (keyCount > Math.max(rowCount, 1024)) return false;      // Too sparse to use as an index
+
+        for (int row = 0; row < rowCount; row++) {
+            int key = 0;
+            for (int i = 0; i < fields.length; i++) {
+                int code = fields[i].dictionaryCode(row);
+                key = key * sizes[i] + (code < 0 ? sizes[i] - 1 : ranks[i][code]);
+            }
+            group[row] = key;
+        }
+        return true;
+    }
+
+    /* Replace keys by the group numbers, numbered in key order */
+    private int countGroups(int[] group) {
+        int max = 0;
+        for (int g : group) max = Math.max(max, g);
+        int[] index = new int[max + 1];
+        for (int g : group) index[g] = 1;
+        int count = 0;
+        for (int i = 0; i < index.length; i++)
+            if (index[i] > 0) index[i] = count++;
+        for (int i = 0; i < group.length; i++) group[i] = index[group[i]];
+        return count;
+    }
+
+    /* Split the rows into an array for each group, keeping rows within a group in their original order */
+    private int[][] partitionRows(int[] group, int groupCount) {
+        int[] counts = new int[groupCount];
+        for (int g : group) counts[g]++;
+        int[][] rows = new int[groupCount][];
+        for (int g = 0; g < groupCount; g++) rows[g] = new int[counts[g]];
+        int[] next = new int[groupCount];
+        for (int row = 0; row < group.length; row++) {
+            int g = group[row];
+            rows[g][next[g]++] = row;
+        }
+        return rows;
+    }
+
+    /* The dimensions that are not 'x' fields */
+    private Field[] getFitFields(Field[] dimensionFields, Field[] xFields) {
+        List<Field> result = new ArrayList<Field>();
+        for (Field f : dimensionFields) {
+            boolean isGroup = true;
+            for (Field x : xFields) if (x == f) isGroup = false;
+            if (isGroup) result.add(f);
+        }
+        return result.toArray(new Field[result.size()]);
+    }
+
     /* Copy the relevant detail over and set properties */
     private void setProperties(Field to, Field from, String summary) {
         if (summary == null || summary.equals("mode"))
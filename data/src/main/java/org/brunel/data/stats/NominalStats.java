@@ -29,27 +29,42 @@ public class NominalStats {
     public static void populate(Field f) {
         // Create map of counts
         Map<Object, Integer> count = new HashMap<Object, Integer>();
-        Set<Object> modes = new HashSet<Object>();
         int N = f.rowCount();
 
-        int maxCount = 0;
         int valid = 0;
-        for (int i = 0; i < N; i++) {
-            Object o = f.value(i);
-            if (o == null) continue;
-            valid++;
-            Integer c = count.get(o);
-            int value = c == null ? 1 : c + 1;
-            count.put(o, value);
+        Object[] dictionary = f.dictionary();
+        if (dictionary != null) {
+            // Count the codes, and then convert to the values
+            int[] codeCounts = new int[dictionary.length];
+            for (int i = 0; i < N; i++) {
+                int code = f.dictionaryCode(i);
+                if (code >= 0) codeCounts[code]++;
+            }
+            for (int i = 0; i < dictionary.length; i++) {
+                if (codeCounts[i] == 0) continue;
+                count.put(dictionary[i], codeCounts[i]);
+                valid += codeCounts[i];
+            }
+        } else {
+            for (int i = 0; i < N; i++) {
+                Object o = f.value(i);
+                if (o == null) continue;
+                valid++;
+                Integer c = count.get(o);
+                count.put(o, c == null ? 1 : c + 1);
+            }
+        }
 
-            // Check for mode -- if this is more numerous than the rest, clear the list of modes
-            // If at least as numerous, add the item to the list of modes
+        // The modes are all the items with the largest count
+        Set<Object> modes = new HashSet<Object>();
+        int maxCount = 0;
+        for (Object o : count.keySet()) {
+            int value = count.get(o);
             if (value > maxCount) modes.clear();
             if (value >= maxCount) {
                 modes.add(o);
                 maxCount = value;
             }
-
         }
 
         f.set("n", N);
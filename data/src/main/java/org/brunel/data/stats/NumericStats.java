@@ -18,57 +18,95 @@ package org.brunel.data.stats;
 
 import org.brunel.data.Data;
 import org.brunel.data.Field;
+import org.brunel.data.summary.FieldRowComparison;
 import org.brunel.data.util.Range;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
+/**
+ * Numeric statistics are calculated in two tiers. The moments, minimum and maximum need a single pass through the data.
+ * The order statistics need the data sorted, so are only calculated when one of them is asked for.
+ */
 public class NumericStats {
 
+    /**
+     * Calculate the statistics that need a single pass through the data:
+     * the count of valid values, the moments, the minimum and the maximum
+     *
+     * @param f field to calculate statistics for
+     * @return false if there was no numeric data
+     */
     public static boolean populate(Field f) {
-        int n = f.rowCount();
+        int N = f.rowCount();
 
-        // Extract valid numeric data
-        List<Double> valid = new ArrayList<Double>();
-        for (int i = 0; i < n; i++) {
-            Object item = f.value(i);
-            if (item != null) {
-                if (item instanceof Range) {
-                    Object low = ((Range) item).low;
-                    Object high = ((Range) item).high;
-                    valid.add(Data.asNumeric(low));
-                    valid.add(Data.asNumeric(high));
+        // Central moment sums, updated for each value (Welford's method, extended to higher moments)
+        int n = 0;
+        double mean = 0, M2 = 0, M3 = 0, M4 = 0;
+        double sum = 0, min = 0, max = 0;
+        for (int i = 0; i < N; i++) {
+            double d = f.numericValue(i);
+            int count = 1;
+            double other = 0;
+            if (Double.isNaN(d)) {
+                // Ranges contribute both their ends
+                if (f.isNull(i)) continue;
+                Object item = f.value(i);
+                if (!(item instanceof Range)) continue;
+                d = Data.asNumeric(((Range) item).low);
+                other = Data.asNumeric(((Range) item).high);
+                count = 2;
+            }
+            for (int k = 0; k < count; k++) {
+                double x = k == 0 ? d : other;
+                if (n == 0) {
+                    min = x;
+                    max = x;
                 } else {
-                    Double d = Data.asNumeric(item);
-                    if (d != null) valid.add(d);
+                    min = Math.min(min, x);
+                    max = Math.max(max, x);
                 }
+                sum += x;
+                int n1 = n++;
+                double delta = x - mean;
+                double deltaN = delta / n;
+                double deltaN2 = deltaN * deltaN;
+                double term = delta * deltaN * n1;
+                mean += deltaN;
+                M4 += term * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * M2 - 4 * deltaN * M3;
+                M3 += term * deltaN * (n - 2) - 3 * deltaN * M2;
+                M2 += term;
             }
         }
-        Double[] data = valid.toArray(new Double[valid.size()]);
 
-        n = data.length;
         f.set("validNumeric", n);
 
         // No numeric data -- give up and go home
         if (n == 0) return false;
 
-        // Calculate the moments, used for standard statistics
-        double m1 = moment(data, 0, 1, n);
-        double m2 = moment(data, m1, 2, n - 1);
-        double m3 = moment(data, m1, 3, n - 1);
-        double m4 = moment(data, m1, 4, n - 1);
-        f.set("mean", m1);
+        // The mean is the plain average, so that mean * count reproduces the sum exactly
+        double m2 = n > 1 ? M2 / (n - 1) : Double.NaN;
+        double m3 = n > 1 ? M3 / (n - 1) : Double.NaN;
+        double m4 = n > 1 ? M4 / (n - 1) : Double.NaN;
+        f.set("mean", sum / n);
         f.set("stddev", Math.sqrt(m2));
         f.set("variance", m2);
         f.set("skew", m3 / m2 / Math.sqrt(m2));
         f.set("kurtosis", m4 / m2 / m2 - 3.0);
-
-        Arrays.sort(data);
-        double min = data[0];
-        double max = data[n - 1];
         f.set("min", min);
         f.set("max", max);
+        return true;
+    }
+
+    /**
+     * Calculate the statistics that need the data to be sorted: the median, quartiles and granularity.
+     * Uses the field's cached sorted order where possible
+     *
+     * @param f field to calculate statistics for
+     */
+    public static void populateOrder(Field f) {
+        double[] data = sortedData(f);
+        int n = data.length;
+        if (n == 0) return;
 
         // Order statistics: using the Tukey hinge definition
         f.set("median", av(data, (n - 1) * 0.5));
@@ -82,6 +120,8 @@ public class NumericStats {
             f.set("q3", av(data, (n - 1) / 2 + (n - 1) * 0.25));
         }
 
+        double min = data[0];
+        double max = data[n - 1];
         double minD = max - min;
         if (minD == 0) minD = Math.abs(max);
         for (int i = 1; i < data.length; i++) {
@@ -89,24 +129,66 @@ public class NumericStats {
             if (d > 0) minD = Math.min(minD, d);
         }
         f.set("granularity", minD);
-        return true;
     }
 
-    /*
-     * Calculates the centralized moment where
-     * c is the center,
-     * p is the power to raise to,
-     * N is the total weight (the amount to divide by)
+    /**
+     * Returns the rows of the field in ascending order of their numeric values, with ties in row order and
+     * missing values last.
+     *
+     * @param f field to sort
+     * @return sorted rows, or null if some non-null values do not have a simple numeric value (e.g. ranges)
      */
-    private static double moment(Double[] data, double c, int p, double N) {
-        if (N <= 0) return Double.NaN;
-        double sum = 0.0;
-        for (Double element : data)
-            sum += Math.pow(element - c, p);
-        return sum / N;
+    public static int[] sortedRows(Field f) {
+        int n = f.rowCount();
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = f.numericValue(i);
+            if (Double.isNaN(keys[i]) && !f.isNull(i)) return null;
+        }
+        return FieldRowComparison.orderByValue(keys);
+    }
+
+    /* Valid numeric data, sorted into ascending order */
+    private static double[] sortedData(Field f) {
+        int N = f.rowCount();
+        int[] rows = f.sortedNumericRows();
+        if (rows != null) {
+            // Missing values are at the end
+            int n = 0;
+            while (n < N && !f.isNull(rows[n])) n++;
+            double[] data = new double[n];
+            for (int i = 0; i < n; i++) data[i] = f.numericValue(rows[i]);
+            return data;
+        }
+
+        // Extract valid numeric data as primitives; ranges contribute both their ends
+        double[] data = new double[N];
+        int m = 0;
+        for (int i = 0; i < N; i++) {
+            double d = f.numericValue(i);
+            if (!Double.isNaN(d)) {
+                data[m++] = d;
+            } else if (!f.isNull(i)) {
+                Object item = f.value(i);
+                if (item instanceof Range) {
+                    if (m + 1 + N - i > data.length) data = resize(data, 2 * data.length + 2);
+                    data[m++] = Data.asNumeric(((Range) item).low);
+                    data[m++] = Data.asNumeric(((Range) item).high);
+                }
+            }
+        }
+        if (m < data.length) data = resize(data, m);
+        Arrays.sort(data);
+        return data;
     }
 
-    private static double av(Double[] v, double index) {
+    private static double[] resize(double[] data, int size) {
+        double[] result = new double[size];
+        for (int i = 0; i < Math.min(size, data.length); i++) result[i] = data[i];
+        return result;
+    }
+
+    private static double av(double[] v, double index) {
         return (v[(int) Math.floor(index)] + v[(int) Math.ceil(index)]) / 2.0;
     }
 
@@ -114,8 +196,11 @@ public class NumericStats {
         return "validNumeric".equals(key) || "mean".equals(key)
                 || "stddev".equals(key) || "variance".equals(key)
                 || "skew".equals(key) || "kurtosis".equals(key)
-                || "min".equals(key) || "max".equals(key)
-                || "q1".equals(key) || "q3".equals(key)
+                || "min".equals(key) || "max".equals(key);
+    }
+
+    public static boolean createsOrder(String key) {
+        return "q1".equals(key) || "q3".equals(key)
                 || "median".equals(key) || "granularity".equals(key);
     }
 }
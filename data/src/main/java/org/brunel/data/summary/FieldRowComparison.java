@@ -16,20 +16,23 @@
 
 package org.brunel.data.summary;
 
-import org.brunel.data.Data;
 import org.brunel.data.Field;
 
-import java.util.Arrays;
 import java.util.Comparator;
 
 /**
- * Details on how to compare rows
+ * Details on how to compare rows.
+ * Where possible, the values for a field are converted to primitive keys so comparisons do not need to use the
+ * field values. Sorting uses a stable merge sort on primitive indices, or a counting sort when all keys are integers
  */
 public class FieldRowComparison implements Comparator<Integer> {
     private final boolean[] ascending;
     private final boolean rowsBreakTies;
     private final int n;
     private final Field[] fields;
+    private int[][] intKeys;                    // For dictionary fields, the rank of each row (nulls largest)
+    private int[] intKeyCount;                  // The number of different integer keys for each field
+    private double[][] numericKeys;             // For simple numeric fields, the value of each row (nulls are NaN)
 
     public FieldRowComparison(Field[] fields, boolean[] ascending, boolean rowsBreakTies) {
         this.fields = fields;
@@ -39,18 +42,206 @@ public class FieldRowComparison implements Comparator<Integer> {
     }
 
     public int compare(Integer a, Integer b) {
+        return compareRows(a, b);
+    }
+
+    public int compareRows(int a, int b) {
+        int n = compareKeys(a, b);
+        return n == 0 && rowsBreakTies ? (a - b) : n;
+    }
+
+    /**
+     * Return the rows 0 ... len-1 sorted by this comparison
+     *
+     * @param len number of rows
+     * @return sorted row indices
+     */
+    public int[] makeSortedOrder(int len) {
+        int[] cached = cachedOrder(len);
+        if (cached != null) return cached;
+        int[] items = new int[len];
+        for (int i = 0; i < len; i++) items[i] = i;
+        sortRows(items);
+        return items;
+    }
+
+    /**
+     * Return the indices of the keys in ascending order, with ties in index order and NaN values last
+     *
+     * @param keys values to sort by
+     * @return sorted indices
+     */
+    public static int[] orderByValue(double[] keys) {
+        FieldRowComparison comparison = new FieldRowComparison(new Field[1], null, true);
+        comparison.intKeys = new int[1][];
+        comparison.intKeyCount = new int[1];
+        comparison.numericKeys = new double[][]{keys};
+        int[] items = new int[keys.length];
+        for (int i = 0; i < items.length; i++) items[i] = i;
+        comparison.sortRows(items);
+        return items;
+    }
+
+    /*
+     * When sorting all the rows by a single numeric field, we can use the field's cached order.
+     * Returns null if that is not possible
+     */
+    private int[] cachedOrder(int len) {
+        if (n != 1 || fields[0] == null || fields[0].rowCount() != len) return null;
+        Field f = fields[0];
+        if (f.preferCategorical() || f.dictionary() != null) return null;
+        int[] sorted = f.sortedNumericRows();
+        if (sorted == null) return null;
+        int[] result = new int[len];
+        if (ascending == null || ascending[0]) {
+            for (int i = 0; i < len; i++) result[i] = sorted[i];
+            return result;
+        }
+
+        // Descending: missing values first, then runs of equal values from the top down, keeping row order in runs
+        int valid = len;
+        while (valid > 0 && f.isNull(sorted[valid - 1])) valid--;
+        int k = 0;
+        for (int i = valid; i < len; i++) result[k++] = sorted[i];
+        int end = valid;
+        while (end > 0) {
+            int start = end - 1;
+            double v = f.numericValue(sorted[start]);
+            while (start > 0 && f.numericValue(sorted[start - 1]) == v) start--;
+            for (int i = start; i < end; i++) result[k++] = sorted[i];
+            end = start;
+        }
+        return result;
+    }
+
+    /**
+     * Sort an array of row indices in place. The sort is stable, so if the rows are initially in order,
+     * the result is the same whether or not rows break ties
+     *
+     * @param rows rows to sort
+     */
+    public void sortRows(int[] rows) {
+        if (rows.length < 2) return;
+        makeKeys();
+        boolean allIntegers = true;
+        for (int i = 0; i < n; i++) if (intKeys[i] == null) allIntegers = false;
+        if (allIntegers && n > 0) {
+            // Stable counting sorts, from the least significant key to the most
+            int[] temp = new int[rows.length];
+            for (int i = n - 1; i >= 0; i--) {
+                countingSort(rows, temp, intKeys[i], intKeyCount[i], ascending == null || ascending[i]);
+                int[] t = rows;
+                rows = temp;
+                temp = t;
+            }
+            if (n % 2 == 1) for (int i = 0; i < rows.length; i++) temp[i] = rows[i];
+        } else {
+            int[] temp = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) temp[i] = rows[i];
+            mergeSort(temp, rows, 0, rows.length);
+        }
+    }
+
+    private void countingSort(int[] source, int[] target, int[] keys, int keyCount, boolean ascending) {
+        int[] start = new int[keyCount + 1];
+        for (int row : source) {
+            int key = ascending ? keys[row] : keyCount - 1 - keys[row];
+            start[key + 1]++;
+        }
+        for (int i = 1; i <= keyCount; i++) start[i] += start[i - 1];
+        for (int row : source) {
+            int key = ascending ? keys[row] : keyCount - 1 - keys[row];
+            target[start[key]++] = row;
+        }
+    }
+
+    /* Sorts source[low, high) into target; both arrays must start with the same contents */
+    private void mergeSort(int[] source, int[] target, int low, int high) {
+        if (high - low < 12) {
+            // Insertion sort for small runs
+            for (int i = low + 1; i < high; i++) {
+                int v = target[i];
+                int j = i - 1;
+                while (j >= low && compareKeys(target[j], v) > 0) {
+                    target[j + 1] = target[j];
+                    j--;
+                }
+                target[j + 1] = v;
+            }
+            return;
+        }
+
+        // Sort each half of the target into the source, then merge them into the target
+        int mid = (low + high) >>> 1;
+        mergeSort(target, source, low, mid);
+        mergeSort(target, source, mid, high);
+        if (compareKeys(source[mid - 1], source[mid]) <= 0) {
+            // Already in order
+            for (int i = low; i < high; i++) target[i] = source[i];
+            return;
+        }
+        int p = low, q = mid;
+        for (int i = low; i < high; i++) {
+            if (q >= high || p < mid && compareKeys(source[p], source[q]) <= 0)
+                target[i] = source[p++];
+            else
+                target[i] = source[q++];
+        }
+    }
+
+    private int compareKeys(int a, int b) {
+        if (intKeys == null) makeKeys();
         for (int i = 0; i < n; i++) {
-            int n = fields[i].compareRows(a, b);
+            int n;
+            if (intKeys[i] != null) {
+                n = intKeys[i][a] - intKeys[i][b];
+            } else if (numericKeys[i] != null) {
+                double p = numericKeys[i][a], q = numericKeys[i][b];
+                if (p < q) n = -1;
+                else if (p > q) n = 1;
+                else if (p == q) n = 0;
+                else n = Double.isNaN(p) ? (Double.isNaN(q) ? 0 : 1) : -1;      // Nulls are last
+            } else {
+                n = fields[i].compareRows(a, b);
+            }
             // If descending, change sort order
             if (n != 0) return ascending != null && !ascending[i] ? -n : n;
         }
-        return rowsBreakTies ? (a - b) : 0;
+        return 0;
     }
 
-    public int[] makeSortedOrder(int len) {
-        Integer[] items = new Integer[len];
-        for (int i = 0; i < len; i++) items[i] = i;
-        Arrays.sort(items, this);
-        return Data.toPrimitive(items);
+    /* Convert dictionary and simple numeric fields to primitive keys */
+    private void makeKeys() {
+        if (intKeys != null) return;
+        int[][] ints = new int[n][];
+        int[] counts = new int[n];
+        double[][] numbers = new double[n][];
+        for (int i = 0; i < n; i++) {
+            Field f = fields[i];
+            int len = f.rowCount();
+            if (f.dictionary() != null) {
+                int[] ranks = f.dictionaryRanks();
+                int nullKey = 0;
+                for (int r : ranks) nullKey = Math.max(nullKey, r + 1);
+                int[] keys = new int[len];
+                for (int row = 0; row < len; row++) {
+                    int code = f.dictionaryCode(row);
+                    keys[row] = code < 0 ? nullKey : ranks[code];
+                }
+                ints[i] = keys;
+                counts[i] = nullKey + 1;
+            } else if (!f.preferCategorical()) {
+                double[] keys = new double[len];
+                for (int row = 0; row < len && keys != null; row++) {
+                    keys[row] = f.numericValue(row);
+                    // Values without a simple numeric value must use the field comparison
+                    if (Double.isNaN(keys[row]) && !f.isNull(row)) keys = null;
+                }
+                numbers[i] = keys;
+            }
+        }
+        numericKeys = numbers;
+        intKeyCount = counts;
+        intKeys = ints;
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.summary;
+
+import org.brunel.data.Field;
+import org.brunel.data.util.Range;
+
+/**
+ * Calculates simple numeric summaries for all groups in a single pass over a field's data, without creating objects
+ * for each row. Order statistics use a selection algorithm on the values for each group, rather than a full sort.
+ * The results are identical to those calculated by creating a field for each group and using its statistics
+ */
+public class MeasureAccumulator {
+
+    /**
+     * Returns true if the accumulator can calculate this summary function
+     *
+     * @param function summary function
+     * @return true if it is handled
+     */
+    public static boolean handles(String function) {
+        return function.equals("count") || function.equals("valid") || function.equals("sum")
+                || function.equals("mean") || function.equals("min") || function.equals("max")
+                || function.equals("range") || function.equals("percent") || function.equals("median")
+                || function.equals("q1") || function.equals("q3") || function.equals("iqr");
+    }
+
+    private final Field field;
+    private final int[] valid;                  // Non-null values in each group
+    private final int[] numeric;                // Numeric values in each group
+    private final double[] sum, min, max;       // Simple statistics for each group
+    private double[] buffer;                    // Used to hold values for order statistics
+
+    /**
+     * Accumulate the data for a field
+     *
+     * @param field      field to summarize (may be null, for the count function)
+     * @param group      group for each row
+     * @param groupCount number of groups
+     * @return accumulated data, or null if the field has values (such as ranges) that we cannot handle
+     */
+    public static MeasureAccumulator make(Field field, int[] group, int groupCount) {
+        MeasureAccumulator result = new MeasureAccumulator(field, groupCount);
+        return result.add(group) ? result : null;
+    }
+
+    private MeasureAccumulator(Field field, int groupCount) {
+        this.field = field;
+        this.valid = new int[groupCount];
+        this.numeric = new int[groupCount];
+        this.sum = new double[groupCount];
+        this.min = new double[groupCount];
+        this.max = new double[groupCount];
+    }
+
+    private boolean add(int[] group) {
+        if (field == null) return true;
+        for (int row = 0; row < group.length; row++) {
+            if (field.isNull(row)) continue;
+            int g = group[row];
+            valid[g]++;
+            double v = field.numericValue(row);
+            if (Double.isNaN(v)) {
+                // Ranges are treated as two values by the statistics, so we cannot handle them here
+                if (field.value(row) instanceof Range) return false;
+                continue;
+            }
+            if (numeric[g]++ == 0) {
+                min[g] = v;
+                max[g] = v;
+            } else {
+                min[g] = Math.min(min[g], v);
+                max[g] = Math.max(max[g], v);
+            }
+            sum[g] += v;
+        }
+        return true;
+    }
+
+    /**
+     * Return the summary value for a group
+     *
+     * @param g          the group
+     * @param m          the measure to calculate
+     * @param rows       the rows in the group
+     * @param percentSum the sum of values for the percentage base
+     * @return summary value
+     */
+    public Object get(int g, MeasureField m, int[] rows, double percentSum) {
+        String summary = m.measureFunction;
+        if (summary.equals("count")) return rows.length;
+        if (summary.equals("valid")) return valid[g];
+
+        // Statistics are not defined when there is no numeric data
+        int n = numeric[g];
+        if (n == 0) return null;
+        double mean = sum[g] / n;
+        if (summary.equals("mean")) return mean;
+        if (summary.equals("sum")) return mean * valid[g];
+        if (summary.equals("percent")) return percentSum > 0 ? 100 * mean * valid[g] / percentSum : null;
+        if (summary.equals("min")) return min[g];
+        if (summary.equals("max")) return max[g];
+        if (summary.equals("range")) return Range.make(min[g], max[g], m.getDateFormat());
+
+        // Order statistics: using the Tukey hinge definition
+        double[] data = groupValues(rows, n);
+        if (summary.equals("median")) return av(data, n, (n - 1) * 0.5);
+        double q1, q3;
+        if (n % 2 == 0) {
+            // Even data, include the median in upper and lower
+            q1 = av(data, n, (n / 2 - 1) * 0.5);
+            q3 = av(data, n, n / 2 + (n / 2 - 1) * 0.5);
+        } else {
+            // Odd data, do not include the median in upper and lower
+            q1 = av(data, n, (n - 1) * 0.25);
+            q3 = av(data, n, (n - 1) / 2 + (n - 1) * 0.25);
+        }
+        if (summary.equals("q1")) return q1;
+        if (summary.equals("q3")) return q3;
+        return Range.make(q1, q3, m.getDateFormat());
+    }
+
+    /* Place the numeric values for the group into the buffer */
+    private double[] groupValues(int[] rows, int n) {
+        if (buffer == null || buffer.length < n) buffer = new double[n];
+        int k = 0;
+        for (int row : rows) {
+            double v = field.numericValue(row);
+            if (!Double.isNaN(v)) buffer[k++] = v;
+        }
+        return buffer;
+    }
+
+    /* The average of the values at the floor and ceiling of the index, as if the data were sorted */
+    private static double av(double[] data, int n, double index) {
+        int lower = (int) Math.floor(index);
+        double a = select(data, n, lower);
+        if (lower == index) return a;
+        // The next value is the smallest of those placed above the selected one
+        double b = data[lower + 1];
+        for (int i = lower + 2; i < n; i++) b = Math.min(b, data[i]);
+        return (a + b) / 2.0;
+    }
+
+    /*
+     * Rearranges data[0, n) so the k-th smallest value is at index k, with smaller values before it
+     * and larger values after it, and returns that value
+     */
+    private static double select(double[] data, int n, int k) {
+        int low = 0, high = n - 1;
+        while (high > low) {
+            // Median of three pivot
+            int mid = (int) ((low + high) / 2);
+            if (data[mid] < data[low]) swap(data, low, mid);
+            if (data[high] < data[low]) swap(data, low, high);
+            if (data[high] < data[mid]) swap(data, mid, high);
+            double pivot = data[mid];
+
+            int i = low, j = high;
+            while (i <= j) {
+                while (data[i] < pivot) i++;
+                while (data[j] > pivot) j--;
+                if (i <= j) swap(data, i++, j--);
+            }
+            if (k <= j) high = j;
+            else if (k >= i) low = i;
+            else break;
+        }
+        return data[k];
+    }
+
+    private static void swap(double[] data, int i, int j) {
+        double t = data[i];
+        data[i] = data[j];
+        data[j] = t;
+    }
+}
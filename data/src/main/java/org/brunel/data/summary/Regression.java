@@ -18,9 +18,7 @@ package org.brunel.data.summary;
 
 import org.brunel.data.Data;
 import org.brunel.data.Field;
-
-import java.util.ArrayList;
-import java.util.List;
+import org.brunel.data.values.DoubleColumnProvider;
 
 /**
  * Calculates a regression function
@@ -28,7 +26,7 @@ import java.util.List;
 public class Regression implements Fit {
     private Double m, b;                                            // Slope and intercept
 
-    public Regression(Field y, Field x, List<Integer> rows) {
+    public Regression(Field y, Field x, int[] rows) {
         double[][] data = asPairs(y, x, rows);
         int n = data[0].length;
         if (n == 0) return;                                      // No data
@@ -61,30 +59,45 @@ public class Regression implements Fit {
      * @param rows the rows to include in this data array
      * @return array of length two, each of which is a field of data
      */
-    static double[][] asPairs(Field y, Field x, List<Integer> rows) {
-        List<Double> xList = new ArrayList<Double>();
-        List<Double> yList = new ArrayList<Double>();
-        int n = rows.size();
-        for (int k=0; k< n; k++) {
-            int i = rows.get(k);
-            Double xv = Data.asNumeric(x.value(i));
-            Double yv = Data.asNumeric(y.value(i));
-            if (xv != null && yv != null) {
-                xList.add(xv);
-                yList.add(yv);
+    static double[][] asPairs(Field y, Field x, int[] rows) {
+        double[] xList = new double[rows.length];
+        double[] yList = new double[rows.length];
+        int n = 0;
+        for (int i : rows) {
+            double xv = numeric(x, i);
+            double yv = numeric(y, i);
+            if (!Double.isNaN(xv) && !Double.isNaN(yv)) {
+                xList[n] = xv;
+                yList[n] = yv;
+                n++;
             }
         }
 
-        Integer[] order = Data.order(xList.toArray(new Double[xList.size()]), true);
-        double[] xx = new double[order.length];
-        double[] yy = new double[order.length];
-        for (int i = 0; i < order.length; i++) {
-            xx[i] = xList.get(order[i]);
-            yy[i] = yList.get(order[i]);
+        // Stable sort by x, using a field wrapping the valid data
+        double[] valid = new double[n];
+        for (int i = 0; i < n; i++) valid[i] = xList[i];
+        Field sortField = new Field("x", null, new DoubleColumnProvider(valid));
+        sortField.set("numeric", true);
+        int[] order = new FieldRowComparison(new Field[]{sortField}, null, true).makeSortedOrder(n);
+
+        double[] xx = new double[n];
+        double[] yy = new double[n];
+        for (int i = 0; i < n; i++) {
+            xx[i] = xList[order[i]];
+            yy[i] = yList[order[i]];
         }
         return new double[][]{yy, xx};
     }
 
+    /* The numeric value for a row, or NaN if there is none */
+    private static double numeric(Field f, int row) {
+        double v = f.numericValue(row);
+        if (!Double.isNaN(v) || f.isNull(row)) return v;
+        // Values like ranges still have a numeric value
+        Double d = Data.asNumeric(f.value(row));
+        return d == null ? Double.NaN : d;
+    }
+
     public Double get(Object value) {
         return m == null ? null : m * Data.asNumeric(value) + b;
     }
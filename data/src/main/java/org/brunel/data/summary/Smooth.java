@@ -20,8 +20,6 @@ import org.brunel.data.Data;
 import org.brunel.data.Field;
 import org.brunel.data.auto.Auto;
 
-import java.util.List;
-
 /**
  * Calculates a smooth fit function
  */
@@ -29,8 +27,9 @@ public class Smooth implements Fit {
     private final double window;                              // Window width for the data
     private final double[] x, y;                              // x and y fields of data, sorted by x
     private final double mean;                                // mean value
+    private int lowHint, highHint;                            // Window ends from the previous evaluation
 
-    public Smooth(Field y, Field x, Double windowPercent, List<Integer> rows) {
+    public Smooth(Field y, Field x, Double windowPercent, int[] rows) {
         if (windowPercent == null) {
             // use the optimal bin count to chose a window size
             int n = Auto.optimalBinCount(x);
@@ -51,11 +50,13 @@ public class Smooth implements Fit {
     }
 
     private Double eval(double at, double h) {
-        int low = search(at - h, x);                   // low end of window
-        int high = search(at + h, x);                  // high end of window
+        // The window is the points strictly within h of 'at'; points on the boundary have zero weight.
+        // Fits are usually evaluated at increasing values, so we move the window forward from its last position
+        int low = lowHint = firstAbove(at - h, lowHint, false);
+        int high = highHint = firstAbove(at + h, highHint, true);
 
         double sy = 0, sw = 0;
-        for (int i = low; i <= high; i++) {
+        for (int i = low; i < high; i++) {
             double d = (x[i] - at) / h;
             double w = 0.75 * (1 - d * d);
             if (w > 1e-5) {
@@ -69,19 +70,27 @@ public class Smooth implements Fit {
         return sy / sw;
     }
 
-    private int search(double at, double[] x) {
-        // Binary search to find close point
-        // constraint: x[p] <= at <= x[q]
-        int p = 0;
-        int q = x.length - 1;
-        while (q - p > 1) {
-            int t = p + q >> 1;
-            if (x[t] <= at) p = t;
-            if (x[t] >= at) q = t;
+    /*
+     * Find the index of the first point greater than 'at' (or greater or equal, if inclusive is set).
+     * Scans forward from the hint if the point is after it, otherwise uses a binary search
+     */
+    private int firstAbove(double at, int hint, boolean inclusive) {
+        int n = x.length;
+        if (hint > 0 && before(at, x[hint - 1], inclusive)) {
+            int p = 0;
+            int q = hint - 1;
+            while (q > p) {
+                int t = p + q >> 1;
+                if (before(at, x[t], inclusive)) q = t;
+                else p = t + 1;
+            }
+            return p;
         }
-        // make p and q point to the ends of a run of similar values
-        while (p > 0 && x[p - 1] == at) p--;
-        while (q < x.length - 1 && x[q + 1] == at) q++;
-        return (p + q) >> 1;
+        while (hint < n && !before(at, x[hint], inclusive)) hint++;
+        return hint;
+    }
+
+    private boolean before(double at, double value, boolean inclusive) {
+        return inclusive ? value >= at : value > at;
     }
 }
@@ -21,31 +21,22 @@ import org.brunel.data.Field;
 import org.brunel.data.util.ItemsList;
 import org.brunel.data.util.Range;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public final class SummaryValues {
     private final Field[] fields;                                   // the fields we use
     private final Field[] xFields;                                  // the fields to use as 'X' values
-    public final List<Integer> rows = new ArrayList<Integer>();     // Which data rows have been aggregated into this
-    private final ArrayList<Field> groupFields;                     // Fields that group results
+    public final int[] rows;                                        // Which data rows have been aggregated into this
     public double[] percentSums;
+    public int fitGroup;                                            // The group to use for fits
+    public int[] fitRows;                                           // The data rows in that group
 
-    public SummaryValues(Field[] fields, Field[] xFields, Field[] allDimensions) {
+    public SummaryValues(Field[] fields, Field[] xFields, int[] rows) {
         this.fields = fields;
         this.xFields = xFields;
-
-        // Create an array of fields that group the results
-        this.groupFields = new ArrayList<Field>();
-        for (Field f: allDimensions) {
-            boolean isGroup = true;
-            for  (Field x : xFields) if (x == f) isGroup = false;
-            if (isGroup) groupFields.add(f);
-        }
+        this.rows = rows;
     }
 
     public int firstRow() {
-        return rows.get(0);
+        return rows[0];
     }
 
     /**
@@ -57,32 +48,34 @@ public final class SummaryValues {
      */
     public Object get(int fieldIndex, MeasureField m) {
         String summary = m.measureFunction;
-        if (summary.equals("count")) return rows.size();
+        if (summary.equals("count")) return rows.length;
         Field x = xFields.length == 0 ? null : xFields[xFields.length - 1];   // Innermost is the one
-        int index = rows.get(0);
+        int index = rows[0];
 
         if (summary.equals("fit")) {
-            Fit fit = m.getFit(groupFields, index);
-            if (fit == null) fit = new Regression(m.field, x, validForGroup(index));
-            m.setFit(groupFields, index, fit);
+            Fit fit = m.fits[fitGroup];
+            if (fit == null) {
+                fit = new Regression(m.field, x, fitRows);
+                m.fits[fitGroup] = fit;
+            }
             return fit.get(x.value(index));
         }
 
         if (summary.equals("smooth")) {
-            Fit fit = m.getFit(groupFields, index);
+            Fit fit = m.fits[fitGroup];
             if (fit == null) {
                 Double windowPercent = null;
                 if (m.option != null)
                     windowPercent = Double.parseDouble(m.option);
-                fit = new Smooth(m.field, x, windowPercent, validForGroup(index));
+                fit = new Smooth(m.field, x, windowPercent, fitRows);
+                m.fits[fitGroup] = fit;
             }
-            m.setFit(groupFields, index, fit);
-            return fit.get(x.value(rows.get(0)));
+            return fit.get(x.value(index));
         }
 
-        Object[] data = new Object[rows.size()];
+        Object[] data = new Object[rows.length];
         for (int i = 0; i < data.length; i++)
-            data[i] = fields[fieldIndex].value(rows.get(i));
+            data[i] = fields[fieldIndex].value(rows[i]);
 
         Field f = Data.makeColumnField("temp", null, data);
 
@@ -121,15 +114,4 @@ public final class SummaryValues {
         return f.property(summary);
     }
 
-    private List<Integer> validForGroup(int index) {
-        ArrayList<Integer> list = new ArrayList<Integer>();
-        int n = fields[0].rowCount();
-        for (int i = 0; i< n; i++) {
-            boolean valid = true;
-            for (Field f: groupFields) if (f.compareRows(index, i) != 0) valid = false;
-            if (valid) list.add(i);
-        }
-        return list;
-    }
-
 }
@@ -17,37 +17,65 @@
 package org.brunel.data.util;
 
 import org.brunel.data.Data;
+import org.brunel.data.Field;
 import org.brunel.translator.JSTranslation;
 
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Date parsing and formatting. This may be used from multiple threads: each thread has its own formats, as they
+ * are not thread-safe, and recently parsed text is kept in a small lock-free cache shared by all threads.
+ */
 @JSTranslation(ignore = true)
 public class Dates {
 
-    // Keep 100 known mappings
-    private static final Map<String, Date> parsed = new LinkedHashMap<String, Date>() {
-        protected boolean removeEldestEntry(Map.Entry<String, Date> eldest) {
-            return size() > 1000;
+    // Output formats for each DateFormat
+    private static final String[] OUTPUT_PATTERNS = {
+            "HH:mm:ss",                 // seconds
+            "HH:mm",                    // hours and minutes
+            "MMM d HH:mm",              // day and hour
+            "MMM d, yyyy",              // full date
+            "MMM yyyy",                 // months
+            "yyyy"                      // years
+    };
+
+    // Input formats, in the order they are tried
+    private static final String[] PARSE_PATTERNS = {
+            "y-M-d'T'H:m:s.SSS", "y-M-d'T'H:m:s", "y-M-d'T'H:m", "MMM d, yyyy H:m:s", "yyyy-MM-dd HH:mm:ss",
+            "y-MM-dd", "d-MMM-y", "MMM d, yyyy", "M/d/y H:m:s", "d/M/y H:m:s", "M-d-y H:m:s", "M/d/y H:m",
+            "d-M-y H:m:s", "d/M/y H:m", "M-d-y H:m", "d-M-y H:m", "M/d/y", "d/M/y", "MMM-y", "MMM d", "d-M-y",
+            "M/d", "HH:mm:ss.SSS", "H:m:s", "H:m"
+    };
+
+    private static final int SAMPLE_SIZE = 50;                  // Values used to find the format of a column
+    private static final int CACHE_SIZE = 4096;                 // Must be a power of two
+
+    // Each slot holds the most recent text parsed with that hash, so looking up never blocks or allocates
+    private static final AtomicReferenceArray<Parsed> parsed = new AtomicReferenceArray<Parsed>(CACHE_SIZE);
+
+    private static final ThreadLocal<SimpleDateFormat[]> outputFormats = new ThreadLocal<SimpleDateFormat[]>() {
+        protected SimpleDateFormat[] initialValue() {
+            return makeFormats(OUTPUT_PATTERNS, null);
         }
     };
 
-    private static final List<SimpleDateFormat> dateFormats;
-    private static final SimpleDateFormat[] outputFormats;
+    private static final ThreadLocal<SimpleDateFormat[]> parseFormats = new ThreadLocal<SimpleDateFormat[]>() {
+        protected SimpleDateFormat[] initialValue() {
+            return makeFormats(PARSE_PATTERNS, Locale.US);
+        }
+    };
 
     public static Object getPattern(DateFormat dateFormat) {
-        return outputFormats[dateFormat.ordinal()].toPattern();
+        return OUTPUT_PATTERNS[dateFormat.ordinal()];
     }
 
     public static String format(Date date, DateFormat dateFormat) {
-        return outputFormats[dateFormat.ordinal()].format(date);
+        return outputFormats.get()[dateFormat.ordinal()].format(date);
     }
 
     public static Date parse(Object c) {
@@ -55,62 +83,83 @@ public class Dates {
         if (c instanceof Number) return new Date(Math.round(((Number) c).doubleValue() * Data.MILLIS_PER_DAY));
         String s = c.toString().trim();
         if (s.isEmpty()) return null;
-        if (parsed.containsKey(s)) return parsed.get(s);
 
+        int slot = s.hashCode() & (CACHE_SIZE - 1);
+        Parsed known = parsed.get(slot);
+        if (known != null && known.text.equals(s)) return known.date;
+
+        SimpleDateFormat[] formats = parseFormats.get();
+        ParsePosition position = new ParsePosition(0);
         Date result = null;
-        for (SimpleDateFormat f : dateFormats)
-            try {
-                result = f.parse(s);
-                break;
-            } catch (ParseException ignored) {
-                // Unsuccessful; keep trying
-            }
-        parsed.put(s, result);
+        for (int f = 0; f < formats.length && result == null; f++) result = parseWith(formats[f], s, position);
+        parsed.set(slot, new Parsed(s, result));
+        return result;
+    }
+
+    /**
+     * Parse all the values of a field as dates. If {@link #parse(Object)} would choose the same format for every
+     * value in a sample, that format is tried first for every value; values it cannot parse are parsed individually
+     *
+     * @param field values to parse
+     * @return dates, with null for values that could not be parsed
+     */
+    public static Date[] parseColumn(Field field) {
+        int n = field.rowCount();
+        ParsePosition position = new ParsePosition(0);
+        SimpleDateFormat format = findFormat(field, position);
+        Date[] result = new Date[n];
+        for (int i = 0; i < n; i++) {
+            Object o = field.value(i);
+            if (format != null && o instanceof String) result[i] = parseWith(format, ((String) o).trim(), position);
+            if (result[i] == null) result[i] = parse(o);
+        }
         return result;
     }
 
-    static {
-        outputFormats = new SimpleDateFormat[]{
-                new SimpleDateFormat("HH:mm:ss"),            // seconds
-                new SimpleDateFormat("HH:mm"),                // hours and minutes
-                new SimpleDateFormat("MMM d HH:mm"),        // day and hour
-                new SimpleDateFormat("MMM d, yyyy"),        // full date
-                new SimpleDateFormat("MMM yyyy"),            // months
-                new SimpleDateFormat("yyyy")                // years
-        };
-
-        dateFormats = new LinkedList<SimpleDateFormat>();
-        dateFormats.add(new SimpleDateFormat("y-M-d'T'H:m:s.SSS", Locale.US));
-        dateFormats.add(new SimpleDateFormat("y-M-d'T'H:m:s", Locale.US));
-        dateFormats.add(new SimpleDateFormat("y-M-d'T'H:m", Locale.US));
-        dateFormats.add(new SimpleDateFormat("MMM d, yyyy H:m:s", Locale.US));
-        dateFormats.add(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US));
-        dateFormats.add(new SimpleDateFormat("y-MM-dd", Locale.US));
-        dateFormats.add(new SimpleDateFormat("d-MMM-y", Locale.US));
-        dateFormats.add(new SimpleDateFormat("MMM d, yyyy", Locale.US));
-        dateFormats.add(new SimpleDateFormat("M/d/y H:m:s", Locale.US));
-        dateFormats.add(new SimpleDateFormat("d/M/y H:m:s", Locale.US));
-        dateFormats.add(new SimpleDateFormat("M-d-y H:m:s", Locale.US));
-        dateFormats.add(new SimpleDateFormat("M/d/y H:m", Locale.US));
-        dateFormats.add(new SimpleDateFormat("d-M-y H:m:s", Locale.US));
-        dateFormats.add(new SimpleDateFormat("d/M/y H:m", Locale.US));
-        dateFormats.add(new SimpleDateFormat("M-d-y H:m", Locale.US));
-        dateFormats.add(new SimpleDateFormat("d-M-y H:m", Locale.US));
-        dateFormats.add(new SimpleDateFormat("M/d/y", Locale.US));
-        dateFormats.add(new SimpleDateFormat("d/M/y", Locale.US));
-        dateFormats.add(new SimpleDateFormat("MMM-y", Locale.US));
-        dateFormats.add(new SimpleDateFormat("MMM d", Locale.US));
-        dateFormats.add(new SimpleDateFormat("d-M-y", Locale.US));
-        dateFormats.add(new SimpleDateFormat("M/d", Locale.US));
-        dateFormats.add(new SimpleDateFormat("HH:mm:ss.SSS", Locale.US));
-        dateFormats.add(new SimpleDateFormat("H:m:s", Locale.US));
-        dateFormats.add(new SimpleDateFormat("H:m", Locale.US));
-
-        for (SimpleDateFormat df : outputFormats)
-            df.setTimeZone(TimeZone.getTimeZone("UTC"));
-
-        for (SimpleDateFormat format : dateFormats)
-            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    /* The format parse() chooses for every sampled text value, or null if they do not all agree */
+    private static SimpleDateFormat findFormat(Field field, ParsePosition position) {
+        int n = field.rowCount();
+        SimpleDateFormat[] formats = parseFormats.get();
+        SimpleDateFormat chosen = null;
+        int samples = Math.min(n, SAMPLE_SIZE);
+        for (int i = 0; i < samples; i++) {
+            Object o = field.value((int) ((long) i * n / samples));             // Spread through the data
+            if (!(o instanceof String) || ((String) o).trim().isEmpty()) continue;
+            String s = ((String) o).trim();
+            SimpleDateFormat format = null;
+            for (int f = 0; f < formats.length && format == null; f++)
+                if (parseWith(formats[f], s, position) != null) format = formats[f];
+            if (format == null || chosen != null && format != chosen) return null;
+            chosen = format;
+        }
+        return chosen;
+    }
+
+    /* Returns null if the start of the text cannot be parsed, in the same way as SimpleDateFormat.parse throws */
+    private static Date parseWith(SimpleDateFormat format, String s, ParsePosition position) {
+        position.setIndex(0);
+        position.setErrorIndex(-1);
+        Date date = format.parse(s, position);
+        return position.getIndex() == 0 ? null : date;
+    }
+
+    private static SimpleDateFormat[] makeFormats(String[] patterns, Locale locale) {
+        SimpleDateFormat[] formats = new SimpleDateFormat[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            formats[i] = locale == null ? new SimpleDateFormat(patterns[i]) : new SimpleDateFormat(patterns[i], locale);
+            formats[i].setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+        return formats;
+    }
+
+    private static final class Parsed {
+        final String text;
+        final Date date;
+
+        Parsed(String text, Date date) {
+            this.text = text;
+            this.date = date;
+        }
     }
 
 }
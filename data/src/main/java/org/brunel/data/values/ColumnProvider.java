@@ -17,6 +17,7 @@
 package org.brunel.data.values;
 
 import org.brunel.data.Data;
+import org.brunel.data.util.Range;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -68,6 +69,18 @@ public class ColumnProvider implements Provider {
         return total;
     }
 
+    public boolean isNull(int index) {
+        return column[index] == null;
+    }
+
+    public double numericValue(int index) {
+        Object o = column[index];
+        // Ranges do not have a single numeric value
+        if (o == null || o instanceof Range) return Double.NaN;
+        Double d = Data.asNumeric(o);
+        return d == null ? Double.NaN : d;
+    }
+
     public Provider setValue(Object o, int index) {
         column[index] = o;
         return this;
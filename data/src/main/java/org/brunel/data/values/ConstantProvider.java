@@ -16,16 +16,22 @@
 
 package org.brunel.data.values;
 
+import org.brunel.data.Data;
+import org.brunel.data.util.Range;
+
 import java.util.HashMap;
 
 public class ConstantProvider implements Provider {
 
     private final int len;
     private final Object o;
+    private final double numeric;
 
     public ConstantProvider(Object o, int len) {
         this.o = o;
         this.len = len;
+        Double d = o == null || o instanceof Range ? null : Data.asNumeric(o);
+        this.numeric = d == null ? Double.NaN : d;
     }
 
     public int compareRows(int a, int b, HashMap<Object, Integer> categoryOrder) {
@@ -40,6 +46,14 @@ public class ConstantProvider implements Provider {
         return 24;
     }
 
+    public boolean isNull(int index) {
+        return o == null;
+    }
+
+    public double numericValue(int index) {
+        return numeric;
+    }
+
     public Provider setValue(Object o, int index) {
         return ColumnProvider.copy(this).setValue(o, index);
     }
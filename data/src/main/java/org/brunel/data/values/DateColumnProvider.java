@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.values;
+
+import org.brunel.data.Data;
+
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Stores a date column as primitive milliseconds since the epoch, with a bitmap marking the missing values.
+ * Date objects are only created when a value is requested
+ */
+public class DateColumnProvider implements Provider {
+
+    private final long[] millis;
+    private final int[] missing;
+
+    /**
+     * Create the provider
+     *
+     * @param dates the dates to store; nulls are treated as missing
+     */
+    public DateColumnProvider(Date[] dates) {
+        this.millis = new long[dates.length];
+        this.missing = new int[(dates.length >> 5) + 1];
+        for (int i = 0; i < dates.length; i++) {
+            if (dates[i] == null) missing[i >> 5] |= 1 << (i & 31);
+            else millis[i] = dates[i].getTime();
+        }
+    }
+
+    public int compareRows(int a, int b, HashMap<Object, Integer> categoryOrder) {
+        boolean p = isNull(a), q = isNull(b);
+        if (p) return q ? 0 : 1;
+        if (q) return -1;
+        if (!categoryOrder.isEmpty())
+            return categoryOrder.get(value(a)) - categoryOrder.get(value(b));
+        return millis[a] < millis[b] ? -1 : (millis[a] > millis[b] ? 1 : 0);
+    }
+
+    public int count() {
+        return millis.length;
+    }
+
+    public int expectedSize() {
+        return 48 + millis.length * 8 + missing.length * 4;
+    }
+
+    public boolean isNull(int index) {
+        return (missing[index >> 5] & (1 << (index & 31))) != 0;
+    }
+
+    public double numericValue(int index) {
+        if (isNull(index)) return Double.NaN;
+        return millis[index] / Data.MILLIS_PER_DAY;
+    }
+
+    public Provider setValue(Object o, int index) {
+        return ColumnProvider.copy(this).setValue(o, index);
+    }
+
+    public Object value(int index) {
+        if (isNull(index)) return null;
+        return new Date(millis[index]);
+    }
+
+}
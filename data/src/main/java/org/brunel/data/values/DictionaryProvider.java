@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.values;
+
+import org.brunel.data.Data;
+import org.brunel.data.util.Range;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores a column as integer codes into a sorted dictionary of the distinct values.
+ * Comparisons and grouping can then be done on the codes without touching the values
+ */
+public class DictionaryProvider implements Provider {
+
+    /**
+     * Create from an array of values
+     *
+     * @param values the data values, which may include nulls
+     * @return provider for the data
+     */
+    public static DictionaryProvider make(Object[] values) {
+        HashMap<Object, Integer> index = new HashMap<Object, Integer>();
+        List<Object> items = new ArrayList<Object>();
+        int[] indices = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Object v = values[i];
+            if (v == null) {
+                indices[i] = -1;
+                continue;
+            }
+            Integer c = index.get(v);
+            if (c == null) {
+                c = items.size();
+                index.put(v, c);
+                items.add(v);
+            }
+            indices[i] = c;
+        }
+        return makeIndexed(items.toArray(new Object[items.size()]), indices);
+    }
+
+    /**
+     * Create from a list of items (in any order) and indices into them, as used in serialization
+     *
+     * @param items   distinct items, which may include a null
+     * @param indices index into the items for each row; a negative index is a null value
+     * @return provider for the data
+     */
+    public static DictionaryProvider makeIndexed(Object[] items, int[] indices) {
+        // Sort the non-null items to make the dictionary
+        List<Object> present = new ArrayList<Object>();
+        for (Object o : items) if (o != null) present.add(o);
+        Object[] dictionary = present.toArray(new Object[present.size()]);
+        Data.sort(dictionary);
+
+        // Find the new code for each item, and translate the indices
+        HashMap<Object, Integer> position = new HashMap<Object, Integer>();
+        for (int i = 0; i < dictionary.length; i++) position.put(dictionary[i], i);
+        int[] recode = new int[items.length];
+        for (int i = 0; i < items.length; i++) recode[i] = items[i] == null ? -1 : position.get(items[i]);
+        int[] codes = new int[indices.length];
+        for (int i = 0; i < codes.length; i++) codes[i] = indices[i] < 0 ? -1 : recode[indices[i]];
+
+        // Items that compare as equal share a rank
+        int[] rank = new int[dictionary.length];
+        for (int i = 1; i < rank.length; i++)
+            rank[i] = Data.compare(dictionary[i - 1], dictionary[i]) == 0 ? rank[i - 1] : i;
+
+        return new DictionaryProvider(dictionary, rank, codes);
+    }
+
+    private final Object[] dictionary;              // Sorted distinct values
+    private final int[] rank;                       // Sort rank for each dictionary item
+    private final int[] codes;                      // Index into the dictionary for each row; -1 for null
+    private double[] numeric;                       // Numeric value of each dictionary item (created when needed)
+    private Object[] orderRanks;                    // Last category order used, and the ranks for it
+
+    private DictionaryProvider(Object[] dictionary, int[] rank, int[] codes) {
+        this.dictionary = dictionary;
+        this.rank = rank;
+        this.codes = codes;
+    }
+
+    /**
+     * The code for a row
+     *
+     * @param index row to access
+     * @return index into the dictionary, or -1 for a null
+     */
+    public int code(int index) {
+        return codes[index];
+    }
+
+    public int compareRows(int a, int b, HashMap<Object, Integer> categoryOrder) {
+        int p = codes[a], q = codes[b];
+        if (p == q) return 0;
+        if (p < 0) return 1;
+        if (q < 0) return -1;
+        int[] r = ranks(categoryOrder);
+        return r[p] - r[q];
+    }
+
+    public int count() {
+        return codes.length;
+    }
+
+    /**
+     * The distinct values, in sorted order. This must not be modified
+     *
+     * @return the values for each code
+     */
+    public Object[] dictionary() {
+        return dictionary;
+    }
+
+    public int expectedSize() {
+        Set<Object> seen = new HashSet<Object>();
+        int total = 72 + 4 * codes.length + 8 * dictionary.length;
+        for (Object c : dictionary) {
+            if (seen.add(c)) {
+                if (c instanceof String)
+                    total += (42 + ((String) c).length() * 2);
+                else
+                    total += 16;
+            }
+        }
+        return total;
+    }
+
+    public boolean isNull(int index) {
+        return codes[index] < 0;
+    }
+
+    public double numericValue(int index) {
+        int c = codes[index];
+        if (c < 0) return Double.NaN;
+        if (numeric == null) {
+            double[] values = new double[dictionary.length];
+            for (int i = 0; i < values.length; i++) {
+                // Ranges do not have a single numeric value
+                Double d = dictionary[i] instanceof Range ? null : Data.asNumeric(dictionary[i]);
+                values[i] = d == null ? Double.NaN : d;
+            }
+            numeric = values;
+        }
+        return numeric[c];
+    }
+
+    /**
+     * Returns ranks for each code, so comparing ranks is the same as comparing values.
+     * When a category order is defined, the ranks follow it
+     *
+     * @param categoryOrder order to use (empty for the natural sort order)
+     * @return array of ranks, indexed by code
+     */
+    public int[] ranks(HashMap<Object, Integer> categoryOrder) {
+        if (categoryOrder == null || categoryOrder.isEmpty()) return rank;
+        Object[] cached = orderRanks;
+        if (cached == null || cached[0] != categoryOrder) {
+            // Any values not in the order go at the end, in their natural order
+            int[] r = new int[dictionary.length];
+            for (int i = 0; i < r.length; i++) {
+                Integer order = categoryOrder.get(dictionary[i]);
+                r[i] = order == null ? categoryOrder.size() + rank[i] : order;
+            }
+            cached = new Object[]{categoryOrder, r};
+            orderRanks = cached;
+        }
+        return (int[]) cached[1];
+    }
+
+    /**
+     * Create a provider for the same dictionary with rows selected and reordered
+     *
+     * @param order rows to use
+     * @return new provider sharing the dictionary
+     */
+    public DictionaryProvider reorder(int[] order) {
+        int[] c = new int[order.length];
+        for (int i = 0; i < c.length; i++) c[i] = codes[order[i]];
+        return new DictionaryProvider(dictionary, rank, c);
+    }
+
+    public Provider setValue(Object o, int index) {
+        return ColumnProvider.copy(this).setValue(o, index);
+    }
+
+    public Object value(int index) {
+        int c = codes[index];
+        return c < 0 ? null : dictionary[c];
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.values;
+
+import java.util.HashMap;
+
+/**
+ * Stores a numeric column as primitive doubles, with a bitmap marking the missing values.
+ * This avoids an object per row, and allows numeric access without boxing
+ */
+public class DoubleColumnProvider implements Provider {
+
+    private final double[] column;
+    private final int[] missing;
+
+    /**
+     * Create the provider
+     *
+     * @param column the data, which is used directly (not copied); NaN values are treated as missing
+     */
+    public DoubleColumnProvider(double[] column) {
+        this.column = column;
+        this.missing = new int[(column.length >> 5) + 1];
+        for (int i = 0; i < column.length; i++)
+            if (Double.isNaN(column[i])) missing[i >> 5] |= 1 << (i & 31);
+    }
+
+    public int compareRows(int a, int b, HashMap<Object, Integer> categoryOrder) {
+        boolean p = isNull(a), q = isNull(b);
+        if (p) return q ? 0 : 1;
+        if (q) return -1;
+        if (!categoryOrder.isEmpty())
+            return categoryOrder.get(column[a]) - categoryOrder.get(column[b]);
+        return column[a] < column[b] ? -1 : (column[a] > column[b] ? 1 : 0);
+    }
+
+    public int count() {
+        return column.length;
+    }
+
+    public int expectedSize() {
+        return 48 + column.length * 8 + missing.length * 4;
+    }
+
+    public boolean isNull(int index) {
+        return (missing[index >> 5] & (1 << (index & 31))) != 0;
+    }
+
+    public double numericValue(int index) {
+        return column[index];
+    }
+
+    public Provider setValue(Object o, int index) {
+        return ColumnProvider.copy(this).setValue(o, index);
+    }
+
+    public Object value(int index) {
+        if (isNull(index)) return null;
+        return column[index];
+    }
+
+}
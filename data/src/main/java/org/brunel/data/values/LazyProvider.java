@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.values;
+
+import org.brunel.translator.JSTranslation;
+
+import java.util.HashMap;
+
+/**
+ * A provider whose data is only created when it is first used, such as a column that has not yet been decoded
+ * from serialized data. The number of rows is known in advance, and reordering does not create the data.
+ * Once created, the data is kept and all calls are passed to it
+ */
+public abstract class LazyProvider implements Provider {
+
+    private final int count;                        // Number of rows
+    private final int unreadSize;                   // Expected size before the data is created
+
+    @JSTranslation(ignore = true)
+    private volatile Provider decoded;              // The data, when it has been created
+
+    protected LazyProvider(int count, int unreadSize) {
+        this.count = count;
+        this.unreadSize = unreadSize;
+    }
+
+    /**
+     * Creates the data. This is called at most once
+     *
+     * @return provider for the data
+     */
+    protected abstract Provider decode();
+
+    /**
+     * Returns the data, creating it if needed
+     *
+     * @return provider for the data
+     */
+    @JSTranslation(js = {
+            "if (this.decoded == null) this.decoded = this.decode();",
+            "return this.decoded;"
+    })
+    public Provider provider() {
+        Provider p = decoded;
+        if (p == null) {
+            synchronized (this) {
+                if (decoded == null) decoded = decode();
+                p = decoded;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Whether the data has been created yet
+     *
+     * @return true if the data has been created
+     */
+    public boolean isDecoded() {
+        return decoded != null;
+    }
+
+    public int compareRows(int a, int b, HashMap<Object, Integer> categoryOrder) {
+        return provider().compareRows(a, b, categoryOrder);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int expectedSize() {
+        return isDecoded() ? provider().expectedSize() : unreadSize;
+    }
+
+    public boolean isNull(int index) {
+        return provider().isNull(index);
+    }
+
+    public double numericValue(int index) {
+        return provider().numericValue(index);
+    }
+
+    /**
+     * Reorder the data, without creating it if it has not yet been created
+     *
+     * @param order rows to use
+     * @return provider for the reordered data
+     */
+    public Provider reorder(int[] order) {
+        if (isDecoded()) return ReorderedProvider.make(provider(), order);
+        return new ReorderedLazyProvider(this, order);
+    }
+
+    public Provider setValue(Object o, int index) {
+        return provider().setValue(o, index);
+    }
+
+    public Object value(int index) {
+        return provider().value(index);
+    }
+}
@@ -38,6 +38,23 @@ public interface Provider {
 
     int expectedSize();
 
+    /**
+     * Return true if there is no value at the given row
+     *
+     * @param index row to access
+     * @return true if the value is null
+     */
+    boolean isNull(int index);
+
+    /**
+     * Return the value at the given row as a primitive double, without creating an object.
+     * Dates are returned as days since the epoch, as for Data.asNumeric
+     *
+     * @param index row to access
+     * @return numeric value, or NaN if it is missing or does not have a simple numeric value
+     */
+    double numericValue(int index);
+
     /**
      * Sets the value at an index. If the provider cannot set the value, we
      * convert to a new provider, set the value in that and then return the new one
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.values;
+
+/**
+ * A reordering of a lazy provider, which creates the reordered data only when it is first used
+ */
+class ReorderedLazyProvider extends LazyProvider {
+
+    private final LazyProvider base;
+    private final int[] order;
+
+    ReorderedLazyProvider(LazyProvider base, int[] order) {
+        super(order.length, 24 + 4 * order.length);
+        this.base = base;
+        this.order = order;
+    }
+
+    protected Provider decode() {
+        return ReorderedProvider.make(base.provider(), order);
+    }
+}
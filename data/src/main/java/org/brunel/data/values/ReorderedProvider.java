@@ -16,10 +16,56 @@
 
 package org.brunel.data.values;
 
+import java.util.Date;
 import java.util.HashMap;
 
 public class ReorderedProvider implements Provider {
 
+    /**
+     * Create a provider that returns the values of the base provider in a new order.
+     * A reordering of a reordering is combined into a single index on the underlying data, so each access is a
+     * single lookup. When the order selects only a small part of a large column, the selected values are copied
+     * instead, so the base data does not need to be kept
+     *
+     * @param base  the provider to reorder
+     * @param order the rows of the base to use
+     * @return provider for the reordered data
+     */
+    public static Provider make(Provider base, int[] order) {
+        if (base instanceof ConstantProvider)
+            return new ConstantProvider(order.length == 0 ? null : base.value(order[0]), order.length);
+        if (base instanceof DictionaryProvider)
+            return ((DictionaryProvider) base).reorder(order);
+        if (base instanceof LazyProvider)
+            return ((LazyProvider) base).reorder(order);
+        if (base instanceof ReorderedProvider) {
+            ReorderedProvider reordered = (ReorderedProvider) base;
+            int[] combined = new int[order.length];
+            for (int i = 0; i < combined.length; i++) combined[i] = reordered.order[order[i]];
+            base = reordered.base;
+            order = combined;
+        }
+        if (order.length * 4 <= base.count()) {
+            // A small selection: copy the data
+            if (base instanceof DoubleColumnProvider) {
+                double[] data = new double[order.length];
+                for (int i = 0; i < data.length; i++) data[i] = base.numericValue(order[i]);
+                return new DoubleColumnProvider(data);
+            }
+            if (base instanceof DateColumnProvider) {
+                Date[] data = new Date[order.length];
+                for (int i = 0; i < data.length; i++) data[i] = (Date) base.value(order[i]);
+                return new DateColumnProvider(data);
+            }
+            if (base instanceof ColumnProvider || base instanceof StackedProvider) {
+                Object[] data = new Object[order.length];
+                for (int i = 0; i < data.length; i++) data[i] = base.value(order[i]);
+                return new ColumnProvider(data);
+            }
+        }
+        return new ReorderedProvider(base, order);
+    }
+
     private final Provider base;
     private final int[] order;
 
@@ -40,6 +86,14 @@ public class ReorderedProvider implements Provider {
         return 24 + order.length * 4 + base.expectedSize();
     }
 
+    public boolean isNull(int index) {
+        return base.isNull(order[index]);
+    }
+
+    public double numericValue(int index) {
+        return base.numericValue(order[index]);
+    }
+
     public Provider setValue(Object o, int index) {
         return ColumnProvider.copy(this).setValue(o, index);
     }
@@ -34,6 +34,14 @@ public class RowProvider implements Provider {
         return 24;
     }
 
+    public boolean isNull(int index) {
+        return false;
+    }
+
+    public double numericValue(int index) {
+        return index + 1;
+    }
+
     public Provider setValue(Object o, int index) {
         return ColumnProvider.copy(this).setValue(o, index);
     }
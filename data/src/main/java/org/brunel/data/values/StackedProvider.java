@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.values;
+
+import org.brunel.data.Data;
+
+import java.util.HashMap;
+
+/**
+ * Presents several providers, all with the same number of rows, as a single column with each one's rows
+ * following on after the previous one's. No data is copied; a row is found by arithmetic on the index
+ */
+public class StackedProvider implements Provider {
+
+    /**
+     * Create a provider that stacks the parts one after another.
+     * If every part is the same constant, the result is just a longer constant
+     *
+     * @param parts providers to stack, each of the same length
+     * @return provider for the stacked data
+     */
+    public static Provider make(Provider[] parts) {
+        int n = parts.length == 0 ? 0 : parts[0].count();
+        boolean constant = true;
+        for (Provider p : parts) {
+            if (p.count() != n) throw new IllegalArgumentException("Stacked providers must have the same length");
+            if (!(p instanceof ConstantProvider) || p.value(0) != parts[0].value(0)) constant = false;
+        }
+        if (constant && n > 0) return new ConstantProvider(parts[0].value(0), n * parts.length);
+        return new StackedProvider(parts, n);
+    }
+
+    private final Provider[] parts;
+    private final int n;                        // The number of rows in each part
+
+    private StackedProvider(Provider[] parts, int n) {
+        this.parts = parts;
+        this.n = n;
+    }
+
+    public int compareRows(int a, int b, HashMap<Object, Integer> categoryOrder) {
+        int i = (int) (a / n), j = (int) (b / n);
+        if (i == j) return parts[i].compareRows(a - i * n, b - j * n, categoryOrder);
+
+        // Rows in different parts are compared by value, as in ColumnProvider
+        Object p = parts[i].value(a - i * n);
+        Object q = parts[j].value(b - j * n);
+        if (p == q) return 0;
+        if (p == null) return 1;
+        if (q == null) return -1;
+        if (categoryOrder == null || categoryOrder.isEmpty())
+            return Data.compare(p, q);
+        else
+            return categoryOrder.get(p) - categoryOrder.get(q);
+    }
+
+    public int count() {
+        return n * parts.length;
+    }
+
+    public int expectedSize() {
+        // The same part may be used many times, but it only takes space once
+        int total = 24 + 4 * parts.length;
+        for (int i = 0; i < parts.length; i++) {
+            boolean repeated = false;
+            for (int j = 0; j < i && !repeated; j++) repeated = parts[j] == parts[i];
+            if (!repeated) total += parts[i].expectedSize();
+        }
+        return total;
+    }
+
+    public boolean isNull(int index) {
+        int i = (int) (index / n);
+        return parts[i].isNull(index - i * n);
+    }
+
+    public double numericValue(int index) {
+        int i = (int) (index / n);
+        return parts[i].numericValue(index - i * n);
+    }
+
+    public Provider setValue(Object o, int index) {
+        return ColumnProvider.copy(this).setValue(o, index);
+    }
+
+    public Object value(int index) {
+        int i = (int) (index / n);
+        return parts[i].value(index - i * n);
+    }
+
+}
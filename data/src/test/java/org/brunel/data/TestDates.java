@@ -21,7 +21,17 @@ import org.brunel.data.util.DateUnit;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 
@@ -106,6 +116,70 @@ public class TestDates {
         assertEquals(true, t1 -t0 < 100);
     }
 
+    @Test
+    public void testColumnParsing() {
+        Field f = Data.makeColumnField("a", null, new Object[]{"1/2/88", "3/4/1999 12:30", null, "", "June 3, 2001", "12:15"});
+        Field d = Data.toDate(f);
+        assertEquals(true, d.isDate());
+        for (int i = 0; i < f.rowCount(); i++)
+            assertEquals(Data.asDate(f.value(i)), d.value(i));
+        assertEquals(4, d.valid());
+    }
+
+    @Test
+    public void testColumnParsingWithoutSeconds() {
+        Field f = Data.makeColumnField("a", null, new Object[]{"2020-01-05 10:20", "2021-03-07 11:45", "2019-12-31 23:59"});
+        Field d = Data.toDate(f);
+        assertEquals(true, d.isDate());
+        for (int i = 0; i < f.rowCount(); i++)
+            assertEquals(Data.asDate(f.value(i)), d.value(i));
+        assertEquals("Jan 5, 2020", DateFormat.YearMonthDay.format((Date) d.value(0)));
+        assertEquals("Dec 31, 2019", DateFormat.YearMonthDay.format((Date) d.value(2)));
+    }
+
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        final String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss", "MMM d, yyyy", "M/d/yyyy H:mm", "HH:mm:ss"};
+        final Field[] fields = new Field[16];
+        final Date[][] expected = new Date[fields.length][];
+        Random random = new Random(12345);
+        for (int i = 0; i < fields.length; i++) {
+            SimpleDateFormat format = new SimpleDateFormat(patterns[i % patterns.length], Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            Object[] values = new Object[5000];
+            for (int j = 0; j < values.length; j++)
+                values[j] = format.format(new Date(random.nextInt(2000000000) * 1000L));
+            fields[i] = Data.makeColumnField("f" + i, null, values);
+            expected[i] = new Date[values.length];
+            for (int j = 0; j < values.length; j++) expected[i][j] = format.parse((String) values[j]);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int repeat = 0; repeat < 4; repeat++)
+                for (int i = 0; i < fields.length; i++) {
+                    final int index = i;
+                    final boolean byColumn = repeat % 2 == 0;
+                    results.add(executor.submit(new Callable<Integer>() {
+                        public Integer call() {
+                            Field f = fields[index];
+                            int errors = 0;
+                            Field dates = byColumn ? Data.toDate(f) : null;
+                            for (int j = 0; j < f.rowCount(); j++) {
+                                Object d = byColumn ? dates.value(j) : Data.asDate(f.value(j));
+                                if (!expected[index][j].equals(d)) errors++;
+                            }
+                            return errors;
+                        }
+                    }));
+                }
+            for (Future<Integer> result : results) assertEquals(0, result.get().intValue());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testEnum() {
         assertEquals(10, DateUnit.values().length);
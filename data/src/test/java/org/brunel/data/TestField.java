@@ -16,12 +16,16 @@
 
 package org.brunel.data;
 
+import org.brunel.data.summary.FieldRowComparison;
 import org.brunel.data.util.DateUnit;
+import org.brunel.data.util.Range;
 import org.brunel.translator.JSTranslation;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Random;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
@@ -276,4 +280,56 @@ public class TestField {
         assertEquals(2, b.numericProperty("granularity"), 0.01);
     }
 
+    @Test
+    @JSTranslation(ignore = true)
+    public void testSinglePassMoments() {
+        // Compare to the simple two-pass calculations, using data with a large offset
+        Random random = new Random(17);
+        Object[] data = new Object[1000];
+        for (int i = 0; i < data.length; i++) data[i] = i % 10 == 0 ? null : 1e6 + random.nextGaussian() * 5;
+        Field f = Data.makeColumnField("a", null, data);
+
+        double sum = 0, n = 0;
+        for (Object o : data) if (o != null) {
+            sum += (Double) o;
+            n++;
+        }
+        double mean = sum / n, s2 = 0, s3 = 0, s4 = 0;
+        for (Object o : data) if (o != null) {
+            double d = (Double) o - mean;
+            s2 += d * d;
+            s3 += d * d * d;
+            s4 += d * d * d * d;
+        }
+        double variance = s2 / (n - 1);
+        assertEquals(mean, f.numericProperty("mean"), 0.0);
+        assertEquals(variance, f.numericProperty("variance"), 1e-9);
+        assertEquals(s3 / (n - 1) / variance / Math.sqrt(variance), f.numericProperty("skew"), 1e-9);
+        assertEquals(s4 / (n - 1) / variance / variance - 3, f.numericProperty("kurtosis"), 1e-9);
+    }
+
+    @Test
+    @JSTranslation(ignore = true)
+    public void testSortedNumericRows() {
+        Field f = Data.makeColumnField("a", null, new Object[]{3, null, 1, 2.0, 3, 1, null, 2});
+        f.set("numeric", true);
+        assertEquals("[2, 5, 3, 7, 0, 4, 1, 6]", Arrays.toString(f.sortedNumericRows()));
+        assertTrue(f.sortedNumericRows() == f.sortedNumericRows());
+
+        // Sorting by the field uses the cached order, including descending
+        FieldRowComparison descending = new FieldRowComparison(new Field[]{f}, new boolean[]{false}, true);
+        assertEquals("[1, 6, 0, 4, 3, 7, 2, 5]", Arrays.toString(descending.makeSortedOrder(8)));
+
+        // Order statistics are calculated from the sorted data
+        assertEquals(2, f.numericProperty("median"), 0.01);
+        assertEquals(1, f.numericProperty("granularity"), 0.01);
+
+        // Ranges do not have a single value, so cannot be ordered this way
+        Field r = Data.makeColumnField("r", null, new Object[]{Range.make(1.0, 3.0), 2, 7});
+        assertEquals(null, r.sortedNumericRows());
+        assertEquals(2.5, r.numericProperty("median"), 0.01);
+        assertEquals(1, r.numericProperty("min"), 0.01);
+        assertEquals(7, r.numericProperty("max"), 0.01);
+    }
+
 }
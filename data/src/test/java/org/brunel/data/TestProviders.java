@@ -16,9 +16,20 @@
 
 package org.brunel.data;
 
+import org.brunel.data.values.ConstantProvider;
+import org.brunel.data.values.DateColumnProvider;
+import org.brunel.data.values.DictionaryProvider;
+import org.brunel.data.values.DoubleColumnProvider;
+import org.brunel.data.values.ReorderedProvider;
+import org.brunel.data.values.RowProvider;
+import org.brunel.data.values.StackedProvider;
 import org.junit.Test;
 
+import java.util.Date;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class TestProviders {
 
@@ -68,4 +79,181 @@ public class TestProviders {
         assertEquals("1, 2, 3, 4", Data.join(a.categories()));
     }
 
+    @Test
+    public void testDoubleColumn() {
+        Field a = Data.toNumeric(Data.makeColumnField("a", "b", new Object[]{"3", null, "1.5", "x", "-2"}));
+        assertEquals(true, a.isNumeric());
+        assertEquals(5, a.rowCount());
+        assertEquals(3.0, a.value(0));
+        assertEquals(null, a.value(1));
+        assertEquals(null, a.value(3));
+        assertEquals(true, a.isNull(1));
+        assertEquals(false, a.isNull(2));
+        assertEquals(1.5, a.numericValue(2), 1e-9);
+        assertEquals(Double.NaN, a.numericValue(3), 1e-9);
+        assertEquals(3, a.numericProperty("validNumeric"), 0.001);
+        assertEquals(2.5 / 3, a.numericProperty("mean"), 0.001);
+        assertEquals("-2, 1.5, 3", Data.join(a.categories()));
+
+        // Nulls sort last
+        assertEquals(true, a.compareRows(4, 2) < 0);
+        assertEquals(true, a.compareRows(1, 0) > 0);
+        assertEquals(0, a.compareRows(1, 3));
+
+        // Setting a value converts to a general column
+        Field b = new Field("b", null, new DoubleColumnProvider(new double[]{1, 2, 3}));
+        b.setValue("foo", 1);
+        assertEquals("foo", b.value(1));
+        assertEquals(3.0, b.value(2));
+    }
+
+    @Test
+    public void testDateColumn() {
+        Date d1 = new Date(86400000L * 10);
+        Date d2 = new Date(86400000L * 5);
+        Field a = new Field("a", null, new DateColumnProvider(new Date[]{d1, null, d2}));
+        assertEquals(d1, a.value(0));
+        assertEquals(null, a.value(1));
+        assertEquals(true, a.isNull(1));
+        assertEquals(10.0, a.numericValue(0), 1e-9);
+        assertEquals(Double.NaN, a.numericValue(1), 1e-9);
+        assertEquals(true, a.compareRows(2, 0) < 0);
+        assertEquals(true, a.compareRows(1, 0) > 0);
+
+        Field b = Data.toDate(Data.makeColumnField("b", null, new Object[]{"2015-01-01", "", "2014-06-30"}));
+        assertEquals(true, b.isDate());
+        assertEquals(true, b.isNull(1));
+        assertEquals(Data.asNumeric(Data.asDate("2015-01-01")), b.numericValue(0), 1e-9);
+    }
+
+    @Test
+    public void testDictionary() {
+        Field a = new Field("a", "b", DictionaryProvider.make(new Object[]{"b", "a", null, "c", "a", "b", "a"}));
+        assertEquals("a, b, c", Data.join(a.dictionary()));
+        assertEquals(1, a.dictionaryCode(0));
+        assertEquals(-1, a.dictionaryCode(2));
+        assertEquals("c", a.value(3));
+        assertEquals(null, a.value(2));
+        assertEquals(true, a.isNull(2));
+
+        assertEquals(6, a.numericProperty("valid"), 0.001);
+        assertEquals(3, a.numericProperty("unique"), 0.001);
+        assertEquals("a", a.property("mode"));
+        assertEquals("a, b, c", Data.join(a.categories()));
+
+        // Nulls sort last
+        assertEquals(true, a.compareRows(1, 0) < 0);
+        assertEquals(true, a.compareRows(2, 3) > 0);
+        assertEquals(0, a.compareRows(1, 4));
+
+        // Permuting keeps the dictionary
+        Field c = Data.permute(a, new int[]{3, 3, 2, 0}, false);
+        assertEquals("c, c, ?, b", c.valueFormatted(0) + ", " + c.valueFormatted(1) + ", "
+                + c.valueFormatted(2) + ", " + c.valueFormatted(3));
+        assertSame(a.dictionary(), c.dictionary());
+        assertEquals(2, c.numericProperty("unique"), 0.001);
+
+        // A defined category order is used for comparisons
+        Field b = new Field("b", null, DictionaryProvider.make(new Object[]{"b", "a", "c"}));
+        b.setCategories(new Object[]{"c", "b", "a"});
+        assertEquals(true, b.compareRows(1, 0) > 0);
+        assertEquals(true, b.compareRows(2, 0) < 0);
+        assertEquals(2, b.dictionaryRanks()[0]);
+    }
+
+    @Test
+    public void testDictionaryFromIndices() {
+        Field a = Data.makeIndexedColumnField("a", null, new Object[]{3.0, null, 1.0}, new int[]{0, 1, 2, 0, 2, 2});
+        assertEquals("1, 3", Data.join(a.dictionary()));
+        assertEquals(3.0, a.value(0));
+        assertEquals(null, a.value(1));
+        assertEquals(1.0, a.value(2));
+        assertEquals(1.0, a.numericValue(4), 1e-9);
+        assertEquals(Double.NaN, a.numericValue(1), 1e-9);
+    }
+
+    @Test
+    public void testPermuteComposition() {
+        Field a = Data.makeIndexingField("a", null, 100);
+        int[] reverse = new int[100], shift = new int[100];
+        for (int i = 0; i < 100; i++) {
+            reverse[i] = 99 - i;
+            shift[i] = (i + 10) % 100;
+        }
+
+        // A permutation of a permutation uses one index on the base data
+        Field b = Data.permute(Data.permute(a, reverse, true), shift, true);
+        assertTrue(b.provider instanceof ReorderedProvider);
+        assertEquals(a.provider.expectedSize() + 24 + 4 * 100, b.provider.expectedSize());
+        assertEquals(90, b.value(0));
+        assertEquals(1, b.value(89));
+        assertEquals(100, b.value(90));
+
+        // Constants stay constant
+        Field c = Data.permute(Data.makeConstantField("c", null, "x", 100), shift, false);
+        assertEquals(24, c.provider.expectedSize());
+        assertEquals("x", c.value(50));
+    }
+
+    @Test
+    public void testPermuteCompactsSmallSelections() {
+        double[] data = new double[1000];
+        for (int i = 0; i < data.length; i++) data[i] = i % 7 == 0 ? Double.NaN : i;
+        Field a = new Field("a", null, new DoubleColumnProvider(data));
+        a.set("numeric", true);
+
+        // Keeping most of the rows just reorders
+        int[] most = new int[900];
+        for (int i = 0; i < most.length; i++) most[i] = i + 100;
+        assertTrue(Data.permute(a, most, false).provider instanceof ReorderedProvider);
+
+        // A small selection is copied
+        Field b = Data.permute(Data.permute(a, most, false), new int[]{0, 4, 5}, false);
+        assertTrue(b.provider instanceof DoubleColumnProvider);
+        assertEquals(3, b.rowCount());
+        assertEquals(100.0, b.value(0));
+        assertEquals(104.0, b.value(1));
+        assertEquals(null, b.value(2));
+        assertEquals(true, b.isNumeric());
+
+        // Row indexing does not hold data, so is reordered as usual
+        Field c = new Field("c", null, new RowProvider(1000));
+        assertTrue(Data.permute(c, new int[]{5}, false).provider instanceof ReorderedProvider);
+    }
+
+    @Test
+    public void testStacked() {
+        Field a = new Field("a", null, new DoubleColumnProvider(new double[]{3, Double.NaN, 1}));
+        Field b = Data.makeColumnField("b", null, new Object[]{"x", 2.0, null});
+        Field s = Data.makeStackedField("s", null, new Field[]{a, b, a});
+        assertTrue(s.provider instanceof StackedProvider);
+        assertEquals(9, s.rowCount());
+        assertEquals("3, ?, 1, x, 2, ?, 3, ?, 1", Data.join(new Object[]{s.value(0), s.value(1), s.value(2),
+                s.value(3), s.value(4), s.value(5), s.value(6), s.value(7), s.value(8)}).replace("null", "?"));
+        assertEquals(true, s.isNull(5));
+        assertEquals(false, s.isNull(6));
+        assertEquals(2.0, s.numericValue(4), 1e-9);
+        assertEquals(Double.NaN, s.numericValue(3), 1e-9);
+
+        // Within a part and across parts, with missing values last
+        assertTrue(s.compareRows(0, 2) > 0);
+        assertTrue(s.compareRows(2, 4) < 0);
+        assertTrue(s.compareRows(5, 0) > 0);
+        assertEquals(0, s.compareRows(0, 6));
+
+        // The repeated part is only counted once
+        assertEquals(24 + 4 * 3 + a.provider.expectedSize() + b.provider.expectedSize(), s.provider.expectedSize());
+
+        // Setting a value makes a copy rather than changing the parts
+        s.setValue("y", 8);
+        assertEquals("y", s.value(8));
+        assertEquals(1.0, a.value(2));
+
+        // Stacking the same constant is just a longer constant
+        Field c = Data.makeConstantField("c", null, "z", 4);
+        Field t = Data.makeStackedField("t", null, new Field[]{c, c, c});
+        assertTrue(t.provider instanceof ConstantProvider);
+        assertEquals(12, t.rowCount());
+    }
+
 }
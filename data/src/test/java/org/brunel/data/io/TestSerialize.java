@@ -23,12 +23,17 @@ import org.brunel.data.Field;
 import org.brunel.translator.JSTranslation;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
 
 import static junit.framework.TestCase.assertEquals;
@@ -107,7 +112,7 @@ public class TestSerialize {
     public void testWhiskeyDataset() {
         Dataset dataset = Dataset.make(CSV.read(CannedData.whiskey));
         byte[] bytes = Serialize.serializeDataset(dataset);
-        assertEquals(2019, bytes.length);
+        assertEquals(2293, bytes.length);
         assertEquals(Serialize.VERSION, bytes[0]);
 
         Dataset d = (Dataset) Serialize.deserialize(bytes);
@@ -121,7 +126,7 @@ public class TestSerialize {
         String DATA = "a,b\n,";
         Dataset dataset = Dataset.make(CSV.read(DATA));
         byte[] bytes = Serialize.serializeDataset(dataset);
-        assertEquals("6 1 1 2 2 97 0 65 0 1 4 3 1 0 2 98 0 66 0 1 4 3 1 0", dump(bytes));
+        assertEquals("6 2 1 0 0 0 2 0 0 0 10 2 97 0 65 0 1 4 1 0 0 0 0 0 10 2 98 0 66 0 1 4 1 0 0", dump(bytes));
     }
 
     @Test
@@ -129,18 +134,140 @@ public class TestSerialize {
         String DATA = "a,b\n,\n\u00e9,1.23456789e-213\n\u2026,NaN";
         Dataset dataset = Dataset.make(CSV.read(DATA));
         byte[] bytes = Serialize.serializeDataset(dataset);
-        assertEquals("6 1 1 2 2 97 0 65 0 3 4 3 195 169 0 226 128 166 0 3 0 1 2 2 98 0 " +
-                "66 0 3 4 3 49 46 50 51 52 53 54 55 56 57 101 45 50 49 51 0 78 97 78 0 3 0 1 2", dump(bytes));
+        assertEquals("6 2 1 0 0 0 2 0 0 0 18 2 97 0 65 0 3 4 3 2 195 169 0 226 128 166 0 2 18 0 0 0 31 2 98 0 " +
+                "66 0 3 4 3 2 49 46 50 51 52 53 54 55 56 57 101 45 50 49 51 0 78 97 78 0 2 18", dump(bytes));
+    }
+
+    @Test
+    public void testReadFirstVersion() {
+        Dataset d = (Dataset) Serialize.deserialize(bytes("6 1 1 2 2 97 0 65 0 3 4 3 195 169 0 226 128 166 0 3 0 1 2 " +
+                "2 98 0 66 0 3 4 3 49 46 50 51 52 53 54 55 56 57 101 45 50 49 51 0 78 97 78 0 3 0 1 2"));
+        assertEquals(3, d.rowCount());
+        assertEquals(null, d.field("a").value(0));
+        assertEquals("\u00e9", d.field("a").value(1));
+        assertEquals("NaN", d.field("b").value(2));
+
+        Field f = (Field) Serialize.deserialize(bytes("2 97 0 98 0 3 3 1 2 254 45 49 46 53 0 4 0 1 2 1"));
+        assertEquals(true, f.isNumeric());
+        assertEquals(4, f.rowCount());
+        assertEquals(-1.5, f.value(2));
+        assertEquals(2, f.value(3));
+    }
+
+    @Test
+    public void testNumbersAreExact() {
+        Field a = Data.makeColumnField("a", null, new Object[]{Math.PI, null, 1e-300, -0.1, Math.PI, 300000.0, null});
+        a = Data.toNumeric(a);
+        Field b = (Field) Serialize.deserialize(Serialize.serializeField(a));
+        assertEquals(a.rowCount(), b.rowCount());
+        for (int i = 0; i < a.rowCount(); i++) {
+            Number v = (Number) a.value(i);
+            if (v == null) assertEquals(null, b.value(i));
+            else assertEquals(v.doubleValue(), ((Number) b.value(i)).doubleValue(), 0.0);
+        }
+    }
+
+    @JSTranslation(ignore = true)
+    @Test
+    public void testStreamsAndBuffers() throws Exception {
+        // Large enough to decode in parallel
+        int n = 200000;
+        Object[] a = new Object[n], b = new Object[n], c = new Object[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i % 1000 == 0 ? null : (double) i;
+            b[i] = "item " + (i % 37);
+            c[i] = new Date(86400000L * (i % 5000));
+        }
+        Dataset dataset = Dataset.make(new Field[]{Data.toNumeric(Data.makeColumnField("a", null, a)),
+                Data.makeColumnField("b", null, b), Data.toDate(Data.makeColumnField("c", null, c))}, false);
+        byte[] bytes = Serialize.serializeDataset(dataset);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Serialize.serializeDataset(dataset, out);
+        assertTrue(Arrays.equals(bytes, out.toByteArray()));
+
+        byte[] padded = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, padded, 5, bytes.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        buffer.position(5);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        Dataset[] copies = new Dataset[]{(Dataset) Serialize.deserialize(bytes),
+                (Dataset) Serialize.deserialize(new ByteArrayInputStream(bytes)),
+                (Dataset) Serialize.deserialize(buffer), (Dataset) Serialize.deserialize(direct)};
+        for (Dataset copy : copies) {
+            assertEquals(n, copy.rowCount());
+            for (String name : new String[]{"a", "b", "c"})
+                for (int i = 0; i < n; i += 997)
+                    assertEquals(dataset.field(name).value(i), copy.field(name).value(i));
+            assertTrue(copy.field("c").isDate());
+        }
+
+        // Streams in the first format are still read
+        InputStream first = new ByteArrayInputStream(bytes("6 1 1 2 2 97 0 65 0 1 4 3 1 0 2 98 0 66 0 1 4 3 1 0"));
+        assertEquals(1, ((Dataset) Serialize.deserialize(first)).rowCount());
     }
 
     @Test
     public void testBankDataset() {
         Dataset dataset = Dataset.make(CSV.read(CannedData.bank));
         byte[] bytes = Serialize.serializeDataset(dataset);
-        assertEquals(591, bytes.length);
+        assertEquals(867, bytes.length);
         assertEquals(Serialize.VERSION, bytes[0]);
     }
 
+    @JSTranslation(ignore = true)
+    @Test
+    public void testLazyDeserialization() {
+        // Only the used fields are decoded, even after filtering and sorting
+        Dataset data = (Dataset) Serialize.deserializeLazily(corruptedDataset());
+        assertEquals(43, data.fields.length);
+        assertEquals(1000, data.rowCount());
+        assertEquals(true, data.field("f1").isNumeric());
+        assertEquals(false, data.field("f2").isNumeric());
+        Dataset result = data.filter("f1 in 0,1").sortRows("f2");
+        assertEquals(667, result.rowCount());
+        assertEquals("v0", result.field("f2").value(0));
+        assertEquals(13, result.field("f2").dictionary().length);
+        assertEquals(1.0, result.field("f1").max(), 1e-9);
+    }
+
+    @JSTranslation(ignore = true)
+    @Test(expected = IllegalStateException.class)
+    public void testEagerDeserializationReadsAllFields() {
+        Serialize.deserialize(corruptedDataset());
+    }
+
+    /* A dataset of 40 fields where all but f1 and f2 are corrupted by giving them a missing unique count */
+    @JSTranslation(ignore = true)
+    private byte[] corruptedDataset() {
+        Field[] fields = new Field[40];
+        for (int i = 0; i < fields.length; i++) {
+            Object[] values = new Object[1000];
+            for (int j = 0; j < values.length; j++) values[j] = i % 2 == 0 ? "v" + (j * i % 13) : (double) (j % (i + 2));
+            fields[i] = Data.makeColumnField("f" + i, null, values);
+            if (i % 2 == 1) fields[i] = Data.toNumeric(fields[i]);
+        }
+        byte[] bytes = Serialize.serializeDataset(Dataset.make(fields, false));
+
+        ByteInput d = new ByteInput(bytes);
+        d.seek(3);
+        int n = d.readInt();
+        for (int i = 0; i < n; i++) {
+            int size = d.readInt();
+            int start = d.position();
+            d.readByte();
+            d.readString();
+            d.readString();
+            d.readNumber();
+            d.readByte();
+            if (i != 1 && i != 2) bytes[d.position()] = (byte) 255;
+            d.seek(start + size);
+        }
+        return bytes;
+    }
+
     @Test
     public void testEncodingsByte() {
         byte[] bytes;
@@ -202,6 +329,39 @@ public class TestSerialize {
         assertEquals(-1024.0, new ByteInput(bytes).readNumber());
     }
 
+    @Test
+    public void testEncodingsDoubleAndInt() {
+        byte[] bytes;
+
+        bytes = new ByteOutput().addDouble(1.5).asBytes();
+        assertEquals("63 248 0 0 0 0 0 0", dump(bytes));
+        assertEquals(1.5, new ByteInput(bytes).readDouble());
+
+        bytes = new ByteOutput().addDouble(-1e-300).asBytes();
+        assertEquals(-1e-300, new ByteInput(bytes).readDouble());
+
+        bytes = new ByteOutput().addInt(258).addInt(-2).asBytes();
+        assertEquals("0 0 1 2 255 255 255 254", dump(bytes));
+        ByteInput input = new ByteInput(bytes);
+        assertEquals(258, input.readInt());
+        assertEquals(-2, input.readInt());
+    }
+
+    @Test
+    public void testEncodingsPacked() {
+        int[] values = new int[]{0, 1, 2, 3, 4, 5, 6, 7, 1, 1};
+        byte[] bytes = new ByteOutput().addPacked(values, values.length, 3).asBytes();
+        assertEquals("136 198 250 9", dump(bytes));
+        assertTrue(Arrays.equals(values, new ByteInput(bytes).readPacked(values.length, 3)));
+
+        values = new int[]{0, 1000000, 123456, 2097151};
+        bytes = new ByteOutput().addPacked(values, values.length, 21).asBytes();
+        assertEquals(11, bytes.length);
+        assertTrue(Arrays.equals(values, new ByteInput(bytes).readPacked(values.length, 21)));
+
+        assertEquals(0, new ByteOutput().addPacked(new int[5], 5, 0).asBytes().length);
+    }
+
     @Test
     public void testEncodingsString() {
         byte[] bytes;
@@ -270,6 +430,13 @@ public class TestSerialize {
 
     }
 
+    private byte[] bytes(String dump) {
+        String[] parts = dump.split(" ");
+        byte[] bytes = new byte[parts.length];
+        for (int i = 0; i < parts.length; i++) bytes[i] = (byte) Integer.parseInt(parts[i]);
+        return bytes;
+    }
+
     private String dump(byte[] bytes) {
         String b = "";
         for (int i = 0; i < bytes.length; i++) {
@@ -24,6 +24,9 @@ import org.brunel.data.io.CSV;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
+
 import static org.junit.Assert.assertEquals;
 
 public class TestCSV {
@@ -182,4 +185,134 @@ public class TestCSV {
         Assert.assertEquals("d", data[2][2]);
     }
 
+    @Test
+    public void testStreamMatchesString() throws IOException {
+        assertSameData(CannedData.bank);
+        assertSameData(CannedData.whiskey);
+        assertSameData(NASTY);
+        assertSameData(SIMPLE);
+        assertSameData(SIMPLE_TABS);
+        assertSameData("A, B\n a, b\ng,\" h \"\nx,\n \n RANDOM TEXT TO BE IGNORED");
+    }
+
+    @Test
+    public void testStreamLargeData() throws IOException {
+        // Enough data to need several buffers, with quoted text crossing the buffer boundaries
+        StringBuilder b = new StringBuilder("id,value,text\n");
+        for (int i = 0; i < 20000; i++)
+            b.append(i).append(',').append(i * 0.25 - 3).append(",\"t\"\"").append(i % 7).append("\"\n");
+        assertSameData(b.toString());
+
+        Field[] fields = CSV.read(new StringReader(b.toString()));
+        assertEquals(20000, fields[0].rowCount());
+        assertEquals(true, fields[1].isNumeric());
+        assertEquals(-2.75, fields[1].value(1));
+        assertEquals("t\"3", fields[2].value(10));
+    }
+
+    @Test
+    public void testStreamTypes() throws IOException {
+        Field[] fields = CSV.read(new StringReader("a,b,c,d\n1,x,,7\n2.5,y,,-0.25\nfoo,z,,\n1e3,w,,1e3"));
+        assertEquals(false, fields[0].isNumeric());
+        assertEquals(false, fields[1].isNumeric());
+        assertEquals(false, fields[2].isNumeric());
+        assertEquals(true, fields[3].isNumeric());
+        assertEquals("2.5", fields[0].value(1));
+        assertEquals("foo", fields[0].value(2));
+        assertEquals("1e3", fields[0].value(3));
+        assertEquals(null, fields[2].value(1));
+        assertEquals(-0.25, fields[3].value(1));
+        assertEquals(null, fields[3].value(2));
+        assertEquals(1000.0, fields[3].value(3));
+        assertSameData("a,b,c,d\n1,x,,7\n2.5,y,,-0.25\nfoo,z,,\n1e3,w,,1e3");
+    }
+
+    @Test
+    public void testNumbersFollowedByText() throws IOException {
+        // Numbers written in many ways, then text well after the sampled rows
+        String[] numbers = {"0", "12", "-3.5", "1.50", "007", "+4", ".5", "2.", "-0", "1e3", " \" 8 \"", "123456789012.345"};
+        StringBuilder b = new StringBuilder("value,other\n");
+        for (int i = 0; i < 60000; i++) b.append(numbers[i % numbers.length]).append(",x").append(i).append('\n');
+        for (int i = 0; i < 800; i++) b.append("abc").append(i).append(",y\n");
+        String text = b.toString();
+
+        Field[] parsed = CSV.read(text);
+        Field[] streamed = CSV.read(new StringReader(text));
+        Field[] parallel = CSV.readParallel(text);
+        assertEquals(false, streamed[0].isNumeric());
+        assertEquals(60800, streamed[0].valid());
+        for (int r = 0; r < parsed[0].rowCount(); r++) {
+            assertEquals(parsed[0].value(r), streamed[0].value(r));
+            assertEquals(parsed[0].value(r), parallel[0].value(r));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStreamBadLine() throws IOException {
+        CSV.read(new StringReader("a,b\n1,2\n3,4,5\n"));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        // Large enough to be split into many chunks, with quoted line breaks and mixed line endings
+        StringBuilder b = new StringBuilder("id,value,text,code\n");
+        for (int i = 0; i < 60000; i++) {
+            b.append(i).append(',').append(i % 100 == 0 ? "" : String.valueOf(i * 0.5)).append(',');
+            b.append(i % 3 == 0 ? "\"line\nbreak \"\"" + (i % 11) + "\"\"\"" : "plain" + (i % 13));
+            b.append(',').append(i % 17 == 0 ? "A" : "B").append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        String text = b.toString();
+        Field[] sequential = CSV.read(new StringReader(text));
+        Field[] parallel = CSV.readParallel(text);
+        assertEquals(60000, parallel[0].rowCount());
+        assertSameFields(sequential, parallel);
+
+        // A blank line ends the data, even if it is in a later chunk
+        String truncated = text.substring(0, text.length() / 2) + "\n\n" + text.substring(text.length() / 2);
+        sequential = CSV.read(new StringReader(truncated));
+        parallel = CSV.readParallel(truncated);
+        assertEquals(true, parallel[0].rowCount() < 60000);
+        assertSameFields(sequential, parallel);
+    }
+
+    @Test
+    public void testParallelBadLine() throws IOException {
+        StringBuilder b = new StringBuilder("a,b\n");
+        for (int i = 0; i < 100000; i++) b.append(i).append(",x\n");
+        b.append("1,2,3\n");
+        try {
+            CSV.readParallel(b.toString());
+            Assert.fail("Expected an exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Line 100002 had 3 entries; expected 2", e.getMessage());
+        }
+    }
+
+    private void assertSameFields(Field[] a, Field[] b) {
+        assertEquals(a.length, b.length);
+        for (int i = 0; i < a.length; i++) {
+            assertEquals(a[i].name, b[i].name);
+            assertEquals(a[i].isNumeric(), b[i].isNumeric());
+            assertEquals(a[i].rowCount(), b[i].rowCount());
+            for (int r = 0; r < a[i].rowCount(); r++)
+                assertEquals(a[i].value(r), b[i].value(r));
+        }
+    }
+
+    private void assertSameData(String text) throws IOException {
+        Dataset a = Dataset.make(CSV.read(text));
+        Dataset b = Dataset.make(CSV.read(new StringReader(text)));
+        assertEquals(a.fields.length, b.fields.length);
+        assertEquals(a.rowCount(), b.rowCount());
+        for (int i = 0; i < a.fields.length; i++) {
+            Field f = a.fields[i], g = b.fields[i];
+            assertEquals(f.name, g.name);
+            assertEquals(f.label, g.label);
+            assertEquals(f.isNumeric(), g.isNumeric());
+            assertEquals(f.isDate(), g.isDate());
+            for (int r = 0; r < f.rowCount(); r++)
+                assertEquals(f.name + "[" + r + "]", 0, Data.compare(f.value(r), g.value(r)));
+        }
+    }
+
 }
@@ -19,10 +19,13 @@ package org.brunel.data.modify;
 import org.brunel.data.CannedData;
 import org.brunel.data.Data;
 import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.values.DoubleColumnProvider;
 import org.brunel.data.io.CSV;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class TestFilter {
 
@@ -118,4 +121,93 @@ public class TestFilter {
         assertEquals("A|B|C|D|#count|#row -- b|x|2|3|1|2 -- c|y|1|2|1|3", CannedData.dump(a));
     }
 
+    @Test
+    public void testNumericStorageGivesSameResults() {
+        // The same values stored as primitives, as objects, and in a dictionary
+        int n = 200;
+        double[] doubles = new double[n];
+        Object[] objects = new Object[n];
+        for (int i = 0; i < n; i++) {
+            doubles[i] = i % 7 == 3 ? Double.NaN : (i * 37) % 50 - 10;
+            objects[i] = Double.isNaN(doubles[i]) ? null : doubles[i];
+        }
+        Field primitive = new Field("x", null, new DoubleColumnProvider(doubles));
+        Field boxed = Data.makeColumnField("x", null, objects);
+        Field coded = Data.makeIndexedColumnField("x", null, boxed.categories(), codes(boxed));
+        for (Field f : new Field[]{primitive, boxed, coded}) f.set("numeric", true);
+        assertNull(primitive.dictionary());
+        assertNull(boxed.dictionary());
+
+        Dataset[] data = new Dataset[]{
+                Dataset.make(new Field[]{primitive}, false),
+                Dataset.make(new Field[]{boxed}, false),
+                Dataset.make(new Field[]{coded}, false)
+        };
+
+        String[] commands = new String[]{"x in -5, 20", "x !in -5, 20", "x is 3, 27, -10", "x !is 3, 27",
+                "x valid", "x !valid", "x ranked 3, 10", "x !ranked 1, 5", "x in 0, 30; x !is 12, 14"};
+        for (String command : commands) {
+            String expected = rows(data[1].filter(command));
+            assertEquals(command, expected, rows(data[0].filter(command)));
+            assertEquals(command, expected, rows(data[2].filter(command)));
+        }
+
+        // Missing values fail even when the test is negated
+        assertEquals("", rows(data[0].filter("x !valid")));
+        assertEquals(n - n / 7 - 1, data[0].filter("x !in 1000, 2000").rowCount());
+    }
+
+    @Test
+    public void testRankedSelectionMatchesSortedOrder() {
+        // Many ties, so the selected edges must match exactly the values found by sorting
+        int n = 500;
+        double[] doubles = new double[n];
+        Object[] text = new Object[n];
+        for (int i = 0; i < n; i++) {
+            doubles[i] = i % 11 == 5 ? Double.NaN : (i * 7919) % 61;
+            text[i] = i % 13 == 2 ? null : "v" + (i * 31) % 40;
+        }
+        Field primitive = new Field("x", null, new DoubleColumnProvider(doubles));
+        primitive.set("numeric", true);
+        Field sortedFirst = new Field("x", null, new DoubleColumnProvider(doubles));
+        sortedFirst.set("numeric", true);
+        sortedFirst.sortedNumericRows();
+        Field objects = Data.makeColumnField("x", null, text);
+        Field coded = Data.makeIndexedColumnField("x", null, objects.categories(), codes(objects));
+
+        String[] commands = new String[]{"x ranked 1,1", "x ranked 3,17", "x ranked 40,1000", "x !ranked 5,400",
+                "x ranked -10,2"};
+        Dataset reference = Dataset.make(new Field[]{sortedFirst}, false);
+        Dataset numbers = Dataset.make(new Field[]{primitive}, false);
+        Dataset strings = Dataset.make(new Field[]{objects}, false);
+        Dataset dictionary = Dataset.make(new Field[]{coded}, false);
+        for (String command : commands) {
+            assertEquals(command, rows(reference.filter(command)), rows(numbers.filter(command)));
+            assertEquals(command, rows(strings.filter(command)), rows(dictionary.filter(command)));
+        }
+
+        // The top item is the largest value (60), which occurs every 61 rows (row numbers are one-based)
+        assertEquals("51, 112, 173, 234, 295, 356, 417, 478", rows(numbers.filter("x ranked 1,1")));
+        // The largest string values
+        assertEquals(rows(strings.filter("x is v9")), rows(strings.filter("x ranked 1,1")));
+    }
+
+    private static int[] codes(Field f) {
+        Object[] categories = f.categories();
+        int[] result = new int[f.rowCount()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = -1;
+            for (int j = 0; j < categories.length; j++)
+                if (Data.compare(f.value(i), categories[j]) == 0) result[i] = j;
+        }
+        return result;
+    }
+
+    private static String rows(Dataset data) {
+        Field rows = data.field("#row");
+        Object[] values = new Object[rows.rowCount()];
+        for (int i = 0; i < values.length; i++) values[i] = rows.value(i);
+        return Data.join(values);
+    }
+
 }
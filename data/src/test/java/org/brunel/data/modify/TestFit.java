@@ -19,10 +19,14 @@ package org.brunel.data.modify;
 import org.brunel.data.CannedData;
 import org.brunel.data.Data;
 import org.brunel.data.Dataset;
+import org.brunel.data.Field;
 import org.brunel.data.io.CSV;
+import org.brunel.data.summary.Smooth;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Random;
+
 public class TestFit {
 
     private static final String csv = Data.join(new String[]{
@@ -54,5 +58,44 @@ public class TestFit {
         Assert.assertEquals("C|X|Y|#count|#row -- a|1|1|1|1 -- a|2|2|1|2 -- b|1|3|1|3 -- b|2|3|1|4 -- b|3|3|1|5", CannedData.dump(a));
     }
 
+    @Test
+    public void testSmoothGrouped() {
+        // Group b is constant, so any smooth is also constant
+        Dataset a = simple.summarize("Y=Y:smooth; X=X:base; C=C");
+        Field c = a.field("C"), y = a.field("Y");
+        for (int i = 0; i < a.rowCount(); i++)
+            if (c.value(i).equals("b")) Assert.assertEquals(3.0, y.value(i));
+        Assert.assertEquals(5, a.rowCount());
+    }
+
+    @Test
+    public void testSmoothEvaluationOrder() {
+        // The window is moved incrementally, so make sure the order we evaluate in does not matter
+        Random random = new Random(7);
+        int n = 500;
+        Object[] x = new Object[n], y = new Object[n];
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextInt(100) / 4.0;
+            y[i] = random.nextGaussian();
+            rows[i] = i;
+        }
+        Field fx = Data.makeColumnField("x", null, x);
+        Field fy = Data.makeColumnField("y", null, y);
+        fx.set("numeric", true);
+        fy.set("numeric", true);
+
+        Smooth forward = new Smooth(fy, fx, 5.0, rows);
+        Smooth backward = new Smooth(fy, fx, 5.0, rows);
+        Smooth jumping = new Smooth(fy, fx, 5.0, rows);
+        Double[] expected = new Double[120];
+        for (int i = 0; i < expected.length; i++) expected[i] = forward.get(i / 4.0 - 2);
+        for (int i = expected.length - 1; i >= 0; i--)
+            Assert.assertEquals(expected[i], backward.get(i / 4.0 - 2));
+        for (int k = 0; k < 1000; k++) {
+            int i = random.nextInt(expected.length);
+            Assert.assertEquals(expected[i], jumping.get(i / 4.0 - 2));
+        }
+    }
 
 }
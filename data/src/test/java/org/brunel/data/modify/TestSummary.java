@@ -21,9 +21,15 @@ import org.brunel.data.Data;
 import org.brunel.data.Dataset;
 import org.brunel.data.Field;
 import org.brunel.data.io.CSV;
+import org.brunel.data.util.Range;
+import org.brunel.data.values.DoubleColumnProvider;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 
 public class TestSummary {
@@ -131,4 +137,63 @@ public class TestSummary {
 
     }
 
+    @Test
+    public void testAccumulatedStatsMatchFieldStats() {
+        // Non-dictionary dimensions (so groups are found by hashing) and a measure with missing values
+        Random random = new Random(31);
+        int n = 3000;
+        Object[] a = new Object[n], b = new Object[n];
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = random.nextInt(10) == 0 ? null : random.nextInt(7);
+            b[i] = random.nextBoolean() ? 1.5 : 2.5;
+            x[i] = random.nextInt(20) == 0 ? Double.NaN : Math.round(random.nextGaussian() * 1000) / 10.0;
+        }
+        Field fa = Data.makeColumnField("a", null, a);
+        Field fb = Data.makeColumnField("b", null, b);
+        Field fx = new Field("x", null, new DoubleColumnProvider(x));
+        fx.set("numeric", true);
+
+        String[] stats = new String[]{"count", "valid", "sum", "mean", "min", "max", "median", "q1", "q3"};
+        String spec = "a=a; b=b";
+        for (String s : stats) spec += "; " + s + "=x:" + s;
+        Dataset result = Summarize.transform(Dataset.make(new Field[]{fa, fb, fx}), spec + "; range=x:range; iqr=x:iqr");
+        assertEquals(16, result.rowCount());
+
+        Field ra = result.field("a"), rb = result.field("b");
+        for (int g = 0; g < result.rowCount(); g++) {
+            // Build the group's data the simple way and check against its statistics
+            List<Object> values = new ArrayList<Object>();
+            for (int i = 0; i < n; i++)
+                if (Data.compare(a[i], ra.value(g)) == 0 && Data.compare(b[i], rb.value(g)) == 0)
+                    values.add(Double.isNaN(x[i]) ? null : x[i]);
+            Field f = Data.makeColumnField("temp", null, values.toArray());
+            assertEquals(values.size(), result.field("count").value(g));
+            assertEquals(f.property("valid"), result.field("valid").value(g));
+            assertEquals(f.numericProperty("mean") * f.numericProperty("valid"), result.field("sum").value(g));
+            for (String s : new String[]{"mean", "min", "max", "median", "q1", "q3"})
+                assertEquals(s, f.property(s), result.field(s).value(g));
+            Range range = (Range) result.field("range").value(g), iqr = (Range) result.field("iqr").value(g);
+            assertEquals(f.property("min"), range.low);
+            assertEquals(f.property("max"), range.high);
+            assertEquals(f.property("q1"), iqr.low);
+            assertEquals(f.property("q3"), iqr.high);
+        }
+
+        // Groups are in sorted order, with nulls last
+        assertEquals(0, ra.value(0));
+        assertEquals(1.5, rb.value(0));
+        assertEquals(null, ra.value(15));
+        assertEquals(2.5, rb.value(15));
+    }
+
+    @Test
+    public void testHashedGroupsMergeEqualValues() {
+        // 1 and 1.0 are different objects, but compare as the same, so must be in the same group
+        Field x = Data.makeColumnField("x", null, new Object[]{1, 2, 1.0, 2, 1});
+        Field y = Data.makeColumnField("y", null, new Object[]{1, 2, 3, 4, 5});
+        Dataset a = Summarize.transform(Dataset.make(new Field[]{x, y}), "x=x; y=y:sum");
+        Assert.assertEquals("x|y|#count|#row -- 1|9|3|1, 3, 5 -- 2|6|2|2, 4", CannedData.dump(a));
+    }
+
 }
@@ -18,8 +18,13 @@ package org.brunel.data.summary;
 
 import org.brunel.data.Data;
 import org.brunel.data.Field;
+import org.brunel.data.values.DictionaryProvider;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 
 public class TestFieldComparison {
@@ -31,4 +36,49 @@ public class TestFieldComparison {
         int[] order = compare.makeSortedOrder(a.rowCount());
         assertEquals("0, 5, 2, 1, 3, 4", Data.join(order));
     }
+
+    @Test
+    public void testSortMatchesFieldComparison() {
+        Random random = new Random(42);
+        int n = 5000;
+        Object[] text = new Object[n], numbers = new Object[n], general = new Object[n];
+        for (int i = 0; i < n; i++) {
+            text[i] = random.nextInt(20) == 0 ? null : "v" + random.nextInt(12);
+            numbers[i] = random.nextInt(20) == 0 ? null : String.valueOf(random.nextInt(50) / 4.0);
+            general[i] = random.nextInt(7);
+        }
+        Field dictionary = new Field("d", null, DictionaryProvider.make(text));
+        Field numeric = Data.toNumeric(Data.makeColumnField("n", null, numbers));
+        Field other = Data.makeColumnField("o", null, general);
+
+        checkSort(new Field[]{dictionary}, null);
+        checkSort(new Field[]{dictionary}, new boolean[]{false});
+        checkSort(new Field[]{numeric}, null);
+        checkSort(new Field[]{numeric}, new boolean[]{false});
+        checkSort(new Field[]{dictionary, numeric}, new boolean[]{true, false});
+        checkSort(new Field[]{numeric, other, dictionary}, new boolean[]{false, true, true});
+        checkSort(new Field[]{dictionary, dictionary}, new boolean[]{false, true});
+    }
+
+    private void checkSort(final Field[] fields, final boolean[] ascending) {
+        final int n = fields[0].rowCount();
+        Integer[] expected = new Integer[n];
+        for (int i = 0; i < n; i++) expected[i] = i;
+        Arrays.sort(expected, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                for (int i = 0; i < fields.length; i++) {
+                    int c = fields[i].compareRows(a, b);
+                    if (c != 0) return ascending != null && !ascending[i] ? -c : c;
+                }
+                return a - b;
+            }
+        });
+
+        int[] order = new FieldRowComparison(fields, ascending, true).makeSortedOrder(n);
+        assertEquals(Data.join(expected), Data.join(order));
+
+        // Ties are kept in their original order even if rows do not break ties
+        order = new FieldRowComparison(fields, ascending, false).makeSortedOrder(n);
+        assertEquals(Data.join(expected), Data.join(order));
+    }
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.app;
+
+import org.brunel.data.Data;
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.io.CSV;
+import org.brunel.data.io.Serialize;
+import org.brunel.data.summary.FieldRowComparison;
+import org.brunel.data.values.ColumnProvider;
+import org.brunel.data.values.DictionaryProvider;
+import org.brunel.data.values.DoubleColumnProvider;
+
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A set of tests to investigate speed of the data layer on large data
+ */
+public class DataSpeedTests {
+
+    private static String makeCSV(int rows) {
+        Random random = new Random(12345);
+        String[] regions = new String[]{"North", "South", "East", "West", "\"Central, Upper\""};
+        StringBuilder b = new StringBuilder("id,region,income,rate,comment\n");
+        for (int i = 0; i < rows; i++) {
+            b.append(i).append(',');
+            b.append(regions[random.nextInt(regions.length)]).append(',');
+            b.append(random.nextInt(200000)).append(',');
+            b.append(Math.round(random.nextGaussian() * 10000) / 100.0).append(',');
+            b.append(i % 50 == 0 ? "\"multiple\nlines\"" : "text " + random.nextInt(1000)).append('\n');
+        }
+        return b.toString();
+    }
+
+    static class SequentialCSV implements Callable<Integer> {
+        private final String text;
+
+        public SequentialCSV(String text) {
+            this.text = text;
+        }
+
+        public Integer call() throws Exception {
+            Field[] fields = CSV.read(new StringReader(text));
+            return fields[0].rowCount();
+        }
+    }
+
+    static class ParallelCSV implements Callable<Integer> {
+        private final String text;
+        private final ForkJoinPool pool;
+
+        public ParallelCSV(String text, ForkJoinPool pool) {
+            this.text = text;
+            this.pool = pool;
+        }
+
+        public Integer call() throws Exception {
+            Field[] fields = CSV.readParallel(text, pool);
+            return fields[0].rowCount();
+        }
+    }
+
+    static class Sorting implements Callable<Integer> {
+        private final Field[] fields;
+
+        public Sorting(Field[] fields) {
+            this.fields = fields;
+        }
+
+        public Integer call() throws Exception {
+            int n = fields[0].rowCount();
+            int[] order = new FieldRowComparison(fields, null, true).makeSortedOrder(n);
+            if (order.length != n) throw new IllegalStateException();
+            return n;
+        }
+    }
+
+    /* The previous method: boxed indices, sorted with a comparator calling the fields */
+    static class BoxedSorting implements Callable<Integer> {
+        private final Field[] fields;
+
+        public BoxedSorting(Field[] fields) {
+            this.fields = fields;
+        }
+
+        public Integer call() throws Exception {
+            int n = fields[0].rowCount();
+            Integer[] items = new Integer[n];
+            for (int i = 0; i < n; i++) items[i] = i;
+            Arrays.sort(items, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    for (Field f : fields) {
+                        int c = f.compareRows(a, b);
+                        if (c != 0) return c;
+                    }
+                    return a - b;
+                }
+            });
+            return n;
+        }
+    }
+
+    /* Filters as issued by an interactive control; the range moves each call as a slider would */
+    static class Filtering implements Callable<Integer> {
+        private final Dataset data;
+        private final String command;
+        private int step;
+
+        public Filtering(Dataset data, String command) {
+            this.data = data;
+            this.command = command;
+        }
+
+        public Integer call() throws Exception {
+            int low = 1000 * (step++ % 50);
+            data.filter("income in " + low + ", " + (low + 100000) + command);
+            return data.rowCount();
+        }
+    }
+
+    /* A "top" filter on a new field, optionally sorting the field first (as the filter used to) */
+    static class Ranking implements Callable<Integer> {
+        private final DoubleColumnProvider values;
+        private final boolean sortFirst;
+
+        public Ranking(DoubleColumnProvider values, boolean sortFirst) {
+            this.values = values;
+            this.sortFirst = sortFirst;
+        }
+
+        public Integer call() throws Exception {
+            Field field = new Field("revenue", null, values);
+            field.set("numeric", true);
+            if (sortFirst) field.sortedNumericRows();
+            Dataset data = Dataset.make(new Field[]{field}, false);
+            if (data.filter("revenue ranked 1,20").rowCount() < 20) throw new IllegalStateException();
+            return values.count();
+        }
+    }
+
+    static class DateParsing implements Callable<Integer> {
+        private final Field field;
+        private final boolean byColumn;
+
+        public DateParsing(Field field, boolean byColumn) {
+            this.field = field;
+            this.byColumn = byColumn;
+        }
+
+        public Integer call() throws Exception {
+            int n = field.rowCount();
+            if (byColumn) {
+                if (Data.toDate(field).valid() != n) throw new IllegalStateException();
+            } else {
+                for (int i = 0; i < n; i++)
+                    if (Data.asDate(field.value(i)) == null) throw new IllegalStateException();
+            }
+            return n;
+        }
+    }
+
+    static class ParallelDateParsing implements Callable<Integer> {
+        private final Field[] fields;
+        private final ForkJoinPool pool;
+
+        public ParallelDateParsing(Field[] fields, ForkJoinPool pool) {
+            this.fields = fields;
+            this.pool = pool;
+        }
+
+        public Integer call() throws Exception {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (Field field : fields) results.add(pool.submit(new DateParsing(field, true)));
+            int total = 0;
+            for (Future<Integer> result : results) total += result.get();
+            return total;
+        }
+    }
+
+    static class Serializing implements Callable<Integer> {
+        private final Dataset data;
+        private final boolean read;
+        private final byte[] bytes;
+
+        public Serializing(Dataset data, boolean read) {
+            this.data = data;
+            this.read = read;
+            this.bytes = Serialize.serializeDataset(data);
+        }
+
+        public Integer call() throws Exception {
+            if (read) {
+                if (((Dataset) Serialize.deserialize(bytes)).rowCount() != data.rowCount())
+                    throw new IllegalStateException();
+            } else {
+                Serialize.serializeDataset(data);
+            }
+            return data.rowCount();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        serializing(new int[]{10000, 100000, 1000000});
+        dateParsing(100000);
+        csvScaling(1000000);
+        sorting(new int[]{10000, 100000, 1000000, 5000000});
+        filtering(new int[]{10000, 100000, 1000000});
+        ranking(new int[]{100000, 1000000, 10000000});
+    }
+
+    private static Field[] makeSortFields(int rows) {
+        Random random = new Random(12345);
+        Object[] category = new Object[rows], name = new Object[rows];
+        double[] income = new double[rows], rate = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            category[i] = "Category " + random.nextInt(10);
+            name[i] = "Name " + random.nextInt(5000);
+            income[i] = random.nextInt(200000);
+            rate[i] = Math.round(random.nextGaussian() * 10000) / 100.0;
+        }
+        Field a = new Field("category", null, DictionaryProvider.make(category));
+        Field b = new Field("income", null, new DoubleColumnProvider(income));
+        Field c = new Field("name", null, DictionaryProvider.make(name));
+        Field d = new Field("rate", null, new DoubleColumnProvider(rate));
+        b.set("numeric", true);
+        d.set("numeric", true);
+        return new Field[]{a, b, c, d};
+    }
+
+    private static void sorting(int[] sizes) throws Exception {
+        for (int rows : sizes) {
+            Field[] all = makeSortFields(rows);
+            for (int keys = 1; keys <= all.length; keys++) {
+                Field[] fields = Arrays.copyOf(all, keys);
+                int repeats = rows > 1000000 ? 3 : 5;
+                callsPerSecond(new Sorting(fields), 2);
+                int rate = callsPerSecond(new Sorting(fields), repeats);
+                callsPerSecond(new BoxedSorting(fields), 1);
+                int boxed = callsPerSecond(new BoxedSorting(fields), repeats);
+                System.out.println("Sorting " + rows + " rows by " + keys + " keys: rows per second = " + rate
+                        + " (boxed comparator = " + boxed + ")");
+            }
+        }
+    }
+
+    private static void filtering(int[] sizes) throws Exception {
+        String[] commands = new String[]{"", "; category is Category 1, Category 3, Category 7", "; rate !in -20, 20"};
+        for (int rows : sizes) {
+            Dataset data = Dataset.make(makeSortFields(rows), false);
+            for (String command : commands) {
+                callsPerSecond(new Filtering(data, command), 5);
+                int rate = callsPerSecond(new Filtering(data, command), 11);
+                System.out.println("Filtering " + rows + " rows by 'income in ..." + command + "': rows per second = " + rate);
+            }
+        }
+    }
+
+    private static void ranking(int[] sizes) throws Exception {
+        Random random = new Random(12345);
+        for (int rows : sizes) {
+            double[] revenue = new double[rows];
+            for (int i = 0; i < rows; i++) revenue[i] = Math.round(random.nextGaussian() * 1e6) / 100.0;
+            DoubleColumnProvider values = new DoubleColumnProvider(revenue);
+            callsPerSecond(new Ranking(values, false), 3);
+            int selection = callsPerSecond(new Ranking(values, false), 5);
+            callsPerSecond(new Ranking(values, true), 3);
+            int sorting = callsPerSecond(new Ranking(values, true), 5);
+            System.out.println("Top 20 of " + rows + " rows: rows per second = " + selection
+                    + " (sorting first = " + sorting + ")");
+        }
+    }
+
+    private static void serializing(int[] sizes) throws Exception {
+        for (int rows : sizes) {
+            Dataset data = Dataset.make(CSV.read(makeCSV(rows)), false);
+            callsPerSecond(new Serializing(data, false), 3);
+            int write = callsPerSecond(new Serializing(data, false), 5);
+            callsPerSecond(new Serializing(data, true), 3);
+            int read = callsPerSecond(new Serializing(data, true), 5);
+            System.out.println("Serializing " + rows + " rows (" + Serialize.serializeDataset(data).length / 1024
+                    + "KB): rows per second written = " + write + ", read = " + read);
+        }
+    }
+
+    private static Field makeDateField(int rows, String pattern, int seed) {
+        Random random = new Random(seed);
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Object[] values = new Object[rows];
+        for (int i = 0; i < rows; i++) values[i] = format.format(new Date(random.nextInt(2000000000) * 1000L));
+        return new Field("date", null, new ColumnProvider(values));
+    }
+
+    private static void dateParsing(int rows) throws Exception {
+        String[] patterns = new String[]{"yyyy-MM-dd'T'HH:mm:ss", "MMM d, yyyy", "M/d/yyyy H:mm", "H:mm:ss"};
+        for (String pattern : patterns) {
+            Field field = makeDateField(rows, pattern, 12345);
+            callsPerSecond(new DateParsing(field, false), 2);
+            int single = callsPerSecond(new DateParsing(field, false), 5);
+            callsPerSecond(new DateParsing(field, true), 2);
+            int column = callsPerSecond(new DateParsing(field, true), 5);
+            System.out.println("Date parsing " + rows + " rows of '" + pattern + "': rows per second = " + column
+                    + " (value by value = " + single + ")");
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        Field[] fields = new Field[cores];
+        for (int i = 0; i < cores; i++) fields[i] = makeDateField(rows, patterns[i % patterns.length], i);
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            callsPerSecond(new ParallelDateParsing(fields, pool), 2);
+            int rate = callsPerSecond(new ParallelDateParsing(fields, pool), 5);
+            System.out.println("Parallel date parsing (" + threads + " threads) rows per second = " + rate);
+            pool.shutdown();
+        }
+    }
+
+    private static void csvScaling(int rows) throws Exception {
+        String text = makeCSV(rows);
+        System.out.println("CSV reading: " + rows + " rows, " + text.length() / 1024 / 1024 + "MB");
+
+        // Warm up, then call it
+        callsPerSecond(new SequentialCSV(text), 3);
+        System.out.println("Sequential rows per second = " + callsPerSecond(new SequentialCSV(text), 5));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            callsPerSecond(new ParallelCSV(text, pool), 3);
+            int rate = callsPerSecond(new ParallelCSV(text, pool), 5);
+            System.out.println("Parallel (" + threads + " threads) rows per second = " + rate);
+            pool.shutdown();
+        }
+    }
+
+    private static int callsPerSecond(Callable<Integer> callable, int repeats) throws Exception {
+        double[] times = new double[repeats];
+        for (int i = 0; i < repeats; i++) {
+            long t1 = System.nanoTime();
+            int iterations = callable.call();
+            long t2 = System.nanoTime();
+            times[i] = iterations * 1e9 / (t2 - t1);
+        }
+
+        // Return median
+        Arrays.sort(times);
+        return (int) times[(times.length - 1) / 2];
+    }
+
+}
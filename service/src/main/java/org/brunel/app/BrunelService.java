@@ -21,8 +21,10 @@ import org.brunel.build.d3.D3Builder;
 import org.brunel.build.util.ContentReader;
 import org.brunel.build.util.DataCache;
 import org.brunel.data.Dataset;
+import org.brunel.maps.GeoInformation;
 import org.brunel.match.BestMatch;
 import org.brunel.model.VisException;
+import org.brunel.model.VisItem;
 import org.brunel.util.BrunelD3Result;
 import org.brunel.util.D3Integration;
 import org.brunel.util.WebDisplay;
@@ -42,7 +44,12 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 
 /**
@@ -63,6 +70,10 @@ public class BrunelService extends Application {
 	
 	private static final Gson gson = new Gson();
 
+	static {
+		GeoInformation.loadInBackground();		// So the first map request does not wait for it
+	}
+
 	private static final String ERROR_TEMPLATE = "<link rel='stylesheet' href='https://maxcdn.bootstrapcdn.com/bootstrap/3.3.5/css/bootstrap.min.css'>\n" +
 			"<link rel='stylesheet' href='https://maxcdn.bootstrapcdn.com/bootstrap/3.3.5/css/bootstrap-theme.min.css'>\n" +
 			"<script src='//ajax.googleapis.com/ajax/libs/jquery/1.11.3/jquery.min.js' charset='utf-8'></script>\n" +
@@ -107,6 +118,54 @@ public class BrunelService extends Application {
     	}
     }
 
+    /**
+     * Generates the JS using D3 to produce a visualization, sending it as it is generated rather than building
+     * the whole result first.  The data can be on the payload or it can be specified using the Brunel data() function.
+     * @param data   the data to use for the visualization (as URL or cache identifier)
+     * @param brunelSrc the Brunel syntax defining the visualization
+     * @param width the desired width of the resulting visualization
+     * @param height the desired height of the resulting visualization
+     * @param visId an identifier to use for the d3 JS to reference the HTML tag containing the visualization on the web page (usually an SVG tag).
+     * @param controlsId an identifier to use for HTML tag that will contain the interactive controls.
+     * @param prefix (optional) The prefix used to uniquely identify data for a given user session when adding data to the cache.
+     * @return the visualization JS
+     */
+    @POST
+    @Path("d3/js")
+    @Consumes(MediaType.TEXT_PLAIN)        //A CSV file is the payload
+    @Produces("application/javascript")
+    public Response createAsD3Script(final String data, @QueryParam("src") String brunelSrc,
+                                     @QueryParam("width") final int width,
+                                     @QueryParam("height") final int height,
+                                     @QueryParam("visid") final String visId,
+                                     @QueryParam("controlsid") final String controlsId,
+                                     @QueryParam("data_prefix") String prefix
+                                     ) {
+
+    	try {
+    		if (prefix != null) brunelSrc = D3Integration.prefixAllDataStatements(brunelSrc, prefix);
+    		// Read the data and Brunel now, so errors are reported before the response is started
+    		final VisItem item = D3Integration.prepareVisualization(data, brunelSrc);
+    		StreamingOutput stream = new StreamingOutput() {
+    			public void write(OutputStream output) throws IOException {
+    				Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+    				try {
+    					D3Integration.writeBrunelJS(item, width, height, visId, controlsId, writer);
+    				} catch (RuntimeException ex) {
+    					ex.printStackTrace();
+    					throw makeException(ex.getMessage(), ex, Status.BAD_REQUEST.getStatusCode(), false);
+    				}
+    				writer.flush();
+    			}
+    		};
+    		return Response.ok(stream).header("Access-Control-Allow-Origin", "*").build();
+    	}
+    	catch (Exception ex) {
+    		ex.printStackTrace();
+    		throw makeException(ex.getMessage(), ex, Status.BAD_REQUEST.getStatusCode(), false);
+    	}
+    }
+
     /**
      * Creates a full HTML page suitable for use within an HTML IFrame.
      * @param brunelSrc the Brunel syntax defining the visualization